@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.ConvertUtils;
+import org.apache.commons.beanutils.Converter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of converting values on their own: looking the converter
+ * up through ConvertUtils on every value, as opposed to once, and
+ * the array conversions used for array parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"10", "1000"})
+    public int valueCount;
+
+    @Param({"Integer", "int", "Double", "File"})
+    public String elementType;
+
+    private Class<?> type;
+    private Converter converter;
+    private String[] values;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (elementType) {
+            case "Integer":
+                type = Integer.class;
+                break;
+            case "int":
+                type = int.class;
+                break;
+            case "Double":
+                type = Double.class;
+                break;
+            default:
+                type = File.class;
+                break;
+        }
+        converter = ConvertUtils.lookup(String.class, type);
+        values = new String[valueCount];
+        for (int i = 0; i < valueCount; ++i) {
+            values[i] = Integer.toString(i * 7);
+        }
+    }
+
+
+    @Benchmark
+    public Object convertWithLookup() {
+        Object last = null;
+        for (String value : values) {
+            last = ConvertUtils.convert(value, type);
+        }
+        return last;
+    }
+
+
+    @Benchmark
+    public Object convertWithConverter() {
+        Object last = null;
+        for (String value : values) {
+            last = converter.convert(type, value);
+        }
+        return last;
+    }
+
+
+    @Benchmark
+    public Object convertToArray() {
+        return CommandLineConversions.toArray(converter, type, values, false);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.hablutzel.cmdline;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of calling the option methods for a parsed command line,
+ * which includes converting the values through beanutils, for each
+ * method type and element type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"10", "100"})
+    public int argumentCount;
+
+    @Param({"Boolean", "Scalar", "Array", "List"})
+    public String methodType;
+
+    @Param({"String", "Integer", "int", "File"})
+    public String elementType;
+
+    private CommandLineInterpreter<CommandLineApplication> interpreter;
+    private ParsedCommandLine commandLine;
+    private CommandLineApplication target;
+
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        Class<? extends CommandLineApplication> applicationClass = SyntheticApplications.create(argumentCount, methodType, elementType, false);
+        interpreter = (CommandLineInterpreter<CommandLineApplication>) CommandLineInterpreter.forClass(applicationClass);
+        commandLine = interpreter.parse(SyntheticApplications.arguments(argumentCount, argumentCount, methodType, 2));
+        target = applicationClass.getDeclaredConstructor().newInstance();
+    }
+
+
+    @Benchmark
+    public CommandLineApplication dispatch() throws CommandLineException {
+        interpreter.dispatch(target, commandLine);
+        return target;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.hablutzel.cmdline;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of parsing a command line, with the commons-cli parser and
+ * with the native one, as the number of options declared and the number
+ * given on the command line grow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int optionCount;
+
+    @Param({"1", "10", "100"})
+    public int argumentCount;
+
+    @Param({"Boolean", "Scalar", "Array"})
+    public String methodType;
+
+    @Param({"CommonsCli", "Native"})
+    public String parser;
+
+    private CommandLineInterpreter<? extends CommandLineApplication> interpreter;
+    private String[] arguments;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        interpreter = CommandLineInterpreter.forClass(SyntheticApplications.create(optionCount, methodType, "String",
+                parser.equals("Native")));
+        arguments = SyntheticApplications.arguments(optionCount, argumentCount, methodType, 2);
+    }
+
+
+    @Benchmark
+    public ParsedCommandLine parse() throws CommandLineException {
+        return interpreter.parse(arguments);
+    }
+}
@@ -0,0 +1,343 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.hablutzel.cmdline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a CommandLineApplication takes to reach its main
+ * method when it is started as a fresh JVM, which is what the user of
+ * a short-lived tool waits for. The JMH benchmarks all run in a warm
+ * JVM, so they don't see class loading, class initialization or the
+ * interpreter running the configuration code for the first time.
+ *
+ * For each option count, an application class with that many options
+ * of mixed method and element types is compiled, once using the
+ * reflective path and once with a generated dispatcher. Each class is
+ * started a number of times, and the harness reports the median and
+ * 99th percentile time from starting the JVM to the main method being
+ * called, the number of classes loaded by then and the peak resident
+ * memory (on Linux). The results are compared with a stored baseline,
+ * and the harness exits with status 1 if any of the median time, the
+ * class count or the peak memory has grown by more than the threshold.
+ * The baseline is kept in the repository, so each commit is checked
+ * against the one it was recorded with. A missing baseline is an error;
+ * the results are only stored as the baseline with --update-baseline.
+ *
+ *     java -cp target/benchmarks.jar com.hablutzel.cmdline.StartupHarness --options=10,100 --runs 50
+ */
+public final class StartupHarness extends CommandLineApplication {
+
+    /** Printed by the synthetic applications when their main method is called */
+    static final String MAIN_REACHED = "cmdline-main-reached";
+
+    private static final String PEAK_MEMORY = "cmdline-peak-kilobytes ";
+    private static final String CLASS_LOADED = "[class,load]";
+
+    /** How a synthetic application dispatches its options */
+    enum Dispatch {
+        Reflective, Generated
+    }
+
+    private int[] optionCounts = {10, 100, 1000};
+    private int runs = 20;
+    private int warmupRuns = 3;
+    private double threshold = 10.0;
+    private File baseline = new File("startup-baseline.properties");
+    private boolean updateBaseline;
+    private int status;
+
+
+    @CommandLineOption(longForm = "options", usage = "The option counts to measure (default 10,100,1000)",
+            maximumArgumentCount = 10)
+    public void setOptionCounts(int[] optionCounts) {
+        this.optionCounts = optionCounts;
+    }
+
+    @CommandLineOption(longForm = "runs", usage = "The number of measured runs of each application (default 20)")
+    public void setRuns(int runs) {
+        this.runs = runs;
+    }
+
+    @CommandLineOption(longForm = "warmup", usage = "The number of unmeasured runs of each application first (default 3)")
+    public void setWarmupRuns(int warmupRuns) {
+        this.warmupRuns = warmupRuns;
+    }
+
+    @CommandLineOption(longForm = "threshold", usage = "The percentage growth over the baseline that fails (default 10)")
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    @CommandLineOption(longForm = "baseline", usage = "The baseline file (default startup-baseline.properties)")
+    public void setBaseline(File baseline) {
+        this.baseline = baseline;
+    }
+
+    @CommandLineOption(longForm = "update-baseline", usage = "Store the results as the baseline rather than comparing them")
+    public void setUpdateBaseline() {
+        this.updateBaseline = true;
+    }
+
+
+    /**
+     * Called by the synthetic applications after their main method, to
+     * report the peak resident memory. This is read from /proc, so
+     * nothing is printed on systems without it.
+     */
+    public static void printPeakMemory() throws IOException {
+        Path status = Paths.get("/proc/self/status");
+        if (Files.isReadable(status)) {
+            for (String line : Files.readAllLines(status, StandardCharsets.ISO_8859_1)) {
+                if (line.startsWith("VmHWM:")) {
+                    System.out.println(PEAK_MEMORY + line.substring("VmHWM:".length()).trim().split("\\s+")[0]);
+                }
+            }
+        }
+    }
+
+
+    @CommandLineMain
+    public void run(String[] arguments) throws CommandLineException {
+        if (runs < 1 || warmupRuns < 0) {
+            throw new CommandLineException("there must be at least one run, and warmup runs can't be negative");
+        }
+        if (!updateBaseline && !baseline.exists()) {
+            throw new CommandLineException("there is no baseline at " + baseline.getAbsolutePath()
+                    + "; record one with --update-baseline");
+        }
+        try {
+            measureAll();
+        } catch (IOException e) {
+            throw new CommandLineException("Unable to measure startup: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while measuring startup", e);
+        }
+    }
+
+
+    private void measureAll() throws IOException, InterruptedException {
+        Properties results = new Properties();
+        System.out.printf("%8s  %-10s  %10s  %10s  %8s  %12s%n",
+                "options", "dispatch", "p50 ms", "p99 ms", "classes", "peak KB");
+        for (int optionCount : optionCounts) {
+            for (Dispatch dispatch : Dispatch.values()) {
+                Path directory = SyntheticApplications.compileMain(optionCount, "Mixed", "String",
+                        dispatch == Dispatch.Generated);
+                try {
+                    measure(optionCount, dispatch, directory, results);
+                } finally {
+                    delete(directory);
+                }
+            }
+        }
+
+        if (updateBaseline) {
+            try (Writer writer = Files.newBufferedWriter(baseline.toPath(), StandardCharsets.ISO_8859_1)) {
+                results.store(writer, "Startup baseline for " + System.getProperty("java.vm.name")
+                        + " " + System.getProperty("java.version"));
+            }
+            System.out.println("Stored the results as the baseline in " + baseline);
+        } else {
+            status = compare(results) ? 0 : 1;
+        }
+    }
+
+
+    /**
+     * Start an application repeatedly, and record its results under
+     * keys of the form options.dispatch.measure
+     */
+    private void measure(int optionCount, Dispatch dispatch, Path directory, Properties results)
+            throws IOException, InterruptedException {
+        String[] arguments = SyntheticApplications.arguments(optionCount, Math.min(optionCount, 20), "Mixed", 2);
+        for (int i = 0; i < warmupRuns; ++i) {
+            launch(directory, arguments, false);
+        }
+        long[] nanos = new long[runs];
+        long[] kilobytes = new long[runs];
+        for (int i = 0; i < runs; ++i) {
+            Run run = launch(directory, arguments, false);
+            nanos[i] = run.nanosToMain;
+            kilobytes[i] = run.peakKilobytes;
+        }
+        // Logging every class load slows startup, so the classes are counted in a run of their own
+        int classes = launch(directory, arguments, true).classesLoaded;
+
+        Arrays.sort(nanos);
+        Arrays.sort(kilobytes);
+        double p50 = percentile(nanos, 50) / 1e6;
+        double p99 = percentile(nanos, 99) / 1e6;
+        long peak = percentile(kilobytes, 50);
+        System.out.printf("%8d  %-10s  %10.1f  %10.1f  %8d  %12s%n",
+                optionCount, dispatch, p50, p99, classes, peak < 0 ? "n/a" : Long.toString(peak));
+
+        String prefix = optionCount + "." + dispatch + ".";
+        results.setProperty(prefix + "p50Millis", String.format(Locale.ROOT, "%.1f", p50));
+        results.setProperty(prefix + "p99Millis", String.format(Locale.ROOT, "%.1f", p99));
+        results.setProperty(prefix + "classes", Integer.toString(classes));
+        if (peak >= 0) {
+            results.setProperty(prefix + "peakKilobytes", Long.toString(peak));
+        }
+    }
+
+
+    /** The results of starting an application once */
+    private static final class Run {
+        long nanosToMain = -1;
+        int classesLoaded;
+        long peakKilobytes = -1;
+    }
+
+
+    private Run launch(Path directory, String[] arguments, boolean countClasses) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (countClasses) {
+            command.add("-Xlog:class+load=info:stdout");
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path") + File.pathSeparator + directory);
+        command.add(SyntheticApplications.MAIN_CLASS);
+        command.addAll(Arrays.asList(arguments));
+
+        Run run = new Run();
+        StringBuilder output = new StringBuilder();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (Reader reader = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8);
+             BufferedReader lines = new BufferedReader(reader)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (run.nanosToMain < 0) {
+                    if (line.equals(MAIN_REACHED)) {
+                        run.nanosToMain = System.nanoTime() - start;
+                    } else if (line.contains(CLASS_LOADED)) {
+                        run.classesLoaded++;
+                    } else {
+                        output.append(line).append(System.lineSeparator());
+                    }
+                } else if (line.startsWith(PEAK_MEMORY)) {
+                    run.peakKilobytes = Long.parseLong(line.substring(PEAK_MEMORY.length()));
+                } else if (!line.contains(CLASS_LOADED)) {
+                    output.append(line).append(System.lineSeparator());
+                }
+            }
+        }
+        int exitValue = process.waitFor();
+        if (exitValue != 0 || run.nanosToMain < 0) {
+            throw new IOException("The application in " + directory + " failed with status " + exitValue
+                    + System.lineSeparator() + output);
+        }
+        return run;
+    }
+
+
+    /**
+     * Compare the results with the baseline, reporting each measure
+     * that has grown by more than the threshold
+     *
+     * @return True if nothing has regressed
+     */
+    private boolean compare(Properties results) throws IOException {
+        Properties stored = new Properties();
+        try (Reader reader = Files.newBufferedReader(baseline.toPath(), StandardCharsets.ISO_8859_1)) {
+            stored.load(reader);
+        }
+        boolean passed = true;
+        for (String key : new TreeSet<>(results.stringPropertyNames())) {
+            // The 99th percentile is too noisy over a few runs to fail on; it is reported only
+            String expected = stored.getProperty(key);
+            if (key.endsWith(".p99Millis") || expected == null) {
+                continue;
+            }
+            double before = Double.parseDouble(expected);
+            double after = Double.parseDouble(results.getProperty(key));
+            if (after > before * (1 + threshold / 100)) {
+                System.out.printf("Regression in %s: %s against a baseline of %s (%+.1f%%)%n",
+                        key, results.getProperty(key), expected, (after - before) * 100 / before);
+                passed = false;
+            }
+        }
+        System.out.println(passed
+                ? "No regressions over " + threshold + "% against " + baseline
+                : "Startup has regressed against " + baseline);
+        return passed;
+    }
+
+
+    private static long percentile(long[] sorted, int percent) {
+        // Nearest rank, so the 99th percentile of 20 runs is the slowest
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+
+    public static void main(String[] args) {
+        StartupHarness harness = new StartupHarness();
+        try {
+            harness.parseAndRun(args);
+        } catch (CommandLineException e) {
+
+            // Report the harness's own failure, rather than the library's wrapping of it
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            System.err.println("Unable to run the startup harness because " + cause.getMessage());
+            harness.status = 2;
+        }
+        System.exit(harness.status);
+    }
+}
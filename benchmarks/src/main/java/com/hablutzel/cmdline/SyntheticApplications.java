@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.hablutzel.cmdline;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds CommandLineApplication subclasses for the benchmarks. A class
+ * with hundreds of options is not something to write by hand, so the
+ * source is generated, compiled with the system compiler and loaded in
+ * its own class loader. Each call gives a new class, so nothing cached
+ * for an earlier class is reused.
+ *
+ * Every option of a class has the same method type (Boolean, Scalar,
+ * Array or List) and element type (String, Integer, int or File), or,
+ * for the Mixed method type, option n has the method type n % 4 and
+ * the element type (n / 4) % 4 of those lists. The options are named
+ * --option0, --option1 and so on, and the main method takes a String[].
+ */
+final class SyntheticApplications {
+
+    /** The name of the class compiled by {@link #compileMain} */
+    static final String MAIN_CLASS = "synthetic.Main";
+
+    private static final String[] METHOD_TYPES = {"Boolean", "Scalar", "Array", "List"};
+    private static final String[] ELEMENT_TYPES = {"String", "Integer", "int", "File"};
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private SyntheticApplications() {
+    }
+
+
+    /**
+     * Create an application class
+     *
+     * @param optionCount The number of options
+     * @param methodType Boolean, Scalar, Array, List or Mixed
+     * @param elementType String, Integer, int or File; ignored for Mixed
+     * @param nativeParser True to use the native parser rather than commons-cli
+     * @return The class
+     */
+    static Class<? extends CommandLineApplication> create(int optionCount, String methodType, String elementType,
+                                                          boolean nativeParser) throws IOException, ClassNotFoundException {
+        String simpleName = "Synthetic" + classCount.incrementAndGet();
+        Path directory = compile(simpleName, source(simpleName, optionCount, methodType, elementType, nativeParser, false), false);
+        URLClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()},
+                SyntheticApplications.class.getClassLoader());
+        return loader.loadClass("synthetic." + simpleName).asSubclass(CommandLineApplication.class);
+    }
+
+
+    /**
+     * Compile an application class with a static main method, to be run
+     * in its own JVM. The main method prints {@link StartupHarness#MAIN_REACHED}
+     * when the @CommandLineMain method is called, and the peak memory use
+     * when it returns.
+     *
+     * @param optionCount The number of options
+     * @param methodType Boolean, Scalar, Array, List or Mixed
+     * @param elementType String, Integer, int or File; ignored for Mixed
+     * @param generated True to generate a dispatcher for the class
+     * @return The directory holding the compiled class, which is named
+     *         {@link #MAIN_CLASS}
+     */
+    static Path compileMain(int optionCount, String methodType, String elementType,
+                            boolean generated) throws IOException {
+        return compile("Main", source("Main", optionCount, methodType, elementType, false, true), generated);
+    }
+
+
+    private static Path compile(String simpleName, String source, boolean generated) throws IOException {
+        Path directory = Files.createTempDirectory("cmdline-benchmark");
+        Path sourceFile = directory.resolve(simpleName + ".java");
+        Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        String classPath = System.getProperty("java.class.path");
+        List<String> options = new ArrayList<>();
+        if (generated) {
+            options.add("-processorpath");
+            options.add(classPath);
+            options.add("-processor");
+            options.add("com.hablutzel.cmdline.processor.CommandLineProcessor");
+            options.add("-s");
+            options.add(directory.toString());
+        } else {
+            options.add("-proc:none");
+        }
+        options.addAll(List.of("-nowarn", "-cp", classPath, "-d", directory.toString(), sourceFile.toString()));
+        int status = compiler.run(null, null, null, options.toArray(new String[options.size()]));
+        if (status != 0) {
+            throw new IllegalStateException("Unable to compile " + sourceFile);
+        }
+        return directory;
+    }
+
+
+    /**
+     * Build a command line for an application class
+     *
+     * @param optionCount The number of options in the class
+     * @param argumentCount The number of options to give; these cycle through the options
+     * @param methodType The method type of the options, or Mixed
+     * @param mainArgumentCount The number of main arguments
+     * @return The command line
+     */
+    static String[] arguments(int optionCount, int argumentCount, String methodType, int mainArgumentCount) {
+        List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < argumentCount; ++i) {
+            int option = i % optionCount;
+            arguments.add("--option" + option);
+            switch (methodType.equals("Mixed") ? METHOD_TYPES[option % METHOD_TYPES.length] : methodType) {
+                case "Boolean":
+                    break;
+                case "Scalar":
+                    arguments.add("12");
+                    break;
+                default:
+                    arguments.add("12,34,56");
+                    break;
+            }
+        }
+        for (int i = 0; i < mainArgumentCount; ++i) {
+            arguments.add("file" + i);
+        }
+        return arguments.toArray(new String[arguments.size()]);
+    }
+
+
+    private static String source(String simpleName, int optionCount, String methodType, String elementType,
+                                 boolean nativeParser, boolean main) {
+        StringBuilder source = new StringBuilder();
+        source.append("package synthetic;\n\n");
+        if (nativeParser) {
+            source.append("@com.hablutzel.cmdline.CommandLineConfiguration(parser = com.hablutzel.cmdline.CommandLineConfiguration.Parser.Native)\n");
+        }
+        source.append("public class ").append(simpleName).append(" extends com.hablutzel.cmdline.CommandLineApplication {\n");
+        source.append("    public int calls;\n");
+        for (int i = 0; i < optionCount; ++i) {
+            boolean mixed = methodType.equals("Mixed");
+            String optionMethodType = mixed ? METHOD_TYPES[i % METHOD_TYPES.length] : methodType;
+            String javaType = javaType(mixed ? ELEMENT_TYPES[(i / METHOD_TYPES.length) % ELEMENT_TYPES.length] : elementType);
+            String boxedType = javaType.equals("int") ? "java.lang.Integer" : javaType;
+            String parameter;
+            String attributes = "longForm = \"option" + i + "\", usage = \"Option " + i + "\"";
+            switch (optionMethodType) {
+                case "Boolean":
+                    parameter = "";
+                    break;
+                case "Scalar":
+                    parameter = javaType + " value";
+                    break;
+                case "Array":
+                    parameter = javaType + "[] values";
+                    attributes += ", maximumArgumentCount = 3";
+                    break;
+                case "List":
+                    parameter = "java.util.List<" + boxedType + "> values";
+                    attributes += ", maximumArgumentCount = 3, argumentType = " + boxedType + ".class";
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown method type " + methodType);
+            }
+            source.append("    @com.hablutzel.cmdline.CommandLineOption(").append(attributes).append(")\n");
+            source.append("    public void option").append(i).append("(").append(parameter).append(") { calls++; }\n");
+        }
+        source.append("    @com.hablutzel.cmdline.CommandLineMain\n");
+        if (main) {
+            // Printed directly, so that the harness class isn't loaded before main is reached
+            source.append("    public void run(String[] arguments) { calls++; System.out.println(\"")
+                    .append(StartupHarness.MAIN_REACHED).append("\"); System.out.flush(); }\n");
+            source.append("    public static void main(String[] args) throws Exception {\n");
+            source.append("        new ").append(simpleName).append("().parseAndRun(args);\n");
+            source.append("        com.hablutzel.cmdline.StartupHarness.printPeakMemory();\n");
+            source.append("    }\n");
+        } else {
+            source.append("    public void run(String[] arguments) { calls++; }\n");
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+
+    private static String javaType(String elementType) {
+        switch (elementType) {
+            case "String":
+                return "java.lang.String";
+            case "Integer":
+                return "java.lang.Integer";
+            case "int":
+                return "int";
+            case "File":
+                return "java.io.File";
+            default:
+                throw new IllegalArgumentException("Unknown element type " + elementType);
+        }
+    }
+}
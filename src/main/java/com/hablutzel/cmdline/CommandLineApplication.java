@@ -27,17 +27,13 @@
 
 package com.hablutzel.cmdline;
 
-import org.apache.commons.beanutils.ConvertUtils;
-import org.apache.commons.beanutils.Converter;
 import org.apache.commons.cli.*;
 
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Bob Hablutzel on 6/10/16.
@@ -45,453 +41,208 @@ import java.util.Map;
 public class CommandLineApplication {
 
 
-    private enum MethodType {
-        Boolean, Scalar, Array, List
-    };
-
     /**
-     * Private class used to remember configuration values
-     * for the methods used with the command line options
+     * The prefix of the hidden options that ask for something other
+     * than a normal run, such as a completion or training run
      */
-    private static final class CommandLineMethodHelper {
-        Method method;
-        MethodType methodType;
-        Class<?> elementType;
-        Converter converter;
-
-        CommandLineMethodHelper(Method method, MethodType methodType, Class<?> elementType, Converter converter) {
-            this.method = method;
-            this.methodType = methodType;
-            this.elementType = elementType;
-            this.converter = converter;
-        }
-
-
-        // Invokes the method. If any invocation returns false, then
-        // the looping stops and false is returned. Otherwise this method
-        // returns true. Note that we've already validated that the only
-        // possible return is a boolean
+    static final String HIDDEN_OPTION_PREFIX = "--cmdline-";
 
-        boolean invokeMethod( Object instance, String[] arguments ) throws CommandLineException {
-            boolean continueToInvoke = true;
+    /**
+     * Dispatchers generated by the annotation processor, by application
+     * class. The value is null for classes that were not processed.
+     */
+    private static final ClassValue<CommandLineDispatcher<?>> generatedDispatchers = new ClassValue<CommandLineDispatcher<?>>() {
+        @Override
+        protected CommandLineDispatcher<?> computeValue(Class<?> type) {
             try {
-                switch (methodType) {
-                    case Boolean: {
-                        Object result = method.invoke(instance);
-                        if (result instanceof Boolean) {
-                            continueToInvoke = ((Boolean)result);
-                        }
-                        break;
-                    }
-                    case Scalar: {
-                        if (arguments == null) {
-                            method.invoke(instance, new Object[] { null });
-                        } else {
-                            for (String s : arguments) {
-                                Object result = method.invoke(instance, converter.convert(elementType, s));
-                                if (result instanceof Boolean) {
-                                    continueToInvoke = ((Boolean) result);
-                                }
-                                if (!continueToInvoke) break;
-                            }
-                        }
-                        break;
-                    }
-                    case Array: {
-                        Object result;
-                        if (arguments == null) {
-                            result = method.invoke(instance,Array.newInstance(elementType,0));
-                        } else {
-                            Object array = Array.newInstance(elementType, arguments.length);
-                            for (int i = 0; i < arguments.length; ++i) {
-                                Array.set(array, i, converter.convert(elementType, arguments[i]));
-                            }
-                            result = method.invoke(instance, array);
-                        }
-                        if (result instanceof Boolean) {
-                            continueToInvoke = ((Boolean) result);
-                        }
-                        break;
-                    }
-                    case List: {
-                        Object result;
-                        if (arguments == null) {
-                            result = method.invoke(instance,new ArrayList());
-                        } else {
-                            List list = new ArrayList();
-                            for (int i = 0; i < arguments.length; ++i) {
-                                list.add(converter.convert(elementType, arguments[i]));
-                            }
-                            result = method.invoke(instance, list);
-                        }
-                        if (result instanceof Boolean) {
-                            continueToInvoke = ((Boolean) result);
-                        }
-                        break;
-                    }
-                }
-            } catch (InvocationTargetException e) {
-                throw new CommandLineException("Unable to invoke method " + method.getName(), e);
-            } catch (IllegalAccessException e) {
-                throw new CommandLineException("Unable to invoke method " + method.getName() + " because the method is not accessible");
+                Class<?> dispatcherClass = Class.forName(type.getName() + CommandLineDispatcher.GENERATED_SUFFIX,
+                        true, type.getClassLoader());
+                return (CommandLineDispatcher<?>) dispatcherClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+
+                // No dispatcher, or one that can't be used; either way
+                // we fall back to the reflective configuration
+                return null;
             }
-
-            return continueToInvoke;
         }
-
-    }
+    };
 
 
     /**
-     * Common-cli options for command line parsing
+     * Get the dispatcher generated by the annotation processor for a class
+     *
+     * @param applicationClass The application class
+     * @return The dispatcher, or null if the class was not processed
      */
-    private Options options = new Options();
+    static CommandLineDispatcher<?> generatedDispatcher(Class<?> applicationClass) {
+        return generatedDispatchers.get(applicationClass);
+    }
+
 
     /**
-     * Map of options to configurations
+     * The default executor for asynchronous option methods, created
+     * when it is first needed. The threads are daemon threads, so
+     * they don't keep the JVM alive once main has finished.
      */
-    private Map<Option,CommandLineMethodHelper> optionHelperMap = new HashMap<>();
+    private static final class OptionExecutor {
+        static final ExecutorService INSTANCE;
+        static {
+            final AtomicInteger threadCount = new AtomicInteger();
+            INSTANCE = Executors.newCachedThreadPool(runnable -> {
+                // The threads outlive the command line that created them;
+                // each task sets the context of its own command line
+                Thread thread = new Thread(runnable, "cmdline-option-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
 
 
     /**
-     * Helper for the main command line method
+     * Common-cli options for command line parsing
      */
-    private CommandLineMethodHelper mainHelper = null;
-
+    private Options options = new Options();
 
     /**
-     * This method scans the subclass for annotations
-     * that denote the command line options and arguments,
-     * and configures the systems so that the members that
-     * have been annotated in that way are set up for calling
-     * at command line processing time
-     *
+     * The metadata of our class, when it is run reflectively. Its
+     * options are only built if the usage text is printed, as a class
+     * with lazy options doesn't build them otherwise.
      */
-    private final void configure() throws CommandLineException {
-
-        // Find all the fields in our subclass
-        for (Method method: this.getClass().getDeclaredMethods()) {
-
-            // If this method is marked with a  command line option, then configure
-            // a corresponding commons-cli command line option here
-            if (method.isAnnotationPresent(CommandLineOption.class)) {
-                CommandLineOption commandLineOption = method.getDeclaredAnnotation(CommandLineOption.class);
-                if (commandLineOption != null) {
-
-                    // Get the basic information about the option - the name and description
-                    String shortName = commandLineOption.shortForm().equals("") ? null : commandLineOption.shortForm();
-                    String longName = commandLineOption.longForm().equals("") ? null : commandLineOption.longForm();
-                    String description = commandLineOption.usage();
-
-                    // If both the short and long name are null, then use the field name as the long name
-                    if (shortName == null && longName == null) {
-                        longName = method.getName();
-                    }
-
-                    // The signature of the method determines what kind of command line
-                    // option is allowed. Basically, if the method does not take an argument,
-                    // then the option does not take arguments either. In this case, the
-                    // method is just called when the option is present.
-                    //
-                    // If the method does take argument, there are restrictions on the arguments
-                    // that are allowed. If there is a single argument, then the method will be
-                    // called for each argument supplied to the option. Generally in this case you
-                    // want the maximum number of option arguments to be 1, and you are just getting
-                    // the value of the argument. On the other hand, if the single argument is either
-                    // and array or a List<>, then the arguments will be passed in as an argument
-                    // or list respectively.
-                    //
-                    // Methods with more than 1 argument are not allowed. Methods with return types
-                    // other than boolean are not allowed. Methods that throw an exception other than
-                    // org.apache.commons.cli.CommandLineException are not allowed,
-                    //
-                    // If the method returns a boolean, and calling that method returns FALSE, then the
-                    // command line main function will not be called.
-                    //
-                    // The class of the argument has to be convertable using common-beanutils
-                    // conversion facilities
-                    CommandLineMethodHelper helper = getHelperForCommandOption( method, commandLineOption );
-
-                    // Now create and configure an option based on what the method is capable of handling
-                    // and the command line option parameters
-                    boolean allowsArguments = helper.methodType != MethodType.Boolean;
-                    Option option = new Option( shortName, longName, allowsArguments, description );
-
-                    // Configure it
-                    option.setRequired(commandLineOption.required());
-                    if (option.hasArg()) {
-                        option.setType(helper.elementType);
-                        option.setArgs(commandLineOption.maximumArgumentCount());
-                        option.setValueSeparator(commandLineOption.argumentSeparator());
-                        option.setOptionalArg(commandLineOption.optionalArgument());
-                    }
-
-                    // Remember it, both in the commons-cli options set and
-                    // in our list of elements for later post-processing
-                    options.addOption(option);
-                    optionHelperMap.put(option, helper);
-                }
-
-            // This was not a command line option method - is it the main command line method?
-            } else if (method.isAnnotationPresent(CommandLineMain.class)) {
-
-                // Make sure we only have one
-                if (mainHelper != null) {
-                    throw new CommandLineException( "Cannot have two main methods specified" );
-                } else {
-                    mainHelper = getHelperForCommandLineMain(method);
-                }
-            }
-        }
-    }
+    private CommandLineMetadata metadata;
 
     /**
-     * Validate a Method to be a main command line application method.
-     *
-     * Methods with more than 1 argument are not allowed. Methods with return types
-     * are not allowed. Methods that throw an exception other than
-     * org.apache.commons.cli.CommandLineException are not allowed,
+     * Method for running the command line application.
      *
-     * @param method the method to validate
-     * @return A new method helper for the method
+     * @param args The arguments passed into main()
+     * @throws CommandLineException
      */
-    private CommandLineMethodHelper getHelperForCommandLineMain(Method method) throws CommandLineException {
+    public void parseAndRun(String args[] ) throws CommandLineException {
+
+        // The hidden options, for completion and training, all start with
+        // the same prefix, so other runs don't load the code for them
+        boolean hiddenOption = args.length > 0 && args[0].startsWith(HIDDEN_OPTION_PREFIX);
 
-        // Validate that the return type is a void
-        if (!method.getReturnType().equals(Void.TYPE)) {
-            throw new CommandLineException("For method " + method.getName() + ", the return type is not void");
+        // Completion requests are answered from the options alone
+        if (hiddenOption && CommandLineCompletion.isCompletionRun(args)) {
+            CommandLineCompletion.run(getClass(), args);
+            return;
         }
 
-        // Validate the exceptions throws by the method
-        for (Class<?> clazz : method.getExceptionTypes()) {
-            if (!clazz.equals(CommandLineException.class)) {
-                throw new CommandLineException("For method " + method.getName() + ", there is an invalid exception class " + clazz.getName());
+        // If the first argument names a subcommand, the rest of the command
+        // line belongs to it, and this class doesn't need configuring. The
+        // table is only built for classes that declare subcommands
+        if (args.length > 0 && (getClass().isAnnotationPresent(CommandLineSubcommand.class)
+                || getClass().isAnnotationPresent(CommandLineSubcommands.class))) {
+            CommandLineSubcommandTable.Subcommand subcommand = CommandLineSubcommandTable.forClass(getClass()).get(args[0]);
+            if (subcommand != null) {
+                subcommand.newInstance().parseAndRun(Arrays.copyOfRange(args, 1, args.length));
+                return;
             }
         }
 
-        // In order to get ready to create the configuration instance,
-        // we will need to know the command line option type
-        // and the element type.
-        Class<?> elementClass;
-        MethodType methodType;
-        Converter converter;
-
-        // Get the parameters of the method. We'll use these to
-        // determine what type of option we have - scalar, boolean, etc.
-        Class<?> parameterClasses[] = method.getParameterTypes();
-
-        // See what the length tells us
-        switch (parameterClasses.length) {
-            case 0:
-                throw new CommandLineException("Main command line method must take arguments" );
-            case 1: {
-
-                // For a method with one argument, we have to look
-                // more closely at the argument. It has to be a simple
-                // scalar object, an array, or a list.
-                Class<?> parameterClass = parameterClasses[0];
-                if (parameterClass.isArray()) {
-
-                    // For an array, we get the element class based on the
-                    // underlying component type
-                    methodType = MethodType.Array;
-                    elementClass = parameterClass.getComponentType();
-                } else {
-
-                    // For a scalar, we get the element type from the
-                    // type of the parameter.
-                    methodType = MethodType.Scalar;
-                    elementClass = parameterClass.getClass();
-                }
-
-                // Now that we have the element type, make sure it's convertable
-                converter = ConvertUtils.lookup(String.class, elementClass);
-                if (converter == null) {
-                    throw new CommandLineException("Cannot find a conversion from String to " + elementClass.getName() + " for method " + method.getName());
-                }
-                break;
-            }
-            default: {
+        // If the annotation processor generated a dispatcher for this
+        // class, use that rather than configuring reflectively
+        CommandLineDispatcher<?> dispatcher = generatedDispatchers.get(getClass());
 
-                // Other method types not allowed.
-                throw new CommandLineException("Method " + method.getName() + " has too many arguments");
-            }
+        // A training run goes through the library without running the application
+        if (hiddenOption && CommandLineTraining.isTrainingRun(args)) {
+            CommandLineTraining.train(this, dispatcher, args);
+            return;
+        }
+
+        if (dispatcher != null) {
+            runGeneratedDispatcher(dispatcher, args);
+            return;
         }
 
-        // Now we can return the configuration for this method
-        return new CommandLineMethodHelper(method, methodType, elementClass, converter);
+        // Get the interpreter for our class. The configuration is
+        // only built the first time the class is used
+        CommandLineInterpreter<CommandLineApplication> interpreter = getInterpreter();
+        metadata = interpreter.metadata;
+
+        // Parse the command line, and call the methods on this instance
+        interpreter.run(this, args);
     }
 
 
     /**
-     * Validate a Method to be a command line option methods.
-     *
-     * Methods with more than 1 argument are not allowed. Methods with return types
-     * other than boolean are not allowed. Methods that throw an exception other than
-     * org.apache.commons.cli.CommandLineException are not allowed,
+     * Get the interpreter for our class. The interpreter is for
+     * the class of this instance, so the cast is safe.
      *
-     * @param method the method to validate
-     * @param commandLineOption the options on that method
-     * @return A new method helper for the method
+     * @return The interpreter
+     * @throws CommandLineException if the class is not correctly annotated
      */
-    private CommandLineMethodHelper getHelperForCommandOption(Method method, CommandLineOption commandLineOption) throws CommandLineException {
-
-        // Validate that the return type is a boolean or void
-        if (!method.getReturnType().equals(Boolean.TYPE) && !method.getReturnType().equals(Void.TYPE)) {
-            throw new CommandLineException("For method " + method.getName() + ", the return type is not boolean or void");
-        }
-
-        // Validate the exceptions throws by the method
-        for (Class<?> clazz : method.getExceptionTypes()) {
-            if (!clazz.equals(CommandLineException.class)) {
-                throw new CommandLineException("For method " + method.getName() + ", there is an invalid exception class " + clazz.getName());
-            }
-        }
-
-        // In order to get ready to create the configuration instance,
-        // we will need to know the command line option type
-        // and the element type.
-        Class<?> elementClass = null;
-        MethodType methodType;
-        Converter converter;
-
-        // Get the parameters of the method. We'll use these to
-        // determine what type of option we have - scalar, boolean, etc.
-        Class<?> parameterClasses[] = method.getParameterTypes();
-
-        // See what the length tells us
-        switch (parameterClasses.length) {
-            case 0:
-                methodType = MethodType.Boolean;
-                converter = null;
-                break;
-            case 1: {
-
-                // For a method with one argument, we have to look
-                // more closely at the argument. It has to be a simple
-                // scalar object, an array, or a list.
-                Class<?> parameterClass = parameterClasses[0];
-                if (parameterClass.isArray()) {
-
-                    // For an array, we get the element class based on the
-                    // underlying component type
-                    methodType = MethodType.Array;
-                    elementClass = parameterClass.getComponentType();
-                } else if (List.class.isAssignableFrom(parameterClass)) {
-
-                    // For a list, we get the element class from the command
-                    // line options annotation
-                    methodType = MethodType.List;
-                    elementClass = commandLineOption.argumentType();
-                } else {
-
-                    // For a scalar, we get the element type from the
-                    // type of the parameter.
-                    methodType = MethodType.Scalar;
-                    elementClass = parameterClass.getClass();
-                }
-
-                // Now that we have the element type, make sure it's convertable
-                converter = ConvertUtils.lookup(String.class, elementClass);
-                if (converter == null) {
-                    throw new CommandLineException("Cannot find a conversion from String to " + elementClass.getName() + " for method " + method.getName());
-                }
-                break;
-            }
-            default: {
-
-                // Other method types not allowed.
-                throw new CommandLineException("Method " + method.getName() + " has too many arguments");
-            }
-        }
-
-        // Now we can return the configuration for this method
-        return new CommandLineMethodHelper(method, methodType, elementClass, converter);
+    @SuppressWarnings("unchecked")
+    private CommandLineInterpreter<CommandLineApplication> getInterpreter() throws CommandLineException {
+        return (CommandLineInterpreter<CommandLineApplication>) CommandLineInterpreter.forClass(getClass());
     }
 
 
     /**
-     * Method for running the command line application.
+     * Run a generated dispatcher against this instance. The dispatcher
+     * was generated for our class, so the cast is safe.
      *
+     * @param dispatcher The generated dispatcher
      * @param args The arguments passed into main()
      * @throws CommandLineException
      */
-    public void parseAndRun(String args[] ) throws CommandLineException {
-
-        // Configure our environment
-        configure();
-
-        // Make sure there is a main helper
-        if (mainHelper == null) {
-            throw new CommandLineException("You must specify the main method with @CommandLineMain" );
-        }
-        CommandLine line = null;
-        CommandLineParser parser = null;
+    @SuppressWarnings("unchecked")
+    private <T extends CommandLineApplication> void runGeneratedDispatcher(CommandLineDispatcher<?> dispatcher, String args[]) throws CommandLineException {
 
-        try {
-            // Parse the command line
-            parser = new DefaultParser();
-            line = parser.parse(options, args );
-        } catch (ParseException e) {
-            throw new CommandLineException("Unable to parse command line", e);
-        } finally {
-            parser = null;
-        }
-
-        // Assume we're continuing
-        boolean runMain = true;
-
-        // Loop through all our known options
-        for (Map.Entry<Option,CommandLineMethodHelper> entry : optionHelperMap.entrySet()) {
-
-            // See if this option was specified
-            Option option = entry.getKey();
-            CommandLineMethodHelper helper = entry.getValue();
-            boolean present = option.getOpt() == null || option.getOpt().equals("")
-                    ? line.hasOption(option.getLongOpt())
-                    : line.hasOption(option.getOpt());
-            if (present) {
-
-                // The user specified this option. Now we have to handle the
-                // values, if it has any
-                if (option.hasArg()) {
-                    String[] arguments = option.getOpt() == null || option.getOpt().equals("")
-                            ? line.getOptionValues(option.getLongOpt())
-                            : line.getOptionValues(option.getOpt());
-                    runMain = helper.invokeMethod(this,arguments) && runMain;
-                } else {
-                    runMain = helper.invokeMethod(this, new String[] {}) && runMain;
-                }
-            }
-        }
+        // The options are needed for the usage text
+        options = dispatcher.getOptions();
+        ((CommandLineDispatcher<T>) dispatcher).parseAndRun((T) this, args);
+    }
 
-        // Now handle all the extra arguments. In order to clean up memory,
-        // we get rid of the structures that we needed in order to parse
-        if (runMain) {
 
-            // Get a reference to the arguments
-            String[] arguments = line.getArgs();
+    /**
+     * Get the executor that option methods returning a CompletableFuture
+     * are started on. Those methods are all started before any of them is
+     * waited for, so they run at the same time. By default this is a shared
+     * pool of daemon threads; override this to use another executor, such
+     * as one that starts a virtual thread for each task.
+     *
+     * @return The executor
+     */
+    protected Executor getOptionExecutor() {
+        return OptionExecutor.INSTANCE;
+    }
 
-            // Clean up the parsing variables
-            line = null;
-            optionHelperMap = null;
 
-            // Now call the main method. This means we have to keep
-            // the main helper around, but that's small
-            mainHelper.invokeMethod(this, arguments);
-        }
+    /**
+     * Get the executor that the calls of a main method run on, when the
+     * method asks for them to run at the same time. The method limits the
+     * number running at once. By default this is the option executor.
+     *
+     * @return The executor
+     */
+    protected Executor getMainExecutor() {
+        return getOptionExecutor();
     }
 
 
     /**
-     * Helper function to print the command line usage
+     * Helper function to print the command line usage. The subcommands
+     * of the application, if it has any, are listed before the footer.
      *
      * @param appName Name of the application
      * @param header Header line
      * @param footer Footer line
      */
     public void printCommandLineUsageText(String appName, String header, String footer) {
+        CommandLineSubcommandTable subcommands;
+        try {
+            subcommands = CommandLineSubcommandTable.forClass(getClass());
+        } catch (CommandLineException e) {
+            subcommands = null;
+        }
+        if (subcommands != null) {
+            footer = footer == null || footer.isEmpty()
+                    ? subcommands.describe()
+                    : subcommands.describe() + System.lineSeparator() + footer;
+        }
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp(appName, header, options, footer, true);
+        formatter.printHelp(appName, header, metadata != null ? metadata.options() : options, footer, true);
     }
 }
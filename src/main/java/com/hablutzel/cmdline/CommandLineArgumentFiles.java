@@ -0,0 +1,485 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Expansion of argument files (also known as response files) on
+ * the command line. An argument of the form @path is replaced by
+ * the arguments read from the file at that path, which is resolved
+ * against the working directory of the command line (so that under
+ * the batch runner or daemon it is the request's, not the JVM's);
+ * an argument starting with @@ is kept, with the first @ removed, so that an
+ * argument can still start with @.
+ *
+ * The file is read as UTF-8, and split into arguments following
+ * the rules used by the java launcher for its own argument files:
+ * <ul>
+ *     <li>Arguments are separated by white space, including line breaks</li>
+ *     <li>An argument containing white space can be enclosed in double
+ *     or single quotes, and the quotes are removed. Quoted and unquoted
+ *     text can be mixed in one argument: a"b c"d is the argument "ab cd"</li>
+ *     <li>Within quotes, a backslash escapes the next character; \n, \r,
+ *     \t and \f give the usual control characters. Outside quotes a
+ *     backslash is an ordinary character, so Windows paths need no
+ *     escaping unless they are quoted</li>
+ *     <li>A # at the start of an argument starts a comment, which
+ *     runs to the end of the line</li>
+ *     <li>Argument files are not expanded recursively; an @ inside
+ *     a file is just part of the argument</li>
+ * </ul>
+ *
+ * The file is mapped into memory a window at a time and decoded into
+ * a small character buffer, which is split as it is decoded. The
+ * interpreter reads the expanded command line through an
+ * {@link Expansion}, which decodes the next buffer only when the
+ * arguments already split from the last one have been taken, so the
+ * expanded command line is never held as a whole: the parser keeps
+ * only the option values and main arguments it finds.
+ */
+public final class CommandLineArgumentFiles {
+
+    // The largest part of the file mapped at once
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // The size of the buffer the file is decoded into
+    private static final int CHARACTER_BUFFER_SIZE = 8192;
+
+
+    private CommandLineArgumentFiles() {
+    }
+
+
+    /**
+     * Determine if a command line names any argument files
+     *
+     * @param args The command line arguments
+     * @return True if any argument starts with @
+     */
+    static boolean hasArgumentFiles(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("@")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Expand the argument files in a command line into an array. The
+     * interpreter doesn't use this, as it reads the expanded arguments
+     * as it parses them; it is for code that needs them all at once.
+     *
+     * @param args The command line arguments
+     * @return The arguments with each argument file replaced by its
+     * arguments; the same array if there were no argument files
+     * @throws CommandLineException if an argument file can't be read
+     */
+    public static String[] expand(String[] args) throws CommandLineException {
+
+        // Most command lines have none, so don't copy them unless needed
+        if (!hasArgumentFiles(args)) {
+            return args;
+        }
+        List<String> expanded = new ArrayList<>(args.length);
+        try (Expansion expansion = new Expansion(args)) {
+            while (expansion.hasNext()) {
+                expanded.add(expansion.next());
+            }
+        } catch (ReadFailure e) {
+            throw e.getCause();
+        }
+        return expanded.toArray(new String[expanded.size()]);
+    }
+
+
+    /**
+     * Read the arguments in an argument file
+     *
+     * @param file The file to read
+     * @return The arguments in the file
+     * @throws CommandLineException if the file can't be read
+     */
+    public static List<String> read(Path file) throws CommandLineException {
+        List<String> arguments = new ArrayList<>();
+        try (FileArguments reader = new FileArguments(file, arguments)) {
+            while (reader.read()) {
+                // Each read adds the arguments it splits to the list
+            }
+        }
+        return arguments;
+    }
+
+
+    /**
+     * Split one line of text into arguments, with the same rules as
+     * an argument file. A line break ends a comment, and is otherwise
+     * white space.
+     *
+     * @param line The text to split
+     * @return The arguments; empty for a blank line or a comment
+     * @throws CommandLineException if a quote is not closed
+     */
+    public static List<String> split(String line) throws CommandLineException {
+        List<String> arguments = new ArrayList<>();
+        Splitter splitter = new Splitter(arguments);
+        for (int i = 0; i < line.length(); ++i) {
+            splitter.accept(line.charAt(i));
+        }
+        splitter.finish("command line " + line);
+        return arguments;
+    }
+
+
+    /**
+     * Thrown out of an {@link Expansion} when an argument file can't
+     * be read, as an iterator can't throw the CommandLineException
+     * itself. The caller of the iterator unwraps it.
+     */
+    static final class ReadFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ReadFailure(CommandLineException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized CommandLineException getCause() {
+            return (CommandLineException) super.getCause();
+        }
+    }
+
+
+    /**
+     * The arguments of a command line with its argument files expanded,
+     * read as they are taken. Only the arguments split from the last
+     * buffer of an argument file are held at once. Closing the expansion
+     * closes the file being read, if the arguments were not all taken.
+     */
+    static final class Expansion implements Iterator<String>, AutoCloseable {
+
+        private final String[] args;
+        private int index = 0;
+
+        // The arguments split from the file, not yet taken
+        private final Deque<String> pending = new ArrayDeque<>();
+
+        // The argument file being read, or null
+        private FileArguments reader;
+
+        Expansion(String[] args) {
+            this.args = args;
+        }
+
+
+        /**
+         * Determine if there are more arguments, reading the
+         * argument files as far as is needed to find out
+         *
+         * @throws ReadFailure if an argument file can't be read
+         */
+        @Override
+        public boolean hasNext() {
+            try {
+                while (pending.isEmpty()) {
+                    if (reader != null) {
+                        if (!reader.read()) {
+                            reader.close();
+                            reader = null;
+                        }
+                    } else if (index == args.length) {
+                        return false;
+                    } else {
+                        String arg = args[index++];
+                        if (arg.startsWith("@@")) {
+                            pending.add(arg.substring(1));
+                        } else if (arg.startsWith("@") && arg.length() > 1) {
+                            reader = new FileArguments(CommandLineContext.current().resolve(arg.substring(1)), pending);
+                        } else {
+                            pending.add(arg);
+                        }
+                    }
+                }
+                return true;
+            } catch (CommandLineException e) {
+                throw new ReadFailure(e);
+            }
+        }
+
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.remove();
+        }
+
+
+        @Override
+        public void close() throws CommandLineException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+
+
+    /**
+     * Reads the arguments in an argument file a buffer at a time
+     */
+    private static final class FileArguments implements AutoCloseable {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final long size;
+        private final Splitter splitter;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        private final CharBuffer characters = CharBuffer.allocate(CHARACTER_BUFFER_SIZE);
+
+        // The start of the mapped window in the file, the window
+        // itself, and whether it is the last one
+        private long position = 0;
+        private ByteBuffer window;
+        private boolean last;
+
+        // True once the end of the file has been split
+        private boolean finished = false;
+
+        /**
+         * Open an argument file
+         *
+         * @param file The file
+         * @param arguments Where the arguments are added as they are split
+         * @throws CommandLineException if the file can't be opened
+         */
+        FileArguments(Path file, Collection<String> arguments) throws CommandLineException {
+            this.file = file;
+            this.splitter = new Splitter(arguments);
+            try {
+                this.channel = FileChannel.open(file, StandardOpenOption.READ);
+                this.size = channel.size();
+            } catch (IOException e) {
+                throw new CommandLineException("Unable to read argument file " + file, e);
+            }
+        }
+
+
+        /**
+         * Decode and split the next buffer of the file, which may not
+         * add any arguments: one can be longer than a buffer
+         *
+         * @return False if the end of the file had already been reached
+         * @throws CommandLineException if the file can't be read or is not valid UTF-8
+         */
+        boolean read() throws CommandLineException {
+            try {
+                if (window != null) {
+
+                    // A character split across the end of a window is left
+                    // in it, and starts the next one
+                    CoderResult result = decoder.decode(window, characters, last);
+                    if (result.isError()) {
+                        result.throwException();
+                    }
+                    splitter.split(characters);
+                    if (!result.isOverflow()) {
+                        position += window.position();
+                        window = null;
+                    }
+                    return true;
+                }
+                if (position < size) {
+                    long length = Math.min(WINDOW_SIZE, size - position);
+                    last = position + length == size;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    return true;
+                }
+                if (finished) {
+                    return false;
+                }
+
+                // The decoder must be told the input has ended before it is
+                // flushed, which the windows haven't done for an empty file
+                CoderResult result = decoder.decode(ByteBuffer.allocate(0), characters, true);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                while (decoder.flush(characters).isOverflow()) {
+                    splitter.split(characters);
+                }
+                splitter.split(characters);
+                splitter.finish("argument file " + file);
+                finished = true;
+                return true;
+            } catch (CharacterCodingException e) {
+                throw new CommandLineException("Argument file " + file + " is not valid UTF-8", e);
+            } catch (IOException e) {
+                throw new CommandLineException("Unable to read argument file " + file, e);
+            }
+        }
+
+
+        @Override
+        public void close() throws CommandLineException {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new CommandLineException("Unable to close argument file " + file, e);
+            }
+        }
+    }
+
+
+    /**
+     * Splits characters into arguments. The characters arrive a buffer
+     * at a time, so the state is kept between calls.
+     */
+    private static final class Splitter {
+
+        private final Collection<String> arguments;
+        private final StringBuilder current = new StringBuilder();
+
+        // True once the current argument has started; an empty
+        // quoted string is still an argument
+        private boolean inArgument = false;
+
+        // The open quote character, or 0 outside quotes
+        private char quote = 0;
+
+        private boolean escaped = false;
+        private boolean inComment = false;
+
+        Splitter(Collection<String> arguments) {
+            this.arguments = arguments;
+        }
+
+
+        /**
+         * Split the characters decoded into a buffer, leaving the
+         * buffer empty for the next characters
+         */
+        void split(CharBuffer characters) {
+            characters.flip();
+            while (characters.hasRemaining()) {
+                accept(characters.get());
+            }
+            characters.clear();
+        }
+
+
+        void accept(char c) {
+            if (inComment) {
+                if (c == '\n' || c == '\r') {
+                    inComment = false;
+                }
+            } else if (escaped) {
+                escaped = false;
+                current.append(unescape(c));
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else {
+                    current.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                endArgument();
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArgument = true;
+            } else if (c == '#' && !inArgument) {
+                inComment = true;
+            } else {
+                current.append(c);
+                inArgument = true;
+            }
+        }
+
+
+        private static char unescape(char c) {
+            switch (c) {
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'f':
+                    return '\f';
+                default:
+                    return c;
+            }
+        }
+
+
+        private void endArgument() {
+            if (inArgument) {
+                arguments.add(current.toString());
+                current.setLength(0);
+                inArgument = false;
+            }
+        }
+
+
+        /**
+         * Finish the last argument at the end of the text
+         *
+         * @param source Describes the text, for the error message
+         */
+        void finish(String source) throws CommandLineException {
+            if (quote != 0) {
+                throw new CommandLineException("Unterminated quote in " + source);
+            }
+            endArgument();
+        }
+    }
+}
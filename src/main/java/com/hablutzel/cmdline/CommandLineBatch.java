@@ -0,0 +1,469 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.hablutzel.cmdline;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs many command lines for an application class in one JVM, rather
+ * than starting a JVM (and configuring the class) for each of them.
+ *
+ * The command lines are read one to a line, and split into arguments
+ * with the rules of an argument file: arguments are separated by white
+ * space, can be quoted with double or single quotes, and a # at the start
+ * of an argument starts a comment. Blank lines and comments are skipped.
+ * See {@link CommandLineArgumentFiles}.
+ *
+ * Each command line is run on a new instance of the application, by a
+ * fixed number of worker threads, each with its own
+ * {@link CommandLineContext}. The output and error streams of the context
+ * are captured, and its input is empty. As with the daemon, System.out and
+ * System.err are routed to the context of the thread, applications must
+ * not call System.exit, and the exit status is the one set on the context,
+ * or 1 if parseAndRun threw an exception. A line that can't be split is
+ * not run, and is given the exit status 2.
+ *
+ * Results are passed back in the order of the lines, however the command
+ * lines are scheduled. Only a few more lines than there are workers are
+ * read ahead, so a batch of any size is run in a fixed amount of memory.
+ *
+ * The worker threads are platform threads by default. On releases with
+ * virtual threads, a factory for them (such as
+ * {@code Thread.ofVirtual().factory()}) can be given instead; the
+ * number of command lines run at once is still limited by the
+ * concurrency of the batch.
+ *
+ * The batch can be run from the command line, with the application
+ * class and an optional file of command lines; standard input is
+ * read if no file is given:
+ * <pre>
+ *     java -cp ... com.hablutzel.cmdline.CommandLineBatch [--threads n] com.example.Tool [file]
+ * </pre>
+ * The output of each command line is written in turn, followed by a
+ * summary on standard error. The exit status is 1 if any command
+ * line failed.
+ *
+ * @param <T> The application class
+ */
+public final class CommandLineBatch<T extends CommandLineApplication> {
+
+    // The exit status of a line that can't be split
+    static final int INVALID_LINE = 2;
+
+    private final Class<T> applicationClass;
+    private final Supplier<? extends T> factory;
+    private final int concurrency;
+    private final ThreadFactory threadFactory;
+
+
+    /**
+     * Create a batch for an application class, run by platform threads
+     *
+     * @param applicationClass The application class
+     * @param factory Creates a new instance of the application for each command line
+     * @param concurrency The number of command lines run at once
+     */
+    public CommandLineBatch(Class<T> applicationClass, Supplier<? extends T> factory, int concurrency) {
+        this(applicationClass, factory, concurrency, platformThreads());
+    }
+
+
+    /**
+     * Create a batch for an application class
+     *
+     * @param applicationClass The application class
+     * @param factory Creates a new instance of the application for each command line
+     * @param concurrency The number of command lines run at once
+     * @param threadFactory Creates the worker threads
+     */
+    public CommandLineBatch(Class<T> applicationClass, Supplier<? extends T> factory, int concurrency,
+                            ThreadFactory threadFactory) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("The concurrency must be at least 1");
+        }
+        this.applicationClass = applicationClass;
+        this.factory = factory;
+        this.concurrency = concurrency;
+        this.threadFactory = threadFactory;
+    }
+
+
+    private static ThreadFactory platformThreads() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "cmdline-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+
+    /**
+     * Run the command lines in a file
+     *
+     * @param file The file of command lines, in UTF-8
+     * @param consumer Given the result of each command line, in order
+     * @return The summary of the batch
+     * @throws CommandLineException if the application class is not correctly annotated
+     * @throws IOException if the file can't be read
+     */
+    public Summary run(Path file, Consumer<? super Result> consumer) throws CommandLineException, IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return run(reader, consumer);
+        }
+    }
+
+
+    /**
+     * Run the command lines read from a reader
+     *
+     * @param input The command lines
+     * @param consumer Given the result of each command line, in order,
+     *                 on the thread that called run
+     * @return The summary of the batch
+     * @throws CommandLineException if the application class is not correctly annotated
+     * @throws IOException if the command lines can't be read
+     */
+    public Summary run(Reader input, Consumer<? super Result> consumer) throws CommandLineException, IOException {
+
+        // Configure the class now, so that a mistake is reported once
+        // rather than for every line
+        CommandLineMetadata.forClass(applicationClass);
+        CommandLineContext.routeStandardStreams();
+
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+        CommandLineContext parent = CommandLineContext.current();
+        Summary summary = new Summary();
+        long start = System.nanoTime();
+
+        // The results not yet passed back, in the order of the lines
+        Deque<Future<Result>> pending = new ArrayDeque<>();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, threadFactory);
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                List<String> arguments;
+                try {
+                    arguments = CommandLineArgumentFiles.split(line);
+                } catch (CommandLineException e) {
+                    Result invalid = new Result(lineNumber, Collections.<String>emptyList(), INVALID_LINE,
+                            "", "Line " + lineNumber + ": " + e.getMessage() + System.lineSeparator(), 0);
+                    pending.add(CompletableFuture.completedFuture(invalid));
+                    continue;
+                }
+                if (arguments.isEmpty()) {
+                    continue;
+                }
+
+                final int number = lineNumber;
+                pending.add(executor.submit(() -> run(parent, number, arguments)));
+
+                // Wait for the oldest line once enough are in hand, so
+                // that reading doesn't get far ahead of the workers
+                while (pending.size() > 2 * concurrency || (!pending.isEmpty() && pending.peek().isDone())) {
+                    summary.add(take(pending), consumer);
+                }
+            }
+            while (!pending.isEmpty()) {
+                summary.add(take(pending), consumer);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+
+    /**
+     * Run one command line, capturing its output
+     *
+     * @param parent The context the batch was run in, which gives the
+     *               working directory and environment
+     * @param lineNumber The line number of the command line
+     * @param arguments The arguments
+     * @return The result
+     */
+    private Result run(CommandLineContext parent, int lineNumber, List<String> arguments) {
+        Charset charset = Charset.defaultCharset();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        PrintStream outputStream = new PrintStream(output, true);
+        PrintStream errorStream = new PrintStream(error, true);
+        CommandLineContext context = new CommandLineContext(parent.getWorkingDirectory(), parent.getEnvironment(),
+                new ByteArrayInputStream(new byte[0]), outputStream, errorStream);
+
+        long start = System.nanoTime();
+        int status = context.run(factory, arguments.toArray(new String[arguments.size()]));
+        long duration = System.nanoTime() - start;
+        outputStream.flush();
+        errorStream.flush();
+        return new Result(lineNumber, arguments, status,
+                new String(output.toByteArray(), charset), new String(error.toByteArray(), charset), duration);
+    }
+
+
+    /**
+     * Wait for the oldest result
+     */
+    private static Result take(Deque<Future<Result>> pending) throws InterruptedIOException {
+        Future<Result> next = pending.remove();
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running the batch");
+        } catch (ExecutionException e) {
+
+            // Exceptions are reported in the result, so this is an Error
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+
+    /**
+     * The result of running one command line
+     */
+    public static final class Result {
+
+        private final int lineNumber;
+        private final List<String> arguments;
+        private final int exitStatus;
+        private final String output;
+        private final String error;
+        private final long durationNanos;
+
+        Result(int lineNumber, List<String> arguments, int exitStatus, String output, String error, long durationNanos) {
+            this.lineNumber = lineNumber;
+            this.arguments = Collections.unmodifiableList(arguments);
+            this.exitStatus = exitStatus;
+            this.output = output;
+            this.error = error;
+            this.durationNanos = durationNanos;
+        }
+
+        /**
+         * @return The line the command line was read from, counting from 1
+         */
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * @return The arguments the line was split into
+         */
+        public List<String> getArguments() {
+            return arguments;
+        }
+
+        /**
+         * @return The exit status; 0 for success
+         */
+        public int getExitStatus() {
+            return exitStatus;
+        }
+
+        /**
+         * @return The text written to standard output
+         */
+        public String getOutput() {
+            return output;
+        }
+
+        /**
+         * @return The text written to standard error
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return The time taken to run the command line, in nanoseconds
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+    }
+
+
+    /**
+     * The summary of a batch
+     */
+    public static final class Summary {
+
+        private int count = 0;
+        private int failed = 0;
+        private long totalNanos = 0;
+        private long longestNanos = 0;
+        private long elapsedNanos = 0;
+
+        Summary() {
+        }
+
+        private void add(Result result, Consumer<? super Result> consumer) {
+            ++count;
+            if (result.getExitStatus() != 0) {
+                ++failed;
+            }
+            totalNanos += result.getDurationNanos();
+            longestNanos = Math.max(longestNanos, result.getDurationNanos());
+            consumer.accept(result);
+        }
+
+        /**
+         * @return The number of command lines run
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return The number of command lines with a non-zero exit status
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return The time taken by all the command lines together, in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * @return The time taken by the slowest command line, in nanoseconds
+         */
+        public long getLongestNanos() {
+            return longestNanos;
+        }
+
+        /**
+         * @return The time taken to run the batch, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return count + " command lines, " + failed + " failed, in " + elapsedNanos / 1000000
+                    + "ms (" + totalNanos / 1000000 + "ms of command line time, longest "
+                    + longestNanos / 1000000 + "ms)";
+        }
+    }
+
+
+    /**
+     * Run a batch from the command line
+     *
+     * @param args [--threads n] class [file]
+     */
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int next = 0;
+        if (args.length > 1 && args[0].equals("--threads")) {
+            threads = Integer.parseInt(args[1]);
+            next = 2;
+        }
+        if (args.length - next < 1 || args.length - next > 2) {
+            System.err.println("Usage: CommandLineBatch [--threads n] class [file]");
+            System.exit(2);
+        }
+
+        try {
+            Summary summary = run(Class.forName(args[next]), threads,
+                    args.length - next == 2 ? Paths.get(args[next + 1]) : null);
+            System.err.println(summary);
+            System.exit(summary.getFailed() == 0 ? 0 : 1);
+        } catch (ClassNotFoundException e) {
+            System.err.println("Unable to find the application class " + args[next]);
+        } catch (CommandLineException | IOException e) {
+            System.err.println(e.getCause() == null ? e.getMessage() : e.getMessage() + ": " + e.getCause());
+        }
+        System.exit(2);
+    }
+
+
+    /**
+     * Run a batch for a class named on the command line, writing
+     * the output of each command line as it is passed back
+     */
+    private static <T extends CommandLineApplication> Summary run(Class<?> type, int threads, Path file)
+            throws CommandLineException, IOException {
+        if (!CommandLineApplication.class.isAssignableFrom(type)) {
+            throw new CommandLineException("Class " + type.getName() + " is not a CommandLineApplication");
+        }
+        @SuppressWarnings("unchecked")
+        final Class<T> applicationClass = (Class<T>) type;
+        Supplier<T> factory = () -> {
+            try {
+                return applicationClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create an instance of " + applicationClass.getName(), e);
+            }
+        };
+
+        CommandLineBatch<T> batch = new CommandLineBatch<>(applicationClass, factory, threads);
+        Consumer<Result> writer = result -> {
+            System.out.print(result.getOutput());
+            System.err.print(result.getError());
+            if (result.getExitStatus() != 0) {
+                System.err.println("Line " + result.getLineNumber() + " exited with status " + result.getExitStatus());
+            }
+        };
+        if (file == null) {
+            return batch.run(new InputStreamReader(System.in, Charset.defaultCharset()), writer);
+        }
+        return batch.run(file, writer);
+    }
+}
@@ -0,0 +1,477 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.cli.Option;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shell completion for command line applications.
+ *
+ * Starting a JVM for every press of Tab is far too slow, so the
+ * usual way to complete is with a script generated from the options
+ * of the application. The script holds everything that is known
+ * ahead of time: the option names, the subcommands, and the values
+ * of enum and boolean options. Completing with it runs no Java at all.
+ * The script is written by the application itself, with a hidden
+ * option that has to be the first argument:
+ *
+ *     indexer --cmdline-completion-script bash indexer > /etc/bash_completion.d/indexer
+ *
+ * The shells are bash, zsh and fish. The zsh script uses the bash
+ * completion support in zsh, and is sourced from .zshrc.
+ *
+ * Completion can also be asked for while running, for callers that
+ * need more than the script can hold. The candidates come from an index
+ * built once per class, from the generated dispatcher if there is one,
+ * and otherwise from the cached configuration; the option names and
+ * values are kept sorted, so each request is a binary search. Run in
+ * a JVM that is already up, such as a daemon, this is far below a
+ * millisecond. The hidden option takes the position of the word to
+ * complete and then the words of the command line after the command
+ * name, and prints the candidates one to a line:
+ *
+ *     indexer --cmdline-complete 1 --format x
+ */
+public final class CommandLineCompletion {
+
+    static final String COMPLETE_OPTION = "--cmdline-complete";
+    static final String SCRIPT_OPTION = "--cmdline-completion-script";
+
+    /**
+     * The shells that scripts can be generated for
+     */
+    public enum Shell {
+        Bash, Zsh, Fish
+    }
+
+
+    /**
+     * Thrown out of the class value when the index can't be built.
+     * The failure is not cached, so a later attempt will report it again.
+     */
+    private static final class IndexFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        IndexFailure(CommandLineException cause) {
+            super(cause);
+        }
+    }
+
+
+    /**
+     * The completion index for each class that has been completed
+     */
+    private static final ClassValue<Index> indexes = new ClassValue<Index>() {
+        @Override
+        protected Index computeValue(Class<?> type) {
+            try {
+                return new Index(type);
+            } catch (CommandLineException e) {
+                throw new IndexFailure(e);
+            }
+        }
+    };
+
+
+    private CommandLineCompletion() {
+    }
+
+
+    /**
+     * Complete a word of a command line
+     *
+     * @param applicationClass The application class
+     * @param words The words of the command line, after the command name
+     * @param index The position of the word to complete; this can be the size
+     *              of the list, to complete a word that has not been started
+     * @return The candidates for the word, in order. An empty list means
+     *         there is nothing to offer, such as for an option that takes
+     *         a file name, and the shell's own completion should be used.
+     * @throws CommandLineException if the class is not correctly annotated
+     */
+    public static List<String> complete(Class<? extends CommandLineApplication> applicationClass,
+                                        List<String> words, int index) throws CommandLineException {
+        if (index < 0 || index > words.size()) {
+            throw new CommandLineException("Cannot complete word " + index + " of " + words.size());
+        }
+        return forClass(applicationClass).complete(words, index);
+    }
+
+
+    /**
+     * Generate a completion script
+     *
+     * @param applicationClass The application class
+     * @param command The name the application is run by
+     * @param shell The shell the script is for
+     * @return The script
+     * @throws CommandLineException if the class, or one of its subcommands,
+     *                              is not correctly annotated
+     */
+    public static String script(Class<? extends CommandLineApplication> applicationClass,
+                                String command, Shell shell) throws CommandLineException {
+        Map<String, Index> levels = new LinkedHashMap<>();
+        collectLevels(applicationClass, "", new ArrayList<>(), levels);
+        switch (shell) {
+            case Bash:
+                return bashScript(command, levels);
+            case Zsh:
+                return "# zsh completion for " + command + ", generated from its options; source this from .zshrc\n"
+                        + "autoload -U +X bashcompinit && bashcompinit\n"
+                        + bashFunction(command, levels);
+            default:
+                return fishScript(command, levels);
+        }
+    }
+
+
+    static boolean isCompletionRun(String[] args) {
+        return args.length > 0 && (args[0].equals(COMPLETE_OPTION) || args[0].equals(SCRIPT_OPTION));
+    }
+
+
+    /**
+     * Answer a completion request made with one of the hidden options
+     *
+     * @param applicationClass The application class
+     * @param args The arguments passed into main()
+     * @throws CommandLineException if the request is not valid
+     */
+    static void run(Class<? extends CommandLineApplication> applicationClass, String[] args) throws CommandLineException {
+        if (args[0].equals(COMPLETE_OPTION)) {
+            int index;
+            try {
+                index = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+            } catch (NumberFormatException e) {
+                index = -1;
+            }
+            if (index < 0) {
+                throw new CommandLineException(COMPLETE_OPTION + " needs the position of the word to complete");
+            }
+            List<String> words = Arrays.asList(args).subList(2, args.length);
+            StringBuilder candidates = new StringBuilder();
+            for (String candidate : complete(applicationClass, words, index)) {
+                candidates.append(candidate).append(System.lineSeparator());
+            }
+            System.out.print(candidates);
+            System.out.flush();
+        } else {
+            if (args.length != 3) {
+                throw new CommandLineException(SCRIPT_OPTION + " needs the shell and the command name");
+            }
+            Shell shell = null;
+            for (Shell candidate : Shell.values()) {
+                if (candidate.name().equalsIgnoreCase(args[1])) {
+                    shell = candidate;
+                }
+            }
+            if (shell == null) {
+                throw new CommandLineException("Cannot generate completion for the shell " + args[1]);
+            }
+            System.out.print(script(applicationClass, args[2], shell));
+            System.out.flush();
+        }
+    }
+
+
+    private static Index forClass(Class<?> applicationClass) throws CommandLineException {
+        try {
+            return indexes.get(applicationClass);
+        } catch (IndexFailure e) {
+            throw (CommandLineException) e.getCause();
+        }
+    }
+
+
+    /**
+     * Collect the index for the application and each of its subcommands,
+     * by the path of subcommand names that leads to them
+     */
+    private static void collectLevels(Class<?> applicationClass, String path, List<Class<?>> enclosing,
+                                      Map<String, Index> levels) throws CommandLineException {
+        Index index = forClass(applicationClass);
+        levels.put(path, index);
+        enclosing.add(applicationClass);
+        if (index.subcommands != null) {
+            for (CommandLineSubcommandTable.Subcommand subcommand : index.subcommands.all()) {
+                Class<?> subcommandClass = subcommand.getApplicationClass();
+
+                // A class that is its own subcommand, directly or not, would never end
+                if (!enclosing.contains(subcommandClass)) {
+                    collectLevels(subcommandClass, path + "/" + subcommand.name, enclosing, levels);
+                }
+            }
+        }
+        enclosing.remove(enclosing.size() - 1);
+    }
+
+
+    private static String bashScript(String command, Map<String, Index> levels) {
+        return "# bash completion for " + command + ", generated from its options\n" + bashFunction(command, levels);
+    }
+
+
+    private static String bashFunction(String command, Map<String, Index> levels) {
+        String function = "_" + command.replaceAll("[^A-Za-z0-9_]", "_") + "_complete";
+        StringBuilder paths = new StringBuilder();
+        StringBuilder words = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (Map.Entry<String, Index> level : levels.entrySet()) {
+            String path = level.getKey();
+            Index index = level.getValue();
+            if (!path.isEmpty()) {
+                paths.append(paths.length() == 0 ? "" : "|").append(path);
+            }
+            words.append("        \"").append(path).append("\") options=\"").append(String.join(" ", index.optionNames))
+                    .append("\"; commands=\"").append(String.join(" ", index.commandNames)).append("\";;\n");
+            for (Map.Entry<String, String[]> option : index.values.entrySet()) {
+                values.append("            \"").append(path).append(' ').append(option.getKey()).append("\") ");
+                if (option.getValue().length != 0) {
+                    values.append("COMPREPLY=($(compgen -W \"").append(String.join(" ", option.getValue()))
+                            .append("\" -- \"$cur\")); ");
+                }
+                values.append("return;;\n");
+            }
+        }
+        return function + "() {\n"
+                + "    local cur=\"${COMP_WORDS[COMP_CWORD]}\" prev=\"${COMP_WORDS[COMP_CWORD-1]}\"\n"
+                + "    local path=\"\" i=1 options=\"\" commands=\"\"\n"
+                + "    if [[ \"$prev\" == \"=\" ]]; then prev=\"${COMP_WORDS[COMP_CWORD-2]}\"; fi\n"
+                + "    if [[ \"$cur\" == \"=\" ]]; then cur=\"\"; fi\n"
+                + "    while (( i < COMP_CWORD )); do\n"
+                + "        case \"$path/${COMP_WORDS[i]}\" in\n"
+                + (paths.length() == 0 ? "" : "            " + paths + ") path=\"$path/${COMP_WORDS[i]}\"; (( i++ ));;\n")
+                + "            *) break;;\n"
+                + "        esac\n"
+                + "    done\n"
+                + "    case \"$path\" in\n"
+                + words
+                + "    esac\n"
+                + "    if (( COMP_CWORD > i )); then\n"
+                + "        case \"$path $prev\" in\n"
+                + values
+                + "        esac\n"
+                + "    fi\n"
+                + "    if [[ \"$cur\" == -* ]]; then\n"
+                + "        COMPREPLY=($(compgen -W \"$options\" -- \"$cur\"))\n"
+                + "    elif (( i == COMP_CWORD )) && [[ -n \"$commands\" ]]; then\n"
+                + "        COMPREPLY=($(compgen -W \"$commands\" -- \"$cur\"))\n"
+                + "    fi\n"
+                + "}\n"
+                + "complete -o bashdefault -o default -F " + function + " " + command + "\n";
+    }
+
+
+    private static String fishScript(String command, Map<String, Index> levels) {
+        StringBuilder script = new StringBuilder("# fish completion for ").append(command)
+                .append(", generated from its options\n");
+        for (Map.Entry<String, Index> level : levels.entrySet()) {
+            String path = level.getKey();
+            Index index = level.getValue();
+
+            // Fish can tell whether it has seen a subcommand, but not where,
+            // so a level is known by the last subcommand name in its path
+            String seen = path.isEmpty() ? null : "__fish_seen_subcommand_from " + path.substring(path.lastIndexOf('/') + 1);
+            String optionCondition = seen;
+            String commandCondition = seen;
+            if (index.commandNames.length != 0) {
+                String notYet = "not __fish_seen_subcommand_from " + String.join(" ", index.commandNames);
+                optionCondition = seen == null ? notYet : seen + "; and " + notYet;
+                commandCondition = seen == null ? "__fish_use_subcommand" : optionCondition;
+            }
+            for (CommandLineSubcommandTable.Subcommand subcommand : index.subcommands == null
+                    ? Collections.<CommandLineSubcommandTable.Subcommand>emptyList() : index.subcommands.all()) {
+                script.append("complete -c ").append(command).append(" -n '").append(commandCondition)
+                        .append("' -f -a ").append(fishQuote(subcommand.name));
+                if (!subcommand.usage.isEmpty()) {
+                    script.append(" -d ").append(fishQuote(subcommand.usage));
+                }
+                script.append('\n');
+            }
+            for (Option option : index.options) {
+                script.append("complete -c ").append(command);
+                if (optionCondition != null) {
+                    script.append(" -n '").append(optionCondition).append('\'');
+                }
+                if (option.getOpt() != null) {
+                    script.append(option.getOpt().length() == 1 ? " -s " : " -o ").append(option.getOpt());
+                }
+                if (option.getLongOpt() != null) {
+                    script.append(" -l ").append(option.getLongOpt());
+                }
+                String[] candidates = index.values.get(nameOf(option));
+                if (candidates != null && candidates.length != 0) {
+                    script.append(" -x -a ").append(fishQuote(String.join(" ", candidates)));
+                } else if (candidates != null) {
+                    script.append(" -r");
+                }
+                if (option.getDescription() != null && !option.getDescription().isEmpty()) {
+                    script.append(" -d ").append(fishQuote(option.getDescription()));
+                }
+                script.append('\n');
+            }
+        }
+        return script.toString();
+    }
+
+
+    private static String fishQuote(String text) {
+        return "'" + text.replace("\\", "\\\\").replace("'", "\\'").replace('\n', ' ') + "'";
+    }
+
+
+    private static String nameOf(Option option) {
+        return option.getOpt() != null ? "-" + option.getOpt() : "--" + option.getLongOpt();
+    }
+
+
+    /**
+     * Add the entries of a sorted array that start with a prefix
+     */
+    private static void addMatches(String[] sorted, String prefix, String before, List<String> matches) {
+        int i = Arrays.binarySearch(sorted, prefix);
+        for (i = i < 0 ? -i - 1 : i; i < sorted.length && sorted[i].startsWith(prefix); ++i) {
+            matches.add(before + sorted[i]);
+        }
+    }
+
+
+    /**
+     * The completion index for one class: the option names, the values
+     * of each option that takes one, and the subcommand names, each sorted.
+     */
+    private static final class Index {
+
+        final Option[] options;
+        final String[] optionNames;
+
+        // By each name of each option that takes a value; the array is
+        // empty when there are no particular values to offer
+        final Map<String, String[]> values = new HashMap<>();
+
+        final String[] commandNames;
+        final CommandLineSubcommandTable subcommands;
+
+        Index(Class<?> applicationClass) throws CommandLineException {
+
+            // The generated dispatcher has the options without configuring the class
+            CommandLineDispatcher<?> dispatcher = CommandLineApplication.generatedDispatcher(applicationClass);
+            CommandLineMetadata metadata = dispatcher != null ? null : CommandLineMetadata.forClass(applicationClass);
+            this.options = dispatcher != null
+                    ? dispatcher.getOptions().getOptions().toArray(new Option[0])
+                    : metadata.optionList();
+
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < this.options.length; ++i) {
+                Option option = this.options[i];
+
+                // Lazy options don't have their type until their helper is built
+                Object type = metadata == null ? option.getType() : option.hasArg() ? metadata.optionHelper(i).elementType : null;
+                String[] candidates = option.hasArg() ? candidatesFor(type) : null;
+                if (option.getOpt() != null) {
+                    names.add("-" + option.getOpt());
+                    if (candidates != null) {
+                        values.put("-" + option.getOpt(), candidates);
+                    }
+                }
+                if (option.getLongOpt() != null) {
+                    names.add("--" + option.getLongOpt());
+                    if (candidates != null) {
+                        values.put("--" + option.getLongOpt(), candidates);
+                    }
+                }
+            }
+            optionNames = names.toArray(new String[names.size()]);
+            Arrays.sort(optionNames);
+
+            subcommands = CommandLineSubcommandTable.forClass(applicationClass);
+            List<String> commands = new ArrayList<>();
+            if (subcommands != null) {
+                for (CommandLineSubcommandTable.Subcommand subcommand : subcommands.all()) {
+                    commands.add(subcommand.name);
+                }
+            }
+            commandNames = commands.toArray(new String[commands.size()]);
+            Arrays.sort(commandNames);
+        }
+
+
+        private static String[] candidatesFor(Object type) {
+            String[] candidates = new String[0];
+            if (type instanceof Class && ((Class<?>) type).isEnum()) {
+                Object[] constants = ((Class<?>) type).getEnumConstants();
+                candidates = new String[constants.length];
+                for (int i = 0; i < constants.length; ++i) {
+                    candidates[i] = ((Enum<?>) constants[i]).name();
+                }
+            } else if (type == Boolean.class || type == boolean.class) {
+                candidates = new String[] { "false", "true" };
+            }
+            Arrays.sort(candidates);
+            return candidates;
+        }
+
+
+        List<String> complete(List<String> words, int index) throws CommandLineException {
+
+            // A subcommand takes the rest of the command line
+            if (subcommands != null && index > 0) {
+                CommandLineSubcommandTable.Subcommand subcommand = subcommands.get(words.get(0));
+                if (subcommand != null) {
+                    return forClass(subcommand.getApplicationClass())
+                            .complete(words.subList(1, words.size()), index - 1);
+                }
+            }
+
+            String current = index < words.size() ? words.get(index) : "";
+            List<String> matches = new ArrayList<>();
+            int equals = current.indexOf('=');
+            if (index > 0 && values.containsKey(words.get(index - 1))) {
+                addMatches(values.get(words.get(index - 1)), current, "", matches);
+            } else if (current.startsWith("--") && equals > 0) {
+                String[] candidates = values.get(current.substring(0, equals));
+                if (candidates != null) {
+                    addMatches(candidates, current.substring(equals + 1), current.substring(0, equals + 1), matches);
+                }
+            } else if (current.startsWith("-")) {
+                addMatches(optionNames, current, "", matches);
+            } else if (index == 0) {
+                addMatches(commandNames, current, "", matches);
+            }
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Optional settings for an application class as a whole,
+ * as opposed to the settings for individual options given
+ * with {@link CommandLineOption}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CommandLineConfiguration {
+
+    /**
+     * The parsers available for splitting the command line
+     * into options, option values and main arguments
+     */
+    enum Parser {
+
+        /**
+         * The commons-cli DefaultParser
+         */
+        CommonsCli,
+
+        /**
+         * The library's own tokenizer, which looks the options up
+         * in tables built once for the class, so the parsing time
+         * depends on the length of the command line and not on
+         * the number of options declared. It gives the same options,
+         * values and errors as the DefaultParser, except for a bare
+         * {@code -=}, which it reports as an unrecognized option
+         * where the DefaultParser fails with an internal error
+         */
+        Native
+    }
+
+
+    /**
+     * The parser to use. By default this is the
+     * commons-cli parser.
+     *
+     * @return The parser
+     */
+    Parser parser() default Parser.CommonsCli;
+
+
+    /**
+     * Whether an argument of the form @path is replaced by the
+     * arguments read from that file, so that a command line can
+     * be longer than the operating system allows. An argument
+     * that starts with @@ is passed on with the first @ removed.
+     * See {@link CommandLineArgumentFiles} for the file format.
+     * A command line that names argument files is parsed with the
+     * {@link Parser#Native} parser, which reads the arguments from the
+     * files as it goes, so they are never all held at once.
+     *
+     * @return True to expand argument files
+     */
+    boolean argumentFiles() default false;
+
+
+    /**
+     * Whether processing stops as soon as an option method returns
+     * false. By default the methods for all the options present are
+     * still called, and only the main method is skipped; with this set,
+     * the remaining option methods are skipped too, and their values
+     * are never converted. Together with {@link CommandLineOption#order()}
+     * this lets an option such as --help run first and stop everything
+     * else.
+     *
+     * @return True to stop at the first option method that returns false
+     */
+    boolean shortCircuit() default false;
+
+
+    /**
+     * Whether the option methods are checked, and their converters
+     * found, only when their options are given on a command line. Only
+     * the names of the options are read when the class is configured;
+     * the commons-cli options are built as they are found, or all at
+     * once for the usage text. The command line is parsed with the
+     * {@link Parser#Native} parser, which needs just the names, so a
+     * class with hundreds of options that is run with two or three
+     * configures in a fraction of the time. The price is that a
+     * badly declared option method is only reported when its option is
+     * used; {@link CommandLineInterpreter#validate()} checks them all,
+     * and the annotation processor checks them when the class is compiled.
+     *
+     * @return True to check option methods only when they are used
+     */
+    boolean lazyOptions() default false;
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The environment a command line is run in: the working directory,
+ * the environment variables, the standard streams and the exit status.
+ *
+ * Normally this is just the environment of the process. When the
+ * application is run by a {@link CommandLineDaemon}, each request has its
+ * own context, taken from the client that sent it; when it is run by a
+ * {@link CommandLineBatch}, each command line has its own context, with
+ * its output captured. A JVM has only one
+ * working directory and one set of environment variables, so applications
+ * that may be run by the daemon should get them from the current context
+ * rather than from System. The standard streams of the process are routed
+ * to the streams of the current context, so System.out and friends can
+ * be used as they always are.
+ *
+ * The context belongs to the thread running the command line, and is not
+ * passed on to the threads it starts: a pool thread started while one
+ * request runs could otherwise go on to write to that request's client
+ * long after it has finished. Work the application hands to another
+ * thread can be given the context with {@link #wrap(Runnable)}.
+ */
+public final class CommandLineContext {
+
+    /**
+     * The context for the current thread. It is set only by the code
+     * running a command line, or work it passes on explicitly.
+     */
+    static final ThreadLocal<CommandLineContext> current = new ThreadLocal<>();
+
+    /**
+     * The context of the process, used when no request is running
+     */
+    private static final CommandLineContext processContext = new CommandLineContext(
+            Paths.get("").toAbsolutePath(), System.getenv(), null, null, null);
+
+    /**
+     * The original standard streams, once they have been routed
+     */
+    private static PrintStream processOutput;
+    private static PrintStream processError;
+    private static InputStream processInput;
+
+    private final Path workingDirectory;
+    private final Map<String,String> environment;
+
+    // The streams of a request; null for the process context,
+    // which uses whatever System has at the time
+    private final InputStream input;
+    private final PrintStream output;
+    private final PrintStream error;
+
+    private volatile int exitStatus = 0;
+
+
+    CommandLineContext(Path workingDirectory, Map<String,String> environment,
+                       InputStream input, PrintStream output, PrintStream error) {
+        this.workingDirectory = workingDirectory;
+        this.environment = Collections.unmodifiableMap(environment);
+        this.input = input;
+        this.output = output;
+        this.error = error;
+    }
+
+
+    /**
+     * Get the context for the command line being run by this thread
+     *
+     * @return The context of the current request, or that of the
+     * process if this thread is not running a request
+     */
+    public static CommandLineContext current() {
+        CommandLineContext context = current.get();
+        return context == null ? processContext : context;
+    }
+
+
+    /**
+     * Wrap a task so that it runs in the context of the command line
+     * that wrapped it, on whatever thread runs it. Use this for work an
+     * application passes to its own threads or executors.
+     *
+     * @param task The task
+     * @return A task that runs the given one in the current context
+     */
+    public static Runnable wrap(final Runnable task) {
+        final CommandLineContext context = current.get();
+        return () -> {
+            CommandLineContext previous = current.get();
+            current.set(context);
+            try {
+                task.run();
+            } finally {
+                current.set(previous);
+            }
+        };
+    }
+
+
+    /**
+     * @return The working directory of the command line
+     */
+    public Path getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+
+    /**
+     * Resolve a path given on the command line against the
+     * working directory of the command line
+     *
+     * @param path The path, which may be relative
+     * @return The absolute path
+     */
+    public Path resolve(String path) {
+        return workingDirectory.resolve(path);
+    }
+
+
+    /**
+     * @return The environment variables of the command line, which can't be changed
+     */
+    public Map<String,String> getEnvironment() {
+        return environment;
+    }
+
+
+    /**
+     * @return The standard input of the command line
+     */
+    public InputStream getInput() {
+        return input == null ? System.in : input;
+    }
+
+
+    /**
+     * @return The standard output of the command line
+     */
+    public PrintStream getOutput() {
+        return output == null ? System.out : output;
+    }
+
+
+    /**
+     * @return The standard error of the command line
+     */
+    public PrintStream getError() {
+        return error == null ? System.err : error;
+    }
+
+
+    /**
+     * Set the status returned when the command line finishes. Applications
+     * run by the daemon or in a batch must not call System.exit, which
+     * would stop the daemon or batch itself.
+     *
+     * @param exitStatus The exit status
+     */
+    public void setExitStatus(int exitStatus) {
+        this.exitStatus = exitStatus;
+    }
+
+
+    /**
+     * @return The exit status set for the command line; 0 unless it has been set
+     */
+    public int getExitStatus() {
+        return exitStatus;
+    }
+
+
+    /**
+     * Run an application with this as the context of the current thread.
+     * The thread's previous context is restored afterwards, so a command
+     * line can run another, as a batch or daemon request, and go on in
+     * its own context.
+     *
+     * @param factory Creates the instance of the application to run
+     * @param args The command line arguments
+     * @return The exit status; the one set on the context, or 1 if
+     * the application threw an exception, which is reported on the
+     * error stream of the context
+     */
+    int run(Supplier<? extends CommandLineApplication> factory, String[] args) {
+        CommandLineContext previous = current.get();
+        current.set(this);
+        try {
+            factory.get().parseAndRun(args);
+            return exitStatus;
+        } catch (CommandLineException e) {
+            getError().println(e.getCause() == null ? e.getMessage() : e.getMessage() + ": " + e.getCause());
+            return exitStatus == 0 ? 1 : exitStatus;
+        } catch (RuntimeException e) {
+            e.printStackTrace(getError());
+            return exitStatus == 0 ? 1 : exitStatus;
+        } finally {
+            current.set(previous);
+        }
+    }
+
+
+    /**
+     * Replace the standard streams with ones that route to the streams of
+     * the current context. This is done once, by the first daemon or batch
+     * to start; threads that are not running a command line still get
+     * the original streams.
+     */
+    static synchronized void routeStandardStreams() {
+        if (processOutput == null) {
+            processOutput = System.out;
+            processError = System.err;
+            processInput = System.in;
+            System.setOut(new PrintStream(new RoutedOutput(false), true));
+            System.setErr(new PrintStream(new RoutedOutput(true), true));
+            System.setIn(new RoutedInput());
+        }
+    }
+
+
+    /**
+     * Standard output or error, sent to the streams of the
+     * current context if there is one
+     */
+    private static final class RoutedOutput extends OutputStream {
+
+        private final boolean error;
+
+        RoutedOutput(boolean error) {
+            this.error = error;
+        }
+
+        private OutputStream target() {
+            CommandLineContext context = current.get();
+            if (context == null) {
+                return error ? processError : processOutput;
+            }
+            return error ? context.getError() : context.getOutput();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+
+
+    /**
+     * Standard input, read from the current context if there is one
+     */
+    private static final class RoutedInput extends InputStream {
+
+        private InputStream source() {
+            CommandLineContext context = current.get();
+            return context == null ? processInput : context.getInput();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return source().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return source().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return source().available();
+        }
+    }
+}
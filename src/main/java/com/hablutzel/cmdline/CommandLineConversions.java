@@ -0,0 +1,508 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.Converter;
+import org.apache.commons.beanutils.converters.ConverterFacade;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Conversions of option and main values to primitive arrays and
+ * streams, without boxing each element, and to streams, iterators
+ * and suppliers that convert each value only when it is read.
+ *
+ * The beanutils converters always return objects, so filling an int[]
+ * through them boxes every element. When the converter is one of the
+ * standard beanutils converters, these methods parse the strings
+ * directly instead. The standard number converters parse the trimmed
+ * string in the same way, so the results are the same; for a value
+ * that doesn't parse, the converter itself is called, so that it can
+ * supply its default or throw its exception just as before. Custom
+ * converters registered by the application are always called.
+ *
+ * These methods are public so that generated dispatchers can use them.
+ */
+public final class CommandLineConversions {
+
+    private static final String[] NO_VALUES = new String[0];
+
+    /**
+     * The fewest values converted in parallel, when parallel conversion
+     * is asked for. Below this the cost of splitting the work is more
+     * than is saved.
+     */
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    /**
+     * The fewest values converted by one parallel task
+     */
+    private static final int MINIMUM_TASK_SIZE = 64;
+
+    // The strings accepted by the standard boolean converter
+    private static final String[] TRUE_STRINGS = {"true", "yes", "y", "on", "1"};
+    private static final String[] FALSE_STRINGS = {"false", "no", "n", "off", "0"};
+
+
+    private CommandLineConversions() {
+    }
+
+
+    /**
+     * Determine if a converter is one of the standard beanutils converters.
+     * Those are registered behind a facade, which applications can't change.
+     *
+     * @param converter The converter
+     * @return true if the values can be parsed directly
+     */
+    private static boolean isStandard(Converter converter) {
+        return converter instanceof ConverterFacade;
+    }
+
+
+    public static int toInt(Converter converter, String value) {
+        if (isStandard(converter)) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // Let the converter handle it
+            }
+        }
+        return converter.convert(int.class, value);
+    }
+
+    public static long toLong(Converter converter, String value) {
+        if (isStandard(converter)) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                // Let the converter handle it
+            }
+        }
+        return converter.convert(long.class, value);
+    }
+
+    public static double toDouble(Converter converter, String value) {
+        if (isStandard(converter)) {
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                // Let the converter handle it
+            }
+        }
+        return converter.convert(double.class, value);
+    }
+
+    public static boolean toBoolean(Converter converter, String value) {
+        if (isStandard(converter)) {
+            for (String trueString : TRUE_STRINGS) {
+                if (trueString.equalsIgnoreCase(value)) {
+                    return true;
+                }
+            }
+            for (String falseString : FALSE_STRINGS) {
+                if (falseString.equalsIgnoreCase(value)) {
+                    return false;
+                }
+            }
+        }
+        return converter.convert(boolean.class, value);
+    }
+
+
+    public static int[] toIntArray(Converter converter, String[] values) {
+        values = values == null ? NO_VALUES : values;
+        int[] array = new int[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            array[i] = toInt(converter, values[i]);
+        }
+        return array;
+    }
+
+    public static long[] toLongArray(Converter converter, String[] values) {
+        values = values == null ? NO_VALUES : values;
+        long[] array = new long[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            array[i] = toLong(converter, values[i]);
+        }
+        return array;
+    }
+
+    public static double[] toDoubleArray(Converter converter, String[] values) {
+        values = values == null ? NO_VALUES : values;
+        double[] array = new double[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            array[i] = toDouble(converter, values[i]);
+        }
+        return array;
+    }
+
+    public static boolean[] toBooleanArray(Converter converter, String[] values) {
+        values = values == null ? NO_VALUES : values;
+        boolean[] array = new boolean[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            array[i] = toBoolean(converter, values[i]);
+        }
+        return array;
+    }
+
+
+    /**
+     * Get the values as a stream of ints. Each value is converted as
+     * the stream reaches it, so no array of results is built.
+     *
+     * @param converter The converter for int
+     * @param values The values; null is the same as no values
+     * @return The stream
+     */
+    public static IntStream toIntStream(final Converter converter, final String[] values) {
+        final String[] source = values == null ? NO_VALUES : values;
+        return IntStream.range(0, source.length).map(i -> toInt(converter, source[i]));
+    }
+
+    public static LongStream toLongStream(final Converter converter, final String[] values) {
+        final String[] source = values == null ? NO_VALUES : values;
+        return IntStream.range(0, source.length).mapToLong(i -> toLong(converter, source[i]));
+    }
+
+    public static DoubleStream toDoubleStream(final Converter converter, final String[] values) {
+        final String[] source = values == null ? NO_VALUES : values;
+        return IntStream.range(0, source.length).mapToDouble(i -> toDouble(converter, source[i]));
+    }
+
+
+    /**
+     * Get the values as a stream, converting each value as the
+     * stream reaches it. The converted values are not kept, so
+     * a method that doesn't read every value doesn't pay to
+     * convert the rest.
+     *
+     * @param converter The converter for the element type
+     * @param type The element type
+     * @param values The values; null is the same as no values
+     * @return The stream
+     */
+    public static <T> Stream<T> toStream(final Converter converter, final Class<T> type, final String[] values) {
+        return Arrays.stream(values == null ? NO_VALUES : values).map(value -> convert(converter, type, value));
+    }
+
+
+    /**
+     * Get an iterator over the values, converting each value
+     * when it is returned
+     *
+     * @param converter The converter for the element type
+     * @param type The element type
+     * @param values The values; null is the same as no values
+     * @return The iterator
+     */
+    public static <T> Iterator<T> toIterator(final Converter converter, final Class<T> type, final String[] values) {
+        final String[] source = values == null ? NO_VALUES : values;
+        return new Iterator<T>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < source.length;
+            }
+
+            @Override
+            public T next() {
+                if (next >= source.length) {
+                    throw new NoSuchElementException();
+                }
+                return convert(converter, type, source[next++]);
+            }
+        };
+    }
+
+
+    /**
+     * Get the values as an iterable. Each iterator it returns
+     * converts the values again as they are read.
+     *
+     * @param converter The converter for the element type
+     * @param type The element type
+     * @param values The values; null is the same as no values
+     * @return The iterable
+     */
+    public static <T> Iterable<T> toIterable(final Converter converter, final Class<T> type, final String[] values) {
+        return () -> toIterator(converter, type, values);
+    }
+
+
+    /**
+     * Get a supplier for a value, which converts the value the first
+     * time it is asked for and then keeps the result. A method that
+     * never asks for the value doesn't pay to convert it. If the
+     * conversion fails, the exception is thrown from get(), and the
+     * conversion is tried again the next time.
+     *
+     * @param converter The converter for the type
+     * @param type The type
+     * @param value The value
+     * @return The supplier
+     */
+    public static <T> Supplier<T> toSupplier(final Converter converter, final Class<T> type, final String value) {
+        return new LazyValue<>(converter, type, value);
+    }
+
+
+    /**
+     * Get the converter for values that name files to be mapped
+     * into memory, for methods that ask for that with mapFile
+     *
+     * @param type The type the method takes
+     * @return The converter, or null if files can't be mapped to the type
+     */
+    public static Converter toMappedFile(Class<?> type) {
+        return CommandLineMappedFiles.converterFor(type);
+    }
+
+
+    private static <T> T convert(Converter converter, Class<T> type, String value) {
+        return converter.convert(type, value);
+    }
+
+
+    /**
+     * Convert the values to an array of the element type. Arrays of
+     * the common primitives are filled without boxing when the standard
+     * converter is used.
+     *
+     * If parallel conversion is asked for, and there are enough values,
+     * the values are converted on the common fork-join pool. The order of
+     * the elements is kept, and if any value fails to convert, the
+     * exception for the first such value is thrown, just as it would be
+     * if the values were converted one at a time.
+     *
+     * @param converter The converter for the element type
+     * @param type The element type
+     * @param values The values; null is the same as no values
+     * @param parallel True to convert large sets of values in parallel
+     * @return The array
+     */
+    public static Object toArray(Converter converter, Class<?> type, String[] values, boolean parallel) {
+        String[] source = values == null ? NO_VALUES : values;
+        boolean inParallel = parallel && source.length >= PARALLEL_THRESHOLD;
+
+        // Parsing the common primitives directly is already cheap
+        if (!inParallel || isStandard(converter)) {
+            if (type == int.class) {
+                return toIntArray(converter, source);
+            } else if (type == long.class) {
+                return toLongArray(converter, source);
+            } else if (type == double.class) {
+                return toDoubleArray(converter, source);
+            } else if (type == boolean.class) {
+                return toBooleanArray(converter, source);
+            }
+        }
+
+        Object array = Array.newInstance(type, source.length);
+        if (!type.isPrimitive()) {
+            convertAll(converter, type, source, (Object[]) array, inParallel);
+        } else {
+            Object[] converted = new Object[source.length];
+            convertAll(converter, type, source, converted, inParallel);
+            for (int i = 0; i < converted.length; ++i) {
+                Array.set(array, i, converted[i]);
+            }
+        }
+        return array;
+    }
+
+
+    /**
+     * Convert the values to a list of the element type, in parallel if
+     * asked for; see {@link #toArray(Converter, Class, String[], boolean)}.
+     *
+     * @param converter The converter for the element type
+     * @param type The element type
+     * @param values The values; null is the same as no values
+     * @param parallel True to convert large sets of values in parallel
+     * @return The list, which the caller may change
+     */
+    public static List<Object> toList(Converter converter, Class<?> type, String[] values, boolean parallel) {
+        String[] source = values == null ? NO_VALUES : values;
+        Object[] converted = new Object[source.length];
+        convertAll(converter, type, source, converted, parallel && source.length >= PARALLEL_THRESHOLD);
+        return new ArrayList<>(Arrays.asList(converted));
+    }
+
+
+    /**
+     * Convert each value into the corresponding slot of the results
+     */
+    private static void convertAll(Converter converter, Class<?> type, String[] values, Object[] results, boolean inParallel) {
+        if (!inParallel) {
+            for (int i = 0; i < values.length; ++i) {
+                results[i] = converter.convert(type, values[i]);
+            }
+            return;
+        }
+
+        // Split the work into a few tasks per worker
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int taskSize = Math.max(MINIMUM_TASK_SIZE, values.length / (pool.getParallelism() * 4));
+        ParallelConversion conversion = new ParallelConversion(CommandLineContext.current.get(), converter, type, values,
+                results, 0, values.length, taskSize);
+        pool.invoke(conversion);
+        if (conversion.failure instanceof Error) {
+            throw (Error) conversion.failure;
+        } else if (conversion.failure != null) {
+            throw (RuntimeException) conversion.failure;
+        }
+    }
+
+
+    /**
+     * Converts a range of values, splitting it while it is larger than
+     * the task size. Each task stops at its first failure, and keeps the
+     * failure with the lowest index from the tasks it split into, so the
+     * failure reported is the one a sequential conversion would report.
+     *
+     * The pool's threads don't belong to the command line being run, so
+     * each task runs under the context of the thread that started the
+     * conversion; converters that resolve paths, or map files, then see
+     * the request's working directory.
+     */
+    private static final class ParallelConversion extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // The context of the command line; null for the process context
+        private final CommandLineContext context;
+        private final Converter converter;
+        private final Class<?> type;
+        private final String[] values;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int taskSize;
+
+        // The first exception thrown by the converter in this range
+        Throwable failure;
+
+        ParallelConversion(CommandLineContext context, Converter converter, Class<?> type, String[] values,
+                           Object[] results, int from, int to, int taskSize) {
+            this.context = context;
+            this.converter = converter;
+            this.type = type;
+            this.values = values;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.taskSize = taskSize;
+        }
+
+        @Override
+        protected void compute() {
+            CommandLineContext previous = CommandLineContext.current.get();
+            CommandLineContext.current.set(context);
+            try {
+                convertRange();
+            } finally {
+                CommandLineContext.current.set(previous);
+            }
+        }
+
+        private void convertRange() {
+            if (to - from <= taskSize) {
+                try {
+                    for (int i = from; i < to; ++i) {
+                        results[i] = converter.convert(type, values[i]);
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure = e;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            ParallelConversion first = new ParallelConversion(context, converter, type, values, results,
+                    from, middle, taskSize);
+            ParallelConversion second = new ParallelConversion(context, converter, type, values, results,
+                    middle, to, taskSize);
+            invokeAll(first, second);
+            failure = first.failure != null ? first.failure : second.failure;
+        }
+    }
+
+
+    /**
+     * A value converted the first time it is asked for. The supplier
+     * can be handed to other threads, so the result is published
+     * safely and the value is converted at most once.
+     */
+    private static final class LazyValue<T> implements Supplier<T> {
+
+        private Converter converter;
+        private final Class<T> type;
+        private final String value;
+        private volatile boolean converted = false;
+        private T result;
+
+        LazyValue(Converter converter, Class<T> type, String value) {
+            this.converter = converter;
+            this.type = type;
+            this.value = value;
+        }
+
+        @Override
+        public T get() {
+            if (!converted) {
+                synchronized (this) {
+                    if (!converted) {
+                        result = convert(converter, type, value);
+                        converted = true;
+
+                        // The converter is no longer needed
+                        converter = null;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return converted ? String.valueOf(result) : "Supplier[" + value + "]";
+        }
+    }
+}
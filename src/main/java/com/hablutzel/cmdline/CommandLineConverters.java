@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.ConvertUtils;
+import org.apache.commons.beanutils.Converter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The converters used for one application class.
+ *
+ * Converters registered here are used for that class only, in preference
+ * to the ones registered globally with ConvertUtils; types with no
+ * converter here fall back to ConvertUtils. The converters are resolved
+ * once, when the class is configured (or its generated dispatcher is
+ * created), and the configuration keeps the converter it was given, so
+ * running a command line doesn't touch ConvertUtils, whose shared state
+ * is synchronized, at all. Converters should therefore be registered
+ * before the first call to parseAndRun, typically in a static
+ * initializer of the application class:
+ * <pre>
+ *     static {
+ *         CommandLineConverters.forClass(Indexer.class)
+ *                 .register(Level.class, new LevelConverter())
+ *                 .cacheConversions(Path.class, 256);
+ *     }
+ * </pre>
+ *
+ * The values converted to a type can also be cached, so that a value
+ * that appears many times on a command line (or in many command lines,
+ * for a daemon or a batch) is converted once. The cache has a fixed
+ * number of entries; a value that maps to an entry already in use
+ * replaces it. It is read and written without locks, so it can be shared
+ * by every thread running the class. Only immutable types, such as
+ * enums, paths and dates, should be cached, since every use of a value
+ * gets the same object. The standard number and boolean conversions are
+ * done without boxing where possible, and are faster than the cache.
+ *
+ * Registration is rare, so it copies the tables it changes; looking a
+ * converter up takes no lock.
+ */
+public final class CommandLineConverters {
+
+    /**
+     * The registry for each application class
+     */
+    private static final ClassValue<CommandLineConverters> registries = new ClassValue<CommandLineConverters>() {
+        @Override
+        protected CommandLineConverters computeValue(Class<?> type) {
+            return new CommandLineConverters();
+        }
+    };
+
+    // The tables set by registration; replaced, never changed
+    private volatile Map<Class<?>, Converter> converters = Collections.emptyMap();
+    private volatile Map<Class<?>, Integer> cacheSizes = Collections.emptyMap();
+
+    /**
+     * The converters handed out, by type, so that every method
+     * converting to a type shares the same cache
+     */
+    private final ConcurrentHashMap<Class<?>, Converter> resolved = new ConcurrentHashMap<>();
+
+
+    private CommandLineConverters() {
+    }
+
+
+    /**
+     * Get the converters for an application class
+     *
+     * @param applicationClass The application class
+     * @return The converters for the class
+     */
+    public static CommandLineConverters forClass(Class<?> applicationClass) {
+        return registries.get(applicationClass);
+    }
+
+
+    /**
+     * Register the converter for a type. A converter registered
+     * for a wrapper type is also used for the primitive type.
+     *
+     * @param type The type converted to
+     * @param converter The converter from String to that type
+     * @return This registry
+     */
+    public synchronized CommandLineConverters register(Class<?> type, Converter converter) {
+        Map<Class<?>, Converter> changed = new HashMap<>(converters);
+        changed.put(type, converter);
+        converters = changed;
+        resolved.clear();
+        return this;
+    }
+
+
+    /**
+     * Cache the values converted to a type. A cache registered
+     * for a wrapper type is also used for the primitive type.
+     *
+     * @param type The type converted to, which must be immutable
+     * @param size The number of values cached, which is rounded up
+     *             to a power of two
+     * @return This registry
+     */
+    public synchronized CommandLineConverters cacheConversions(Class<?> type, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The cache size must be at least 1");
+        }
+        Map<Class<?>, Integer> changed = new HashMap<>(cacheSizes);
+        changed.put(type, size);
+        cacheSizes = changed;
+        resolved.clear();
+        return this;
+    }
+
+
+    /**
+     * Look up the converter for a type. This is public so that
+     * generated dispatchers can use it.
+     *
+     * @param type The type converted to
+     * @return The converter, or null if there is none
+     */
+    public Converter lookup(Class<?> type) {
+        Converter converter = resolved.get(type);
+        if (converter == null) {
+            converter = find(converters, type);
+            if (converter == null) {
+                converter = ConvertUtils.lookup(String.class, type);
+                if (converter == null) {
+                    return null;
+                }
+            }
+            Integer size = find(cacheSizes, type);
+            if (size != null) {
+                converter = new CachingConverter(converter, size);
+            }
+            Converter existing = resolved.putIfAbsent(type, converter);
+            if (existing != null) {
+                converter = existing;
+            }
+        }
+        return converter;
+    }
+
+
+    /**
+     * Find the entry for a type, or for its wrapper type if it is primitive
+     */
+    private static <V> V find(Map<Class<?>, V> table, Class<?> type) {
+        V value = table.get(type);
+        if (value == null && type.isPrimitive()) {
+            value = table.get(wrapperOf(type));
+        }
+        return value;
+    }
+
+
+    private static Class<?> wrapperOf(Class<?> type) {
+        if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == char.class) {
+            return Character.class;
+        }
+        return Void.class;
+    }
+
+
+    /**
+     * A converter that remembers the values it has converted. The cache
+     * is direct mapped: each string has one entry it can be kept in, and
+     * replaces whatever was there. The entries are immutable, so an entry
+     * read by one thread while another replaces it is either the old one
+     * or the new one, and never a mix of the two; no lock is needed.
+     */
+    private static final class CachingConverter implements Converter {
+
+        private static final class Entry {
+            final Class<?> type;
+            final String value;
+            final Object result;
+
+            Entry(Class<?> type, String value, Object result) {
+                this.type = type;
+                this.value = value;
+                this.result = result;
+            }
+        }
+
+        private final Converter converter;
+        private final Entry[] entries;
+        private final int mask;
+
+        CachingConverter(Converter converter, int size) {
+            this.converter = converter;
+            int capacity = size == 1 ? 1 : Integer.highestOneBit(Math.min(size, 1 << 30) - 1) << 1;
+            this.entries = new Entry[capacity];
+            this.mask = entries.length - 1;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T convert(Class<T> type, Object value) {
+            if (!(value instanceof String)) {
+                return converter.convert(type, value);
+            }
+
+            // Spread the hash, so strings that differ only at the
+            // end don't all fall in the same few entries
+            int hash = value.hashCode();
+            int index = (hash ^ (hash >>> 16)) & mask;
+            Entry entry = entries[index];
+            if (entry != null && entry.type == type && entry.value.equals(value)) {
+                return (T) entry.result;
+            }
+
+            // Conversion failures are thrown, and not cached
+            T result = converter.convert(type, value);
+            entries[index] = new Entry(type, (String) value, result);
+            return result;
+        }
+    }
+}
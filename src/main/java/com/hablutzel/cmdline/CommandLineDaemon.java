@@ -0,0 +1,572 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A resident server for an application class, so that the application
+ * can be run without starting a JVM (and configuring the class) each time.
+ *
+ * The daemon listens on a Unix domain socket. Each connection is one run
+ * of the application: the client sends its arguments, working directory,
+ * environment and standard input, and the daemon creates a new instance
+ * of the application, runs parseAndRun on it, and sends back the standard
+ * output, standard error and exit status. Requests are run concurrently,
+ * each on its own thread with its own instance and its own
+ * {@link CommandLineContext}, up to a limit; further connections wait
+ * until a request finishes. The class is configured once, when the
+ * daemon starts, and the configuration is shared by every request.
+ *
+ * While the daemon runs, System.in, System.out and System.err are
+ * replaced by streams that route to the client of the request the
+ * calling thread is running, or to the original streams for other
+ * threads. Applications run this way must not call System.exit, and
+ * should take the working directory and environment from
+ * {@link CommandLineContext#current()}.
+ *
+ * The exit status is the one set on the context, or 1 if parseAndRun
+ * threw an exception; the exception is reported on standard error. The
+ * client is sent a status of 1 even if the application throws an Error.
+ *
+ * {@link CommandLineDaemonClient} is a client for the daemon. The protocol
+ * is simple enough for clients in other languages; all numbers are big
+ * endian 32 bit integers, and strings are a length followed by that many
+ * bytes of UTF-8.
+ * <ul>
+ *     <li>The client sends the protocol version (1), the number of
+ *     arguments and the arguments, the working directory, and the number
+ *     of environment variables followed by each name and value</li>
+ *     <li>The client then sends its standard input as blocks, each a length
+ *     followed by that many bytes; a block of length 0 ends the input</li>
+ *     <li>The daemon sends blocks of output, each a type byte (1 for
+ *     standard output, 2 for standard error), a length and the bytes;
+ *     and finally the type byte 0 followed by the exit status</li>
+ * </ul>
+ * A request for another protocol version, or with more than 65536
+ * arguments or environment variables, more than 64MB of strings or a
+ * negative length, is answered with an error and an exit status of 2.
+ *
+ * @param <T> The application class
+ */
+public final class CommandLineDaemon<T extends CommandLineApplication> implements Closeable {
+
+    /**
+     * The system property, or environment variable, the client
+     * takes the socket path from
+     */
+    public static final String SOCKET_PROPERTY = "cmdline.daemon.socket";
+    public static final String SOCKET_VARIABLE = "CMDLINE_DAEMON_SOCKET";
+
+    static final int PROTOCOL_VERSION = 1;
+
+    // The types of the blocks sent by the daemon
+    static final int EXIT = 0;
+    static final int OUTPUT = 1;
+    static final int ERROR = 2;
+
+    // The largest block sent at once
+    static final int BLOCK_SIZE = 8192;
+
+    /**
+     * Limits on a request, so that a malformed one can't exhaust the
+     * daemon: the number of arguments or of environment variables, and
+     * the total length of the strings
+     */
+    static final int MAX_COUNT = 1 << 16;
+    static final int MAX_REQUEST_BYTES = 1 << 26;
+
+    /**
+     * The number of requests run at once, unless another limit is given
+     */
+    public static final int DEFAULT_CONCURRENT_REQUESTS = 4 * Runtime.getRuntime().availableProcessors();
+
+    private final Class<T> applicationClass;
+    private final Supplier<? extends T> factory;
+    private final Path socketPath;
+    private final ExecutorService executor;
+
+    // Taken for each request before its connection is accepted
+    private final Semaphore requests;
+    private volatile ServerSocketChannel server;
+
+
+    /**
+     * Create a daemon for an application class, running up to
+     * {@link #DEFAULT_CONCURRENT_REQUESTS} requests at once
+     *
+     * @param applicationClass The application class
+     * @param factory Creates a new instance of the application for each request
+     * @param socketPath The path of the socket to listen on
+     */
+    public CommandLineDaemon(Class<T> applicationClass, Supplier<? extends T> factory, Path socketPath) {
+        this(applicationClass, factory, socketPath, DEFAULT_CONCURRENT_REQUESTS);
+    }
+
+
+    /**
+     * Create a daemon for an application class
+     *
+     * @param applicationClass The application class
+     * @param factory Creates a new instance of the application for each request
+     * @param socketPath The path of the socket to listen on
+     * @param concurrentRequests The most requests run at once
+     */
+    public CommandLineDaemon(Class<T> applicationClass, Supplier<? extends T> factory, Path socketPath,
+                             int concurrentRequests) {
+        if (concurrentRequests < 1) {
+            throw new IllegalArgumentException("At least one request must be able to run");
+        }
+        this.applicationClass = applicationClass;
+        this.factory = factory;
+        this.socketPath = socketPath;
+        this.requests = new Semaphore(concurrentRequests);
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrentRequests, concurrentRequests,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "cmdline-daemon-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+
+    /**
+     * Listen for requests until the daemon is closed. The socket file
+     * is created when the daemon starts, readable and writable only by
+     * the owner, and removed when it stops. On a POSIX file system it is
+     * created in a directory only the owner can enter, and moved into
+     * place once its permissions are set, so no one else can connect
+     * to it in between.
+     *
+     * @throws CommandLineException if the application class is not correctly annotated
+     * @throws IOException if the socket can't be created, or is in use by another daemon
+     */
+    public void serve() throws CommandLineException, IOException {
+
+        // Configure the class now, so that the first request doesn't
+        // pay for it, and so that mistakes are reported at once
+        CommandLineMetadata.forClass(applicationClass);
+        CommandLineContext.routeStandardStreams();
+
+        // A socket file left by a daemon that was killed can be replaced,
+        // but not one that a running daemon is listening on
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+        if (Files.exists(socketPath)) {
+            if (isListening(address)) {
+                throw new IOException("A daemon is already listening on " + socketPath);
+            }
+            Files.delete(socketPath);
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            bind(server, address);
+            this.server = server;
+
+            while (true) {
+
+                // Wait for a request to finish if as many as allowed are running
+                try {
+                    requests.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+
+                    // The daemon was closed
+                    requests.release();
+                    break;
+                }
+                executor.execute(() -> {
+                    try {
+                        handle(channel);
+                    } finally {
+                        requests.release();
+                    }
+                });
+            }
+        } finally {
+            server.close();
+            executor.shutdown();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+
+    /**
+     * Bind the server to the socket path, with the socket file
+     * readable and writable only by the owner
+     */
+    private void bind(ServerSocketChannel server, UnixDomainSocketAddress address) throws IOException {
+        Path directory;
+        try {
+            Path parent = socketPath.toAbsolutePath().getParent();
+            directory = Files.createTempDirectory(parent, ".cmdline-daemon",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+
+            // Not a POSIX file system; the default permissions stand
+            server.bind(address);
+            return;
+        }
+        Path privatePath = directory.resolve(socketPath.getFileName());
+        try {
+            server.bind(UnixDomainSocketAddress.of(privatePath));
+            Files.setPosixFilePermissions(privatePath, PosixFilePermissions.fromString("rw-------"));
+            Files.move(privatePath, socketPath, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(privatePath);
+            Files.delete(directory);
+        }
+    }
+
+
+    private static boolean isListening(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Stop listening for requests. Requests that are running are
+     * allowed to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        ServerSocketChannel server = this.server;
+        if (server != null) {
+            server.close();
+        }
+    }
+
+
+    /**
+     * Run one request, and send the results back to the client
+     *
+     * @param channel The connection to the client
+     */
+    private void handle(SocketChannel channel) {
+        try (SocketChannel client = channel) {
+
+            // Read the request
+            DataInputStream request = new DataInputStream(new BufferedInputStream(new ChannelInput(client)));
+            BlockOutput response = new BlockOutput(client);
+            if (request.readInt() != PROTOCOL_VERSION) {
+                response.write(ERROR, "Unsupported protocol version\n".getBytes(StandardCharsets.UTF_8));
+                response.writeExit(2);
+                return;
+            }
+            String[] args;
+            Path workingDirectory;
+            Map<String,String> environment = new HashMap<>();
+            try {
+                RequestReader reader = new RequestReader(request);
+                args = new String[reader.readCount("arguments")];
+                for (int i = 0; i < args.length; ++i) {
+                    args[i] = reader.readString();
+                }
+                workingDirectory = Paths.get(reader.readString());
+                int variableCount = reader.readCount("environment variables");
+                for (int i = 0; i < variableCount; ++i) {
+                    environment.put(reader.readString(), reader.readString());
+                }
+            } catch (MalformedRequest | InvalidPathException e) {
+                response.write(ERROR, ("Malformed request: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                response.writeExit(2);
+                return;
+            }
+
+            // Run the application with the client's streams. The client
+            // waits for an exit status, so it is sent whatever happens
+            PrintStream output = new PrintStream(new BufferedOutputStream(new BlockStream(response, OUTPUT), BLOCK_SIZE), true);
+            PrintStream error = new PrintStream(new BufferedOutputStream(new BlockStream(response, ERROR), BLOCK_SIZE), true);
+            CommandLineContext context = new CommandLineContext(workingDirectory, environment,
+                    new BlockInput(request), output, error);
+            int status = 1;
+            try {
+                status = context.run(factory, args);
+            } catch (Error e) {
+                e.printStackTrace(error);
+                throw e;
+            } finally {
+                output.flush();
+                error.flush();
+                response.writeExit(status);
+            }
+        } catch (IOException e) {
+
+            // The client has gone; there is no one to tell
+        }
+    }
+
+
+    /**
+     * Thrown when a request breaks the protocol or its limits
+     */
+    private static final class MalformedRequest extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        MalformedRequest(String message) {
+            super(message);
+        }
+    }
+
+
+    /**
+     * Reads the counts and strings of a request, checking them against
+     * the limits before anything is allocated for them
+     */
+    private static final class RequestReader {
+
+        private final DataInputStream in;
+        private int remaining = MAX_REQUEST_BYTES;
+
+        RequestReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        int readCount(String what) throws IOException, MalformedRequest {
+            int count = in.readInt();
+            if (count < 0 || count > MAX_COUNT) {
+                throw new MalformedRequest("the number of " + what + " is " + count);
+            }
+            return count;
+        }
+
+        String readString() throws IOException, MalformedRequest {
+            int length = in.readInt();
+            if (length < 0 || length > remaining) {
+                throw new MalformedRequest("a string of length " + length + " is too long or negative");
+            }
+            remaining -= length;
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    /**
+     * Writes blocks of output to the client. Blocks from the output and error
+     * streams of a request can be written by different threads.
+     */
+    private static final class BlockOutput {
+
+        private final SocketChannel channel;
+
+        BlockOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void write(int type, byte[] bytes) throws IOException {
+            write(type, bytes, 0, bytes.length);
+        }
+
+        synchronized void write(int type, byte[] bytes, int off, int len) throws IOException {
+            while (len > 0) {
+                int length = Math.min(len, BLOCK_SIZE);
+                ByteBuffer header = ByteBuffer.allocate(5);
+                header.put((byte) type).putInt(length).flip();
+                ChannelOutput.writeFully(channel, header);
+                ChannelOutput.writeFully(channel, ByteBuffer.wrap(bytes, off, length));
+                off += length;
+                len -= length;
+            }
+        }
+
+        synchronized void writeExit(int status) throws IOException {
+            ByteBuffer block = ByteBuffer.allocate(5);
+            block.put((byte) EXIT).putInt(status).flip();
+            ChannelOutput.writeFully(channel, block);
+        }
+    }
+
+
+    /**
+     * One of the output streams of a request
+     */
+    private static final class BlockStream extends OutputStream {
+
+        private final BlockOutput output;
+        private final int type;
+
+        BlockStream(BlockOutput output, int type) {
+            this.output = output;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            output.write(type, new byte[]{(byte) b});
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            output.write(type, b, off, len);
+        }
+    }
+
+
+    /**
+     * The standard input of a request, read from the blocks sent by the client
+     */
+    private static final class BlockInput extends InputStream {
+
+        private final DataInputStream in;
+        private int remaining = 0;
+        private boolean ended = false;
+
+        BlockInput(DataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!ended && remaining == 0) {
+                remaining = in.readInt();
+                if (remaining < 0) {
+                    throw new IOException("The client sent a block of length " + remaining);
+                }
+                ended = remaining == 0;
+            }
+            if (ended) {
+                return -1;
+            }
+            int count = in.read(b, off, Math.min(len, remaining));
+            if (count < 0) {
+                throw new EOFException("The client closed its input");
+            }
+            remaining -= count;
+            return count;
+        }
+    }
+
+
+    /**
+     * An input stream over a socket channel. The channel can be read
+     * and written by different threads at the same time, which is not
+     * true of the streams from java.nio.channels.Channels.
+     */
+    static final class ChannelInput extends InputStream {
+
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+
+    /**
+     * An output stream over a socket channel; see {@link ChannelInput}
+     */
+    static final class ChannelOutput extends OutputStream {
+
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeFully(channel, ByteBuffer.wrap(b, off, len));
+        }
+
+        static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static com.hablutzel.cmdline.CommandLineDaemon.*;
+
+/**
+ * A client for a {@link CommandLineDaemon}. It sends its arguments,
+ * working directory, environment and standard input to the daemon,
+ * copies the output of the request to its own standard output and
+ * error, and exits with the status of the request.
+ *
+ * The socket path is taken from the cmdline.daemon.socket system
+ * property, or the CMDLINE_DAEMON_SOCKET environment variable:
+ *
+ *     java -cp command-line.jar -Dcmdline.daemon.socket=/tmp/app.sock \
+ *         com.hablutzel.cmdline.CommandLineDaemonClient --verbose input.txt
+ *
+ * The client loads only a few small classes, and none of the
+ * application, so it starts much faster than the application would.
+ */
+public final class CommandLineDaemonClient {
+
+    private CommandLineDaemonClient() {
+    }
+
+
+    public static void main(String[] args) {
+        String socket = System.getProperty(SOCKET_PROPERTY, System.getenv(SOCKET_VARIABLE));
+        if (socket == null) {
+            System.err.println("Set " + SOCKET_PROPERTY + " or " + SOCKET_VARIABLE + " to the path of the daemon socket");
+            System.exit(2);
+        }
+        int status;
+        try {
+            status = run(Paths.get(socket), args, System.in, System.out, System.err);
+        } catch (IOException e) {
+            System.err.println("Unable to run the command through the daemon at " + socket + ": " + e);
+            status = 2;
+        }
+        System.exit(status);
+    }
+
+
+    /**
+     * Run a command line through a daemon, using the working directory
+     * and environment of this process
+     *
+     * @param socket The path of the daemon socket
+     * @param args The arguments
+     * @param input Sent to the daemon as standard input
+     * @param output Receives the standard output of the command
+     * @param error Receives the standard error of the command
+     * @return The exit status of the command
+     * @throws IOException if the daemon can't be reached, or closes the connection early
+     */
+    public static int run(Path socket, String[] args, InputStream input,
+                          OutputStream output, OutputStream error) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+
+            // Send the request
+            final DataOutputStream request = new DataOutputStream(new BufferedOutputStream(new ChannelOutput(channel)));
+            request.writeInt(PROTOCOL_VERSION);
+            request.writeInt(args.length);
+            for (String arg : args) {
+                writeString(request, arg);
+            }
+            writeString(request, Paths.get("").toAbsolutePath().toString());
+            Map<String,String> environment = System.getenv();
+            request.writeInt(environment.size());
+            for (Map.Entry<String,String> variable : environment.entrySet()) {
+                writeString(request, variable.getKey());
+                writeString(request, variable.getValue());
+            }
+            request.flush();
+
+            // Send the standard input as the command reads it. The command
+            // may never read it, so this mustn't keep the client running
+            Thread sender = new Thread(() -> sendInput(input, request), "cmdline-daemon-input");
+            sender.setDaemon(true);
+            sender.start();
+
+            // Copy the output until the exit status arrives
+            DataInputStream response = new DataInputStream(new BufferedInputStream(new ChannelInput(channel)));
+            byte[] buffer = new byte[BLOCK_SIZE];
+            while (true) {
+                int type = response.readUnsignedByte();
+                if (type == EXIT) {
+                    return response.readInt();
+                }
+                int length = response.readInt();
+                response.readFully(buffer, 0, length);
+                OutputStream target = type == ERROR ? error : output;
+                target.write(buffer, 0, length);
+                target.flush();
+            }
+        }
+    }
+
+
+    private static void sendInput(InputStream input, DataOutputStream request) {
+        byte[] buffer = new byte[BLOCK_SIZE];
+        try {
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                request.writeInt(count);
+                request.write(buffer, 0, count);
+                request.flush();
+            }
+            request.writeInt(0);
+            request.flush();
+        } catch (IOException e) {
+
+            // The command has finished, and the connection is closed
+        }
+    }
+}
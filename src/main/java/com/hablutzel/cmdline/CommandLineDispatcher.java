@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.cli.Options;
+
+/**
+ * Interface implemented by the dispatchers generated by the
+ * command line annotation processor. A generated dispatcher
+ * does the same work as the reflective configuration in
+ * {@link CommandLineApplication}, but with the options built
+ * directly and the annotated methods called directly, so no
+ * scanning or reflective invocation is needed at run time.
+ *
+ * The dispatcher for an application class is named by appending
+ * {@link #GENERATED_SUFFIX} to the binary name of that class,
+ * and is located by {@link CommandLineApplication#parseAndRun(String[])}
+ * when it is on the classpath.
+ *
+ * @param <T> The application class the dispatcher was generated for
+ */
+public interface CommandLineDispatcher<T extends CommandLineApplication> {
+
+    /**
+     * The suffix appended to the application class name to
+     * get the name of the generated dispatcher class
+     */
+    String GENERATED_SUFFIX = "_CommandLineDispatcher";
+
+
+    /**
+     * Get the commons-cli options built for the application class.
+     * These are used both for parsing and for the usage text.
+     *
+     * @return The options for the application
+     */
+    Options getOptions();
+
+
+    /**
+     * Parse the command line, call the option methods for the
+     * options that are present, and then call the main method
+     * unless one of the option methods returned false.
+     *
+     * @param application The application instance to call
+     * @param args The arguments passed into main()
+     * @throws CommandLineException
+     */
+    void parseAndRun(T application, String[] args) throws CommandLineException;
+}
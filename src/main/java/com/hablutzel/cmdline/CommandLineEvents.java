@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.hablutzel.cmdline;
+
+import jdk.jfr.*;
+
+/**
+ * The JDK Flight Recorder events for the phases of running a command
+ * line. They are recorded only when a recording has them enabled, for
+ * example with
+ *
+ *     java -XX:StartFlightRecording:filename=tool.jfr ...
+ *
+ * and can then be found in JDK Mission Control, or with
+ * jfr print --categories "Command Line" tool.jfr
+ *
+ * The events are only created once the recorder has been started,
+ * so that runs without a recording don't pay to load it. Nothing in
+ * this class is used until {@link CommandLinePhase#isRecorderActive()}
+ * has found the jdk.jfr module and a started recorder.
+ */
+final class CommandLineEvents {
+
+    private CommandLineEvents() {
+    }
+
+
+    /**
+     * @return True if the flight recorder has been started. Until then
+     * no events are created: loading the first event class brings in
+     * much of the recorder, which would slow down every start up.
+     */
+    static boolean isActive() {
+        return FlightRecorder.isInitialized();
+    }
+
+
+    /**
+     * Create and begin the event for a phase
+     *
+     * @param phase The phase
+     * @return The event
+     */
+    static Object begin(CommandLinePhase phase) {
+        Event event;
+        switch (phase.kind) {
+            case Configure:
+                event = new ConfigureEvent();
+                break;
+            case Parse:
+                event = new ParseEvent();
+                break;
+            case Option:
+                event = new OptionEvent();
+                break;
+            case Main:
+                event = new MainEvent();
+                break;
+            default:
+                throw new IllegalStateException("Unknown phase " + phase.kind);
+        }
+        event.begin();
+        return event;
+    }
+
+
+    /**
+     * End the event for a phase, and commit it if the recording wants it
+     *
+     * @param begun The event returned by {@link #begin(CommandLinePhase)}
+     * @param phase The phase
+     * @param failure What the phase threw, or null
+     */
+    static void end(Object begun, CommandLinePhase phase, Throwable failure) {
+        Event event = (Event) begun;
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        if (event instanceof ConfigureEvent) {
+            ConfigureEvent configure = (ConfigureEvent) event;
+            configure.applicationClass = phase.applicationClass;
+            configure.optionCount = phase.count;
+        } else if (event instanceof ParseEvent) {
+            ParseEvent parse = (ParseEvent) event;
+            parse.applicationClass = phase.applicationClass;
+            parse.parser = phase.name;
+            parse.argumentCount = phase.count;
+            parse.succeeded = failure == null;
+        } else if (event instanceof OptionEvent) {
+            OptionEvent option = (OptionEvent) event;
+            option.applicationClass = phase.applicationClass;
+            option.option = phase.name;
+            option.methodType = phase.methodType;
+            option.valueCount = phase.count;
+            option.succeeded = failure == null;
+        } else {
+            MainEvent main = (MainEvent) event;
+            main.applicationClass = phase.applicationClass;
+            main.methodType = phase.methodType;
+            main.argumentCount = phase.count;
+            main.succeeded = failure == null;
+        }
+        event.commit();
+    }
+
+
+    @Name("com.hablutzel.cmdline.Configure")
+    @Label("Configure Application Class")
+    @Description("Scanning an application class for its options and main method")
+    @Category("Command Line")
+    static final class ConfigureEvent extends Event {
+
+        @Label("Application Class")
+        Class<?> applicationClass;
+
+        @Label("Option Count")
+        int optionCount;
+    }
+
+
+    @Name("com.hablutzel.cmdline.ConverterLookup")
+    @Label("Converter Lookup")
+    @Description("Looking up the beanutils converter for a parameter type, while configuring a class")
+    @Category("Command Line")
+    static final class ConverterLookupEvent extends Event {
+
+        @Label("Element Type")
+        Class<?> elementType;
+
+        @Label("Found")
+        boolean found;
+    }
+
+
+    @Name("com.hablutzel.cmdline.Parse")
+    @Label("Parse Command Line")
+    @Description("Splitting the arguments into options, option values and main arguments")
+    @Category("Command Line")
+    static final class ParseEvent extends Event {
+
+        @Label("Application Class")
+        Class<?> applicationClass;
+
+        @Label("Parser")
+        String parser;
+
+        @Label("Argument Count")
+        int argumentCount;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+
+    @Name("com.hablutzel.cmdline.Option")
+    @Label("Option Method")
+    @Description("Converting the values of an option and calling its method")
+    @Category("Command Line")
+    static final class OptionEvent extends Event {
+
+        @Label("Application Class")
+        Class<?> applicationClass;
+
+        @Label("Option")
+        String option;
+
+        @Label("Method Type")
+        String methodType;
+
+        @Label("Value Count")
+        int valueCount;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+
+    @Name("com.hablutzel.cmdline.Main")
+    @Label("Main Method")
+    @Description("Converting the main arguments and calling the main method")
+    @Category("Command Line")
+    static final class MainEvent extends Event {
+
+        @Label("Application Class")
+        Class<?> applicationClass;
+
+        @Label("Method Type")
+        String methodType;
+
+        @Label("Argument Count")
+        int argumentCount;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+}
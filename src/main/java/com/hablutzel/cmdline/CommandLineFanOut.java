@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Calls a main method taking a single value for many values at the same
+ * time, for main methods that ask for it with {@link CommandLineMain#concurrency()}.
+ *
+ * No more than the given number of calls are running at once. When the
+ * output is kept in order, each call writes to streams of its own, which
+ * are written out once it and every call before it have finished; calls
+ * are then also kept from getting too far ahead of the oldest unfinished
+ * one, so the output held back stays bounded.
+ */
+final class CommandLineFanOut {
+
+    private final CommandLineMethodHelper mainHelper;
+    private final Object target;
+    private final int concurrency;
+    private final boolean orderedOutput;
+    private final boolean continueAfterFailure;
+    private final Executor executor;
+
+    // The context the calls run in: that of the caller, or
+    // null when the caller is not running a request
+    private final CommandLineContext parent = CommandLineContext.current.get();
+    private final CommandLineContext caller = CommandLineContext.current();
+
+    // Calls queue themselves here when they finish
+    private final BlockingQueue<Call> finished = new LinkedBlockingQueue<>();
+
+
+    CommandLineFanOut(CommandLineMethodHelper mainHelper, Object target, int concurrency,
+                      boolean orderedOutput, boolean continueAfterFailure, Executor executor) {
+        this.mainHelper = mainHelper;
+        this.target = target;
+        this.concurrency = concurrency;
+        this.orderedOutput = orderedOutput;
+        this.continueAfterFailure = continueAfterFailure;
+        this.executor = executor;
+    }
+
+
+    /**
+     * Call the main method once for each value
+     *
+     * @param values The values
+     * @throws CommandLineException if any of the calls fail
+     */
+    void invoke(String[] values) throws CommandLineException {
+        if (orderedOutput) {
+            CommandLineContext.routeStandardStreams();
+        }
+        Call[] calls = new Call[values.length];
+        List<Throwable> failures = new ArrayList<>();
+        int next = 0;
+        int running = 0;
+        int written = 0;
+        boolean stopped = false;
+        try {
+            while (true) {
+                while (!stopped && next < values.length && running < concurrency
+                        && (!orderedOutput || next - written < 2 * concurrency)) {
+                    calls[next] = new Call(values[next]);
+                    executor.execute(calls[next++]);
+                    ++running;
+                }
+                if (running == 0) {
+                    break;
+                }
+                Call call = finished.take();
+                --running;
+                if (call.failure != null && !call.cancelled) {
+                    failures.add(call.failure);
+                    if (!continueAfterFailure && !stopped) {
+                        stopped = true;
+                        cancel(calls, written, next);
+                    }
+                }
+
+                // Write out the output of the calls that are finished, up
+                // to the first that isn't; after a failure, anything left
+                // is written once the calls still running have stopped.
+                // A call is dropped once written, so its output buffers
+                // can be collected however many values there are
+                while (written < next && calls[written].done) {
+                    calls[written].writeOutput();
+                    calls[written++] = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(calls, written, next);
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while running the main method", e);
+        }
+
+        if (failures.size() == 1) {
+            rethrow(failures.get(0));
+        }
+        if (!failures.isEmpty()) {
+            CommandLineException exception = new CommandLineException(failures.size() + " calls of the main method failed",
+                    failures.get(0));
+            for (Throwable failure : failures.subList(1, failures.size())) {
+                exception.addSuppressed(failure);
+            }
+            throw exception;
+        }
+    }
+
+
+    /**
+     * Cancel the calls that have been started and not yet written out;
+     * those before them have finished
+     */
+    private static void cancel(Call[] calls, int written, int started) {
+        for (int i = written; i < started; ++i) {
+            calls[i].cancel();
+        }
+    }
+
+
+    private static void rethrow(Throwable failure) throws CommandLineException {
+        if (failure instanceof CommandLineException) {
+            throw (CommandLineException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else {
+            throw (Error) failure;
+        }
+    }
+
+
+    /**
+     * One call of the main method
+     */
+    private final class Call implements Runnable {
+
+        private final String value;
+        private final ByteArrayOutputStream output;
+        private final ByteArrayOutputStream error;
+
+        // The thread running the call, while it runs
+        private Thread thread;
+        private boolean finishing;
+        private boolean cancelled;
+
+        // Set before the call is queued as finished
+        private volatile boolean done;
+        private Throwable failure;
+
+        Call(String value) {
+            this.value = value;
+            this.output = orderedOutput ? new ByteArrayOutputStream() : null;
+            this.error = orderedOutput ? new ByteArrayOutputStream() : null;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    finish();
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+
+            // The call runs in the context of the caller, or in one
+            // like it that captures the output
+            CommandLineContext context = parent;
+            if (orderedOutput) {
+                context = new CommandLineContext(caller.getWorkingDirectory(), caller.getEnvironment(),
+                        new ByteArrayInputStream(new byte[0]), new PrintStream(output, true), new PrintStream(error, true));
+            }
+            CommandLineContext previous = CommandLineContext.current.get();
+            CommandLineContext.current.set(context);
+            try {
+                mainHelper.invokeMethod(target, new String[] { value });
+            } catch (CommandLineException | RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                CommandLineContext.current.set(previous);
+                if (orderedOutput && context.getExitStatus() != 0) {
+                    caller.setExitStatus(context.getExitStatus());
+                }
+                synchronized (this) {
+                    thread = null;
+                    finishing = true;
+
+                    // Don't leave the executor's thread interrupted
+                    Thread.interrupted();
+                }
+                finish();
+            }
+        }
+
+        /**
+         * Cancel the call, unless it has already finished; a failure
+         * of a call that is cancelled is not reported
+         */
+        synchronized void cancel() {
+            if (!finishing) {
+                cancelled = true;
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+        }
+
+        private void finish() {
+            done = true;
+            finished.add(this);
+        }
+
+        void writeOutput() {
+            if (orderedOutput) {
+                caller.getOutput().write(output.toByteArray(), 0, output.size());
+                caller.getOutput().flush();
+                caller.getError().write(error.toByteArray(), 0, error.size());
+                caller.getError().flush();
+            }
+        }
+    }
+}
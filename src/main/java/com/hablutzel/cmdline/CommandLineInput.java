@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the values for a main method from the standard input,
+ * for main methods that ask for it with {@link CommandLineMain#input()}.
+ *
+ * The input is read and split on a thread of its own, into chunks
+ * that are queued for the main method. The queue holds only a couple
+ * of chunks; when it is full the reader waits, the pipe fills, and
+ * whatever is writing the input waits in turn. However long the input,
+ * only a few chunks are held at once.
+ */
+final class CommandLineInput {
+
+    /**
+     * The number of chunks that can be read ahead of the main method
+     */
+    private static final int READ_AHEAD = 2;
+
+    // Queued after the last chunk
+    private static final Object END = new Object();
+
+
+    /**
+     * Takes each chunk of values from the input
+     */
+    interface ChunkConsumer {
+        void accept(String[] values) throws CommandLineException;
+    }
+
+
+    private CommandLineInput() {
+    }
+
+
+    /**
+     * Pass each chunk of values on the input to the main method. If the
+     * input is empty, the main method is called once with no values, as
+     * it would be for a command line without arguments.
+     *
+     * @param input The input to read
+     * @param format How the values are separated
+     * @param chunkSize The number of values for each call
+     * @param main Calls the main method for a chunk
+     * @return The number of values read
+     * @throws CommandLineException if the input can't be read or the main method fails
+     */
+    static int read(InputStream input, CommandLineMain.Input format, int chunkSize,
+                    ChunkConsumer main) throws CommandLineException {
+        BlockingQueue<Object> chunks = new ArrayBlockingQueue<>(READ_AHEAD);
+        char delimiter = format == CommandLineMain.Input.NulTerminated ? '\0' : '\n';
+        Thread reader = new Thread(() -> read(input, delimiter, chunkSize, chunks), "cmdline-input");
+        reader.setDaemon(true);
+        reader.start();
+        int count = 0;
+        try {
+            for (Object chunk = take(chunks); chunk != END; chunk = take(chunks)) {
+                if (chunk instanceof Error) {
+                    throw (Error) chunk;
+                }
+                if (chunk instanceof Throwable) {
+                    throw new CommandLineException("Unable to read the standard input", (Throwable) chunk);
+                }
+                String[] values = (String[]) chunk;
+                count += values.length;
+                main.accept(values);
+            }
+            if (count == 0) {
+                main.accept(new String[0]);
+            }
+        } finally {
+
+            // Stops the reader if the main method failed part way. A reader
+            // blocked reading the input stops when the input is closed.
+            reader.interrupt();
+        }
+        return count;
+    }
+
+
+    private static Object take(BlockingQueue<Object> chunks) throws CommandLineException {
+        try {
+            return chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while reading the standard input", e);
+        }
+    }
+
+
+    /**
+     * Read the input, queueing the values in chunks, then the end marker.
+     * A read failure is queued in place of the next chunk, whatever the
+     * input throws, so that the main method is never left waiting.
+     */
+    private static void read(InputStream input, char delimiter, int chunkSize, BlockingQueue<Object> chunks) {
+        try {
+            Chunker chunker = new Chunker(delimiter, chunkSize, chunks);
+            try {
+                Reader reader = new InputStreamReader(input, Charset.defaultCharset());
+                char[] buffer = new char[8192];
+                for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+                    chunker.accept(buffer, read);
+                }
+                chunker.finish();
+                chunks.put(END);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable e) {
+                chunks.put(e);
+            }
+        } catch (InterruptedException e) {
+
+            // The main method has stopped taking values
+        }
+    }
+
+
+    /**
+     * Splits the characters read into values, and the values into chunks.
+     * Empty values are dropped: a blank line, or two NULs in a row, give
+     * no value, and neither does the end of an input that ends with its
+     * delimiter.
+     */
+    private static final class Chunker {
+
+        private final char delimiter;
+        private final BlockingQueue<Object> chunks;
+        private final StringBuilder value = new StringBuilder();
+        private String[] chunk;
+        private int size;
+
+        Chunker(char delimiter, int chunkSize, BlockingQueue<Object> chunks) {
+            this.delimiter = delimiter;
+            this.chunks = chunks;
+            this.chunk = new String[chunkSize];
+        }
+
+        void accept(char[] buffer, int length) throws InterruptedException {
+            int start = 0;
+            for (int i = 0; i < length; ++i) {
+                if (buffer[i] == delimiter) {
+                    value.append(buffer, start, i - start);
+                    endValue();
+                    start = i + 1;
+                }
+            }
+            value.append(buffer, start, length - start);
+        }
+
+        void finish() throws InterruptedException {
+            endValue();
+            if (size != 0) {
+                chunks.put(Arrays.copyOf(chunk, size));
+            }
+        }
+
+        private void endValue() throws InterruptedException {
+            int length = value.length();
+            if (delimiter == '\n' && length != 0 && value.charAt(length - 1) == '\r') {
+                --length;
+            }
+            if (length != 0) {
+                chunk[size++] = value.substring(0, length);
+                if (size == chunk.length) {
+                    chunks.put(chunk);
+                    chunk = new String[chunk.length];
+                    size = 0;
+                }
+            }
+            value.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.cli.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A parser and dispatcher for one application class, which can be
+ * shared by any number of threads.
+ *
+ * Where {@link CommandLineApplication#parseAndRun(String[])} parses and
+ * runs in one step against its own instance, the interpreter separates
+ * the two: {@link #parse(String...)} turns the arguments into an immutable
+ * {@link ParsedCommandLine}, and {@link #dispatch(CommandLineApplication, ParsedCommandLine)}
+ * calls the option and main methods for that command line on a given
+ * instance.
+ *
+ * The interpreter holds nothing but the class metadata, which is not
+ * changed once it is built, and each call keeps its working state in
+ * local variables. One interpreter can therefore serve all threads
+ * without locks. The option and main methods are of course called on
+ * the target instance, so concurrent dispatches should use separate
+ * instances unless the application is itself thread safe.
+ *
+ * @param <T> The application class
+ */
+public final class CommandLineInterpreter<T extends CommandLineApplication> {
+
+    private final Class<T> applicationClass;
+    final CommandLineMetadata metadata;
+
+
+    private CommandLineInterpreter(Class<T> applicationClass, CommandLineMetadata metadata) {
+        this.applicationClass = applicationClass;
+        this.metadata = metadata;
+    }
+
+
+    /**
+     * Get an interpreter for an application class. The class is
+     * configured the first time it is used; after that this only
+     * wraps the cached configuration.
+     *
+     * @param applicationClass The application class
+     * @return An interpreter for the class
+     * @throws CommandLineException if the class is not correctly annotated
+     */
+    public static <T extends CommandLineApplication> CommandLineInterpreter<T> forClass(Class<T> applicationClass) throws CommandLineException {
+        CommandLineMetadata metadata = CommandLineMetadata.forClass(applicationClass);
+
+        // Make sure there is a main helper
+        if (metadata.mainHelper == null) {
+            throw new CommandLineException("You must specify the main method with @CommandLineMain" );
+        }
+        return new CommandLineInterpreter<>(applicationClass, metadata);
+    }
+
+
+    /**
+     * Check every option method of the class, and find its converter.
+     * This is done when the class is configured, unless the class has
+     * lazy options, which are otherwise checked only when they are used;
+     * call this from a test to find a bad option method before a user does.
+     *
+     * @throws CommandLineException for the first option method that is not valid
+     */
+    public void validate() throws CommandLineException {
+        metadata.validate();
+    }
+
+
+    /**
+     * Parse a command line. No option or main methods are called.
+     *
+     * @param args The command line arguments
+     * @return The parsed command line
+     * @throws CommandLineException if the command line is not valid for the application
+     */
+    public ParsedCommandLine parse(String... args) throws CommandLineException {
+        CommandLinePhase phase = CommandLinePhase.parse(applicationClass,
+                metadata.nativeParser || metadata.argumentFiles && CommandLineArgumentFiles.hasArgumentFiles(args)
+                        ? "Native" : "CommonsCli", args.length);
+        Throwable failure = null;
+        try {
+            return parseArguments(args);
+        } catch (CommandLineException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (phase != null) {
+                phase.end(failure);
+            }
+        }
+    }
+
+
+    private ParsedCommandLine parseArguments(String[] args) throws CommandLineException {
+
+        // Replace any argument files by their contents. The library's own
+        // parser gives the same results as the DefaultParser, and reads the
+        // expanded arguments one at a time rather than needing them all
+        if (metadata.argumentFiles && CommandLineArgumentFiles.hasArgumentFiles(args)) {
+            try (CommandLineArgumentFiles.Expansion expansion = new CommandLineArgumentFiles.Expansion(args)) {
+                return metadata.tokenizer.parse(expansion);
+            } catch (CommandLineArgumentFiles.ReadFailure e) {
+                throw e.getCause();
+            }
+        }
+
+        // Use the library's own parser if the class asked for it
+        if (metadata.nativeParser) {
+            return metadata.tokenizer.parse(args);
+        }
+
+        // Parse the command line. The parser keeps its state in itself,
+        // so we need a new one each time, but it only reads the shared
+        // options: the values it finds are added to copies of them
+        CommandLine line;
+        try {
+            line = new DefaultParser().parse(metadata.options(), args);
+        } catch (ParseException e) {
+            throw new CommandLineException("Unable to parse command line", e);
+        }
+
+        // Find the positions of the options that were present. An option
+        // appears once for each time it was given, so skip repeats
+        Option[] found = line.getOptions();
+        int[] indexes = new int[found.length];
+        int count = 0;
+        for (Option option : found) {
+            int index = metadata.optionIndex(option.getOpt() == null ? option.getLongOpt() : option.getOpt());
+            if (!contains(indexes, count, index)) {
+                indexes[count++] = index;
+            }
+        }
+
+        // Call the options in the metadata order
+        Arrays.sort(indexes, 0, count);
+
+        // Gather the option values
+        Option[] options = new Option[count];
+        CommandLineMethodHelper[] helpers = new CommandLineMethodHelper[count];
+        String[][] values = new String[count][];
+        for (int i = 0; i < count; ++i) {
+            Option option = metadata.option(indexes[i]);
+            options[i] = option;
+            helpers[i] = metadata.optionHelper(indexes[i]);
+            if (option.hasArg()) {
+                values[i] = line.getOptionValues(option.getOpt() == null ? option.getLongOpt() : option.getOpt());
+            }
+        }
+
+        return new ParsedCommandLine(metadata, options, helpers, values, line.getArgs());
+    }
+
+
+    /**
+     * Call the option methods for a parsed command line, and then
+     * the main method unless one of the option methods returned false.
+     * If the class is configured to short circuit, an option method
+     * that returns false also stops the option methods after it.
+     *
+     * Option methods that return a CompletableFuture are started on the
+     * target's option executor, in turn with the other option methods,
+     * and are all waited for before the main method is called. If one
+     * of them fails, the others are cancelled and the failure is thrown
+     * at once, without waiting for the rest.
+     *
+     * @param target The application instance to call the methods on
+     * @param commandLine A command line parsed by this interpreter
+     * @throws CommandLineException if one of the methods fails
+     */
+    public void dispatch(T target, ParsedCommandLine commandLine) throws CommandLineException {
+        if (commandLine.metadata != metadata) {
+            throw new IllegalArgumentException("The command line was not parsed for " + applicationClass.getName());
+        }
+        if (!applicationClass.isInstance(target)) {
+            throw new IllegalArgumentException("The target is not an instance of " + applicationClass.getName());
+        }
+
+        // Assume we're continuing
+        boolean runMain = true;
+
+        // Call the methods for the options that were present. If the
+        // class asked for it, the first false stops the rest as well.
+        // Asynchronous methods are started, and waited for afterwards
+        List<CompletableFuture<Boolean>> started = null;
+        try {
+            for (int i = 0; i < commandLine.helpers.length; ++i) {
+                if (commandLine.helpers[i].async) {
+                    if (started == null) {
+                        started = new ArrayList<>();
+                    }
+                    started.add(startOption(target, commandLine, i));
+                } else if (!invokeOption(target, commandLine, i)) {
+                    runMain = false;
+                    if (metadata.shortCircuit) {
+                        break;
+                    }
+                }
+            }
+        } catch (CommandLineException | RuntimeException | Error e) {
+            cancel(started);
+            throw e;
+        }
+        if (started != null) {
+            if (!runMain && metadata.shortCircuit) {
+                cancel(started);
+            } else {
+                runMain = join(started) && runMain;
+            }
+        }
+
+        // Now call the main method with the remaining arguments
+        if (runMain) {
+            invokeMain(target, commandLine);
+        }
+    }
+
+
+    /**
+     * Call the method for one of the options in a command line,
+     * recording the call for the flight recorder and the metrics listeners
+     */
+    private boolean invokeOption(T target, ParsedCommandLine commandLine, int index) throws CommandLineException {
+        CommandLinePhase phase = beginOption(commandLine, index);
+        Throwable failure = null;
+        try {
+            return commandLine.helpers[index].invokeMethod(target, commandLine.values[index]);
+        } catch (CommandLineException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (phase != null) {
+                phase.end(failure);
+            }
+        }
+    }
+
+
+    /**
+     * Start the asynchronous method for one of the options in a command
+     * line. The call is recorded when the method's futures complete.
+     */
+    private CompletableFuture<Boolean> startOption(T target, ParsedCommandLine commandLine, int index) {
+        final CommandLinePhase phase = beginOption(commandLine, index);
+        CompletableFuture<Boolean> result = commandLine.helpers[index].invokeAsync(target, commandLine.values[index],
+                target.getOptionExecutor());
+        if (phase != null) {
+            result.whenComplete((value, failure) -> phase.end(failure));
+        }
+        return result;
+    }
+
+
+    /**
+     * Begin the phase for calling the method of one of the options in
+     * a command line
+     *
+     * @return The phase, or null if no one is listening
+     */
+    private CommandLinePhase beginOption(ParsedCommandLine commandLine, int index) {
+        Option option = commandLine.options[index];
+        String[] values = commandLine.values[index];
+        return CommandLinePhase.option(applicationClass, option.getLongOpt() != null ? option.getLongOpt() : option.getOpt(),
+                commandLine.helpers[index].methodType.name(), values == null ? 0 : values.length);
+    }
+
+
+    /**
+     * Wait for the asynchronous option methods that were started. If one
+     * of them fails, or if it returns false and the class short circuits,
+     * the rest are cancelled and not waited for.
+     *
+     * @param started The results of the methods
+     * @return False if any of the methods returned false
+     * @throws CommandLineException if any of the methods failed
+     */
+    private boolean join(List<CompletableFuture<Boolean>> started) throws CommandLineException {
+        final CompletableFuture<Boolean> stopped = new CompletableFuture<>();
+        for (CompletableFuture<Boolean> future : started) {
+            future.whenComplete((value, failure) -> {
+                if (failure != null) {
+                    stopped.completeExceptionally(failure);
+                } else if (metadata.shortCircuit && Boolean.FALSE.equals(value)) {
+                    stopped.complete(false);
+                }
+            });
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(started.toArray(new CompletableFuture<?>[started.size()]));
+        try {
+            CompletableFuture.anyOf(all, stopped).get();
+        } catch (InterruptedException e) {
+            cancel(started);
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while waiting for the option methods", e);
+        } catch (ExecutionException e) {
+            cancel(started);
+            Throwable cause = e.getCause();
+            if (cause instanceof CommandLineException) {
+                throw (CommandLineException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CommandLineException("Unable to run the option methods", cause);
+        }
+        if (stopped.isDone()) {
+            cancel(started);
+            return false;
+        }
+        boolean result = true;
+        for (CompletableFuture<Boolean> future : started) {
+            result = future.join() && result;
+        }
+        return result;
+    }
+
+
+    /**
+     * Cancel the asynchronous option methods that were started
+     *
+     * @param started The results of the methods; may be null
+     */
+    private static void cancel(List<CompletableFuture<Boolean>> started) {
+        if (started != null) {
+            for (CompletableFuture<Boolean> future : started) {
+                future.cancel(true);
+            }
+        }
+    }
+
+
+    /**
+     * Call the main method, recording the call for the flight
+     * recorder and the metrics listeners
+     */
+    private void invokeMain(T target, ParsedCommandLine commandLine) throws CommandLineException {
+        CommandLinePhase phase = CommandLinePhase.main(applicationClass, metadata.mainHelper.methodType.name(),
+                commandLine.arguments.length);
+        Throwable failure = null;
+        try {
+
+            // With no arguments left, a main method can read its values from the standard input
+            if (metadata.mainInput != CommandLineMain.Input.Arguments && commandLine.arguments.length == 0) {
+                int argumentCount = CommandLineInput.read(CommandLineContext.current().getInput(),
+                        metadata.mainInput, metadata.mainChunkSize, values -> callMain(target, values));
+                if (phase != null) {
+                    phase.count = argumentCount;
+                }
+            } else {
+                callMain(target, commandLine.arguments);
+            }
+        } catch (CommandLineException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (phase != null) {
+                phase.end(failure);
+            }
+        }
+    }
+
+
+    /**
+     * Call the main method for some values, running the calls
+     * for each value at the same time if the method asks for that
+     */
+    private void callMain(T target, String[] values) throws CommandLineException {
+        if (metadata.mainConcurrency != 1 && values.length > 1) {
+            new CommandLineFanOut(metadata.mainHelper, target, metadata.mainConcurrency, metadata.mainOrderedOutput,
+                    metadata.mainContinueAfterFailure, target.getMainExecutor()).invoke(values);
+        } else {
+            metadata.mainHelper.invokeMethod(target, values);
+        }
+    }
+
+
+    /**
+     * Parse a command line and dispatch it to an instance
+     *
+     * @param target The application instance to call the methods on
+     * @param args The command line arguments
+     * @throws CommandLineException if the command line is not valid or one of the methods fails
+     */
+    public void run(T target, String... args) throws CommandLineException {
+        dispatch(target, parse(args));
+    }
+
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; ++i) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
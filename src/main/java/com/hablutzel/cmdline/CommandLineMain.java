@@ -39,4 +39,99 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD)
 public @interface CommandLineMain {
 
+    /**
+     * Where the values for the main method come from
+     */
+    enum Input {
+
+        /**
+         * The arguments left on the command line
+         */
+        Arguments,
+
+        /**
+         * The lines of the standard input, as written by ls or find.
+         * Lines may end with \n or \r\n, and blank lines are skipped,
+         * as xargs skips them.
+         */
+        Lines,
+
+        /**
+         * Values each ended by a NUL character on the standard input,
+         * as written by find -print0; these can hold any file name.
+         * Empty values, which can't name a file, are skipped.
+         */
+        NulTerminated
+    }
+
+    /**
+     * For a main method taking an array, determines whether
+     * a large number of arguments is converted in parallel.
+     * This is only worth doing for expensive converters. The
+     * arguments keep their order, and a conversion failure is
+     * reported just as it would be otherwise.
+     *
+     * @return
+     */
+    boolean parallelConversion() default false;
+
+    /**
+     * Determines whether the values name files that are mapped into
+     * memory, for main methods taking a MappedByteBuffer, a ByteBuffer,
+     * a CharSequence or a CommandLineMappedFile. See {@link CommandLineOption#mapFile()}.
+     *
+     * @return
+     */
+    boolean mapFile() default false;
+
+    /**
+     * Where the values for the main method come from. When this
+     * is not Arguments, and there are no arguments left on the command
+     * line, the values are read from the standard input as it arrives.
+     * The main method is then called once for each chunk of values,
+     * rather than once for all of them, so input of any length is
+     * processed with memory for a few chunks. Empty values are skipped.
+     *
+     * @return The source of the values
+     */
+    Input input() default Input.Arguments;
+
+    /**
+     * The number of values passed to each call of the main method
+     * when they are read from the standard input
+     *
+     * @return The number of values in a chunk
+     */
+    int chunkSize() default 1000;
+
+    /**
+     * For a main method taking a single value, the number of calls,
+     * each for one value, that run at the same time. They run on the
+     * main executor of the application; 0 runs one per processor. The
+     * method then has to be safe to call from several threads. By
+     * default the calls are made one after another.
+     *
+     * @return The number of calls that run at once
+     */
+    int concurrency() default 1;
+
+    /**
+     * When calls run at the same time, whether what each call writes
+     * to System.out and System.err is held back and written in the order
+     * of the values, rather than as it is written
+     *
+     * @return True to keep the output in order
+     */
+    boolean orderedOutput() default false;
+
+    /**
+     * When calls run at the same time, whether the rest still run after
+     * one fails. By default the first failure cancels the calls that
+     * are running and starts no more. Either way, every failure is
+     * reported; when there are several, the first is the cause of the
+     * exception thrown and the others are suppressed by it.
+     *
+     * @return True to run every call whatever fails
+     */
+    boolean continueAfterFailure() default false;
 }
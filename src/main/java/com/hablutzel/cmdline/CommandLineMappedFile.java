@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.hablutzel.cmdline;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file mapped into memory for a method that asks for it with the
+ * mapFile attribute of {@link CommandLineOption} or {@link CommandLineMain}.
+ *
+ * A buffer can hold at most 2GB, so a file of any size is mapped as a
+ * series of regions, each a read only buffer over the next part of the
+ * file. Only the last region is shorter than the others. The regions can
+ * be worked through in order, and single bytes read at any offset, without
+ * the file ever being on the heap.
+ */
+public final class CommandLineMappedFile {
+
+    /**
+     * The size of the regions files are mapped in
+     */
+    static final int REGION_SIZE = 1 << 30;
+
+    private final Path path;
+    private final long size;
+    private final int regionSize;
+    private final MappedByteBuffer[] regions;
+
+
+    private CommandLineMappedFile(Path path, long size, int regionSize, MappedByteBuffer[] regions) {
+        this.path = path;
+        this.size = size;
+        this.regionSize = regionSize;
+        this.regions = regions;
+    }
+
+
+    /**
+     * Map a file, in regions of the given size. The channel used to map
+     * the file is closed at once; the mapping stays valid until the
+     * regions are no longer used.
+     *
+     * @param path The file
+     * @param regionSize The size of the regions
+     * @return The mapped file
+     * @throws IOException if the file can't be opened or mapped
+     */
+    static CommandLineMappedFile map(Path path, int regionSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer[] regions = new MappedByteBuffer[(int) Math.max(1, (size + regionSize - 1) / regionSize)];
+            for (int i = 0; i < regions.length; ++i) {
+                long offset = (long) i * regionSize;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(regionSize, size - offset));
+            }
+            return new CommandLineMappedFile(path, size, regionSize, regions);
+        }
+    }
+
+
+    /**
+     * @return The file that was mapped
+     */
+    public Path getPath() {
+        return path;
+    }
+
+
+    /**
+     * @return The size of the file, in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+
+    /**
+     * @return The number of regions the file is mapped in. An empty
+     * file has a single, empty region.
+     */
+    public int getRegionCount() {
+        return regions.length;
+    }
+
+
+    /**
+     * Get a region of the file. Each call returns a new buffer over the
+     * region, with its own position and limit, so the regions can be
+     * read by several threads at once.
+     *
+     * @param index The index of the region
+     * @return The region, positioned at its start
+     */
+    public MappedByteBuffer getRegion(int index) {
+        return regions[index].duplicate();
+    }
+
+
+    /**
+     * @param index The index of a region
+     * @return The offset in the file of the start of the region
+     */
+    public long getRegionOffset(int index) {
+        if (index < 0 || index >= regions.length) {
+            throw new IndexOutOfBoundsException("region " + index + ", count " + regions.length);
+        }
+        return (long) index * regionSize;
+    }
+
+
+    /**
+     * Read a byte of the file
+     *
+     * @param offset The offset in the file
+     * @return The byte at that offset
+     */
+    public byte get(long offset) {
+        if (offset < 0 || offset >= size) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", size " + size);
+        }
+        return regions[(int) (offset / regionSize)].get((int) (offset % regionSize));
+    }
+}
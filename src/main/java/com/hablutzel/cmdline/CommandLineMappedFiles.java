@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.ConversionException;
+import org.apache.commons.beanutils.Converter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converters for the values of methods that ask for files to be mapped,
+ * with the mapFile attribute of {@link CommandLineOption} or {@link CommandLineMain}.
+ * The value is the name of a file, resolved against the working directory
+ * of the command line, and the method gets the contents of the file
+ * mapped into memory rather than read onto the heap.
+ *
+ * The file is mapped read only, and the channel used to map it is closed
+ * at once; the mapping stays valid until the buffer is no longer used.
+ * A buffer or a CharSequence can hold at most 2GB, so larger files have
+ * to be taken as a {@link CommandLineMappedFile}, which maps them in regions.
+ */
+final class CommandLineMappedFiles {
+
+    private static final Converter BUFFER_CONVERTER = new Converter() {
+        @Override
+        public <T> T convert(Class<T> type, Object value) {
+            return type.cast(map(value));
+        }
+    };
+
+    private static final Converter CHARACTER_CONVERTER = new Converter() {
+        @Override
+        public <T> T convert(Class<T> type, Object value) {
+            return type.cast(new MappedCharSequence(map(value)));
+        }
+    };
+
+    private static final Converter FILE_CONVERTER = new Converter() {
+        @Override
+        public <T> T convert(Class<T> type, Object value) {
+            return type.cast(mapRegions(value, CommandLineMappedFile.REGION_SIZE));
+        }
+    };
+
+
+    private CommandLineMappedFiles() {
+    }
+
+
+    /**
+     * Get the converter that maps files for a type
+     *
+     * @param type The type the method takes
+     * @return The converter, or null if files can't be mapped to the type
+     */
+    static Converter converterFor(Class<?> type) {
+        if (type == MappedByteBuffer.class || type == ByteBuffer.class) {
+            return BUFFER_CONVERTER;
+        } else if (type == CharSequence.class) {
+            return CHARACTER_CONVERTER;
+        } else if (type == CommandLineMappedFile.class) {
+            return FILE_CONVERTER;
+        } else {
+            return null;
+        }
+    }
+
+
+    private static MappedByteBuffer map(Object value) {
+        Path path = resolve(value);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ConversionException("The file " + path + " is too large to map to a single buffer, at "
+                        + size + " bytes; take a CommandLineMappedFile instead");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new ConversionException("Unable to map the file " + path, e);
+        }
+    }
+
+
+    /**
+     * Map the file named by a value in regions
+     *
+     * @param value The name of the file
+     * @param regionSize The size of the regions to map it in
+     * @return The mapped file
+     */
+    static CommandLineMappedFile mapRegions(Object value, int regionSize) {
+        Path path = resolve(value);
+        try {
+            return CommandLineMappedFile.map(path, regionSize);
+        } catch (IOException e) {
+            throw new ConversionException("Unable to map the file " + path, e);
+        }
+    }
+
+
+    private static Path resolve(Object value) {
+        if (value == null) {
+            throw new ConversionException("No file given to map");
+        }
+        return CommandLineContext.current().resolve(value.toString());
+    }
+
+
+    /**
+     * The characters of a mapped file, one for each byte, as in ISO-8859-1.
+     * This is exact for ASCII text, and needs no copy of the bytes; the
+     * characters can be searched with a regular expression, for example,
+     * without the file ever being on the heap. Only toString copies them.
+     */
+    private static final class MappedCharSequence implements CharSequence {
+
+        private final ByteBuffer bytes;
+
+        MappedCharSequence(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > bytes.limit() || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + bytes.limit());
+            }
+            ByteBuffer slice = bytes.duplicate();
+            slice.position(start).limit(end);
+            return new MappedCharSequence(slice.slice());
+        }
+
+        @Override
+        public String toString() {
+            return StandardCharsets.ISO_8859_1.decode(bytes.duplicate()).toString();
+        }
+    }
+}
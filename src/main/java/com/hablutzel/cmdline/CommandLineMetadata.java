@@ -0,0 +1,850 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import com.hablutzel.cmdline.CommandLineEvents.ConverterLookupEvent;
+import com.hablutzel.cmdline.CommandLineMethodHelper.MethodType;
+import org.apache.commons.beanutils.Converter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * The command line configuration of an application class: the
+ * commons-cli options and the helpers for the annotated methods.
+ *
+ * The metadata depends only on the class, so it is built once per
+ * class, the first time it is needed, and then shared by every
+ * instance of that class. Apart from the options and helpers of
+ * lazy options, which are filled in as they are needed, it is not
+ * changed after it is built, so it can be shared between threads.
+ * Note that this means the converters are resolved when the class is
+ * first configured; any custom converters should be registered with
+ * ConvertUtils, or with the {@link CommandLineConverters} for the
+ * class, before then.
+ */
+final class CommandLineMetadata {
+
+    /**
+     * Thrown out of the class value when a class can't be configured.
+     * The failure is not cached, so a later attempt will report it again.
+     */
+    private static final class ConfigurationFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ConfigurationFailure(CommandLineException cause) {
+            super(cause);
+        }
+    }
+
+
+    /**
+     * The metadata for each class that has been configured
+     */
+    private static final ClassValue<CommandLineMetadata> metadata = new ClassValue<CommandLineMetadata>() {
+        @Override
+        protected CommandLineMetadata computeValue(Class<?> type) {
+            CommandLinePhase phase = CommandLinePhase.configure(type);
+            CommandLineMetadata configured = null;
+            CommandLineException failure = null;
+            try {
+                configured = configure(type);
+                return configured;
+            } catch (CommandLineException e) {
+                failure = e;
+                throw new ConfigurationFailure(e);
+            } finally {
+                if (phase != null) {
+                    phase.count = configured == null ? 0 : configured.optionCount();
+                    phase.end(failure);
+                }
+            }
+        }
+    };
+
+
+    /**
+     * The option methods, with their annotations, their names and
+     * whether they take values, in the order given by the order
+     * attribute and then the method names. This is also the order
+     * in which the option methods are called.
+     */
+    private final Method[] optionMethods;
+    private final CommandLineOption[] optionAnnotations;
+    private final String[] shortNames;
+    private final String[] longNames;
+    private final boolean[] takesValues;
+
+    /**
+     * The commons-cli options and the helpers, in the same order, and
+     * the commons-cli options set for parsing and the usage text. For
+     * a class with lazy options, each of these is built the first time
+     * it is needed; building one twice is harmless, as none of them is
+     * changed once it is built.
+     */
+    private final AtomicReferenceArray<Option> optionList;
+    private final AtomicReferenceArray<CommandLineMethodHelper> optionHelpers;
+    private final AtomicReference<Options> options;
+
+    /**
+     * Map of the keys of the options, their short form or else their
+     * long form, to their position in the lists above
+     */
+    private final Map<String,Integer> optionIndexes;
+
+    /**
+     * Helper for the main command line method; null if there is none
+     */
+    final CommandLineMethodHelper mainHelper;
+
+    /**
+     * Where the values for the main method come from, and how
+     * many are passed to each call when they are read from the
+     * standard input
+     */
+    final CommandLineMain.Input mainInput;
+    final int mainChunkSize;
+
+    /**
+     * For a main method taking a single value, the number of calls
+     * that run at once, and how they run when that is more than one
+     */
+    final int mainConcurrency;
+    final boolean mainOrderedOutput;
+    final boolean mainContinueAfterFailure;
+
+    /**
+     * True if the library's own parser is used rather than the
+     * commons-cli one: when the class asks for it, and for a class with
+     * lazy options, as the commons-cli parser needs every option built
+     */
+    final boolean nativeParser;
+
+    /**
+     * The library's own parser, if it is used or the class expands
+     * argument files; otherwise null
+     */
+    final CommandLineTokenizer tokenizer;
+
+    /**
+     * True if @path arguments are replaced by the contents of the file
+     */
+    final boolean argumentFiles;
+
+    /**
+     * True if no more option methods are called once one returns false
+     */
+    final boolean shortCircuit;
+
+
+    private CommandLineMetadata(List<OptionMethod> optionMethods, Option[] optionList,
+                                CommandLineMethodHelper[] optionHelpers, Options options,
+                                CommandLineMethodHelper mainHelper, CommandLineMain main,
+                                CommandLineConfiguration configuration) {
+        int count = optionMethods.size();
+        this.optionMethods = new Method[count];
+        this.optionAnnotations = new CommandLineOption[count];
+        this.shortNames = new String[count];
+        this.longNames = new String[count];
+        this.takesValues = new boolean[count];
+        Map<String,Integer> optionIndexes = new HashMap<>();
+        for (int i = 0; i < count; ++i) {
+            OptionMethod optionMethod = optionMethods.get(i);
+            this.optionMethods[i] = optionMethod.method;
+            this.optionAnnotations[i] = optionMethod.annotation;
+            this.shortNames[i] = optionMethod.shortName;
+            this.longNames[i] = optionMethod.longName;
+            this.takesValues[i] = optionMethod.takesValues;
+            optionIndexes.put(optionMethod.shortName != null ? optionMethod.shortName : optionMethod.longName, i);
+        }
+        this.optionIndexes = Collections.unmodifiableMap(optionIndexes);
+        this.optionList = new AtomicReferenceArray<>(optionList);
+        this.optionHelpers = new AtomicReferenceArray<>(optionHelpers);
+        this.options = new AtomicReference<>(options);
+        this.mainHelper = mainHelper;
+        this.mainInput = main == null ? CommandLineMain.Input.Arguments : main.input();
+        this.mainChunkSize = main == null ? 0 : main.chunkSize();
+        this.mainConcurrency = main == null ? 1
+                : main.concurrency() == 0 ? Runtime.getRuntime().availableProcessors() : main.concurrency();
+        this.mainOrderedOutput = main != null && main.orderedOutput();
+        this.mainContinueAfterFailure = main != null && main.continueAfterFailure();
+
+        // The tokenizer is built from the option lists above. Argument files
+        // are always parsed with it, as the DefaultParser needs an array
+        this.nativeParser = configuration != null
+                && (configuration.parser() == CommandLineConfiguration.Parser.Native || configuration.lazyOptions());
+        this.argumentFiles = configuration != null && configuration.argumentFiles();
+        this.tokenizer = nativeParser || argumentFiles ? new CommandLineTokenizer(this) : null;
+        this.shortCircuit = configuration != null && configuration.shortCircuit();
+    }
+
+
+    /**
+     * An option method, with what is needed to order it and build its
+     * option, read from the annotation once. The option methods are
+     * called in the order of their order attribute and then their names.
+     */
+    private static final class OptionMethod implements Comparable<OptionMethod> {
+        final Method method;
+        final CommandLineOption annotation;
+        final int order;
+        final String name;
+        final String shortName;
+        final String longName;
+        boolean takesValues;
+
+        OptionMethod(Method method, CommandLineOption annotation) {
+            this.method = method;
+            this.annotation = annotation;
+            this.order = annotation.order();
+            this.name = method.getName();
+
+            // If both the short and long name are empty, then use the method name as the long name
+            String shortName = annotation.shortForm().equals("") ? null : annotation.shortForm();
+            String longName = annotation.longForm().equals("") ? null : annotation.longForm();
+            this.shortName = shortName;
+            this.longName = shortName == null && longName == null ? name : longName;
+        }
+
+        @Override
+        public int compareTo(OptionMethod other) {
+            return order != other.order ? Integer.compare(order, other.order) : name.compareTo(other.name);
+        }
+    }
+
+
+    /**
+     * Get the metadata for an application class, configuring
+     * the class if this is the first time it has been seen
+     *
+     * @param applicationClass The application class
+     * @return The metadata for the class
+     * @throws CommandLineException if the class is not correctly annotated
+     */
+    static CommandLineMetadata forClass(Class<?> applicationClass) throws CommandLineException {
+        try {
+            return metadata.get(applicationClass);
+        } catch (ConfigurationFailure e) {
+            throw (CommandLineException) e.getCause();
+        }
+    }
+
+
+    /**
+     * This method scans the class for annotations
+     * that denote the command line options and arguments,
+     * and configures the metadata so that the members that
+     * have been annotated in that way are set up for calling
+     * at command line processing time. This does not use or
+     * update the cache; it is only visible outside this class
+     * so that it can be benchmarked.
+     *
+     * @param applicationClass The class to scan
+     */
+    static CommandLineMetadata configure(Class<?> applicationClass) throws CommandLineException {
+
+        List<OptionMethod> optionMethods = new ArrayList<>();
+        CommandLineMethodHelper mainHelper = null;
+        CommandLineMain main = null;
+        CommandLineConfiguration configuration = applicationClass.getAnnotation(CommandLineConfiguration.class);
+        boolean lazyOptions = configuration != null && configuration.lazyOptions();
+
+        // Find the option methods and the main method in our subclass,
+        // reading the annotations of each method once
+        for (Method method: applicationClass.getDeclaredMethods()) {
+            CommandLineOption commandLineOption = method.getDeclaredAnnotation(CommandLineOption.class);
+            if (commandLineOption != null) {
+                optionMethods.add(new OptionMethod(method, commandLineOption));
+
+            // This was not a command line option method - is it the main command line method?
+            } else if (method.isAnnotationPresent(CommandLineMain.class)) {
+
+                // Make sure we only have one
+                if (mainHelper != null) {
+                    throw new CommandLineException( "Cannot have two main methods specified" );
+                } else {
+                    mainHelper = getHelperForCommandLineMain(method);
+                    main = method.getDeclaredAnnotation(CommandLineMain.class);
+                }
+            }
+        }
+
+        // The methods are returned in no particular order, so sort the
+        // option methods into the order they are to be called in
+        Collections.sort(optionMethods);
+
+        Option[] optionList = new Option[optionMethods.size()];
+        CommandLineMethodHelper[] optionHelpers = new CommandLineMethodHelper[optionMethods.size()];
+        for (int i = 0; i < optionList.length; ++i) {
+            OptionMethod optionMethod = optionMethods.get(i);
+
+            // The signature of the method determines what kind of command line
+            // option is allowed. Basically, if the method does not take an argument,
+            // then the option does not take arguments either. In this case, the
+            // method is just called when the option is present.
+            //
+            // If the method does take argument, there are restrictions on the arguments
+            // that are allowed. If there is a single argument, then the method will be
+            // called for each argument supplied to the option. Generally in this case you
+            // want the maximum number of option arguments to be 1, and you are just getting
+            // the value of the argument. On the other hand, if the single argument is either
+            // and array or a List<>, then the arguments will be passed in as an argument
+            // or list respectively.
+            //
+            // Methods with more than 1 argument are not allowed. Methods with return types
+            // other than boolean are not allowed. Methods that throw an exception other than
+            // org.apache.commons.cli.CommandLineException are not allowed,
+            //
+            // If the method returns a boolean, and calling that method returns FALSE, then the
+            // command line main function will not be called.
+            //
+            // The class of the argument has to be convertable using common-beanutils
+            // conversion facilities. With lazy options, all of this, and building the
+            // commons-cli option, is left until the option is needed, and only the
+            // number of parameters is needed now
+            if (lazyOptions) {
+                optionMethod.takesValues = optionMethod.method.getParameterCount() != 0;
+            } else {
+                CommandLineMethodHelper helper = getHelperForCommandOption(optionMethod.method, optionMethod.annotation);
+                optionMethod.takesValues = helper.methodType != MethodType.Boolean;
+                optionHelpers[i] = helper;
+                optionList[i] = newOption(optionMethod.shortName, optionMethod.longName, optionMethod.takesValues,
+                        optionMethod.annotation, helper);
+            }
+        }
+
+        // Without lazy options, the commons-cli options set is built now too
+        Options options = null;
+        if (!lazyOptions) {
+            options = new Options();
+            for (Option option : optionList) {
+                options.addOption(option);
+            }
+        }
+
+        return new CommandLineMetadata(optionMethods, optionList, optionHelpers, options, mainHelper, main, configuration);
+    }
+
+
+    /**
+     * Create and configure a commons-cli option based on what the method
+     * is capable of handling and the command line option parameters
+     *
+     * @param shortName The short form, or null
+     * @param longName The long form, or null
+     * @param takesValues True if the option takes values
+     * @param commandLineOption The annotation of the option method
+     * @param helper The helper for the method, or null if it hasn't been built
+     * @return The option
+     */
+    private static Option newOption(String shortName, String longName, boolean takesValues,
+                                    CommandLineOption commandLineOption, CommandLineMethodHelper helper) {
+        Option option = new Option( shortName, longName, takesValues, commandLineOption.usage() );
+        option.setRequired(commandLineOption.required());
+        if (option.hasArg()) {
+            if (helper != null) {
+                option.setType(helper.elementType);
+            }
+            option.setArgs(commandLineOption.maximumArgumentCount());
+            option.setValueSeparator(commandLineOption.argumentSeparator());
+            option.setOptionalArg(commandLineOption.optionalArgument());
+        }
+        return option;
+    }
+
+
+    /**
+     * @return The number of options
+     */
+    int optionCount() {
+        return optionMethods.length;
+    }
+
+
+    /**
+     * Get an option, building it if the class has lazy options
+     * and this is the first time it is needed
+     *
+     * @param index The position of the option in the option list
+     * @return The option
+     */
+    Option option(int index) {
+        Option option = optionList.get(index);
+        if (option == null) {
+            optionList.compareAndSet(index, null, newOption(shortNames[index], longNames[index],
+                    takesValues[index], optionAnnotations[index], null));
+            option = optionList.get(index);
+        }
+        return option;
+    }
+
+
+    /**
+     * @return All the options, in the order their methods are called
+     */
+    Option[] optionList() {
+        Option[] all = new Option[optionMethods.length];
+        for (int i = 0; i < all.length; ++i) {
+            all[i] = option(i);
+        }
+        return all;
+    }
+
+
+    /**
+     * Get the commons-cli options set, for the DefaultParser and the
+     * usage text, building it if the class has lazy options and this
+     * is the first time it is needed
+     *
+     * @return The options. These are not modified once they are built.
+     */
+    Options options() {
+        Options built = options.get();
+        if (built == null) {
+            built = new Options();
+            for (int i = 0; i < optionMethods.length; ++i) {
+                built.addOption(option(i));
+            }
+            options.compareAndSet(null, built);
+            built = options.get();
+        }
+        return built;
+    }
+
+
+    /**
+     * Find an option by its key: its short form, or else its long form.
+     * The options found by the parser are copies of ours, with the same keys.
+     *
+     * @param key The key of the option
+     * @return The position of the option in the option list, or -1
+     */
+    int optionIndex(String key) {
+        Integer index = optionIndexes.get(key);
+        return index == null ? -1 : index;
+    }
+
+
+    /**
+     * The settings of an option, from its annotation, which the library's
+     * own parser reads without building the commons-cli option
+     *
+     * @param index The position of the option in the option list
+     */
+    String shortName(int index) {
+        return shortNames[index];
+    }
+
+    String longName(int index) {
+        return longNames[index];
+    }
+
+    boolean takesValues(int index) {
+        return takesValues[index];
+    }
+
+    CommandLineOption optionAnnotation(int index) {
+        return optionAnnotations[index];
+    }
+
+
+    /**
+     * Get the helper for an option, building it if the class has
+     * lazy options and this is the first time it is needed
+     *
+     * @param index The position of the option in the option list
+     * @return The helper
+     * @throws CommandLineException if the option method is not valid
+     */
+    CommandLineMethodHelper optionHelper(int index) throws CommandLineException {
+        CommandLineMethodHelper helper = optionHelpers.get(index);
+        if (helper == null) {
+            optionHelpers.compareAndSet(index, null,
+                    getHelperForCommandOption(optionMethods[index], optionAnnotations[index]));
+            helper = optionHelpers.get(index);
+        }
+        return helper;
+    }
+
+
+    /**
+     * Build the helpers for all the options, checking every option method
+     *
+     * @throws CommandLineException for the first option method that is not valid
+     */
+    void validate() throws CommandLineException {
+        for (int i = 0; i < optionMethods.length; ++i) {
+            optionHelper(i);
+        }
+    }
+
+    /**
+     * Validate a Method to be a main command line application method.
+     *
+     * Methods with more than 1 argument are not allowed. Methods with return types
+     * are not allowed. Methods that throw an exception other than
+     * org.apache.commons.cli.CommandLineException are not allowed,
+     *
+     * @param method the method to validate
+     * @return A new method helper for the method
+     */
+    private static CommandLineMethodHelper getHelperForCommandLineMain(Method method) throws CommandLineException {
+
+        // Validate that the return type is a void
+        if (!method.getReturnType().equals(Void.TYPE)) {
+            throw new CommandLineException("For method " + method.getName() + ", the return type is not void");
+        }
+
+        // Validate the exceptions throws by the method
+        for (Class<?> clazz : method.getExceptionTypes()) {
+            if (!clazz.equals(CommandLineException.class)) {
+                throw new CommandLineException("For method " + method.getName() + ", there is an invalid exception class " + clazz.getName());
+            }
+        }
+
+        // In order to get ready to create the configuration instance,
+        // we will need to know the command line option type
+        // and the element type.
+        Class<?> elementClass;
+        MethodType methodType;
+        Converter converter;
+
+        // Get the parameters of the method. We'll use these to
+        // determine what type of option we have - scalar, boolean, etc.
+        Class<?> parameterClasses[] = method.getParameterTypes();
+
+        // See what the length tells us
+        switch (parameterClasses.length) {
+            case 0:
+                throw new CommandLineException("Main command line method must take arguments" );
+            case 1: {
+
+                // For a method with one argument, we have to look
+                // more closely at the argument. It has to be a simple
+                // scalar object, an array, a list, a primitive stream,
+                // or a stream, iterator, iterable or supplier of objects.
+                Class<?> parameterClass = parameterClasses[0];
+                if (parameterClass.isArray()) {
+
+                    // For an array, we get the element class based on the
+                    // underlying component type
+                    methodType = MethodType.Array;
+                    elementClass = parameterClass.getComponentType();
+                } else if (List.class.isAssignableFrom(parameterClass)) {
+
+                    // For a list, we get the element class from the type
+                    // argument of the parameter
+                    methodType = MethodType.List;
+                    elementClass = getTypeArgument(method);
+                } else if (getStreamElementClass(parameterClass) != null) {
+
+                    // For a primitive stream, the element class is the
+                    // primitive that it streams
+                    methodType = MethodType.PrimitiveStream;
+                    elementClass = getStreamElementClass(parameterClass);
+                } else if (parameterClass == Supplier.class) {
+
+                    // For a supplier, each value is converted when the
+                    // method asks for it. We get the element class from
+                    // the type argument of the parameter.
+                    methodType = MethodType.Supplier;
+                    elementClass = getTypeArgument(method);
+                } else if (parameterClass == Stream.class || parameterClass == Iterator.class || parameterClass == Iterable.class) {
+
+                    // For a stream, iterator or iterable, the values are
+                    // converted as the method reads them. We get the element
+                    // class from the type argument of the parameter.
+                    methodType = parameterClass == Stream.class ? MethodType.Stream
+                            : parameterClass == Iterator.class ? MethodType.Iterator
+                            : MethodType.Iterable;
+                    elementClass = getTypeArgument(method);
+                } else {
+
+                    // For a scalar, we get the element type from the
+                    // type of the parameter.
+                    methodType = MethodType.Scalar;
+                    elementClass = parameterClass;
+                }
+
+                // Now that we have the element type, make sure it's convertable
+                converter = getConverter(method, elementClass, method.getDeclaredAnnotation(CommandLineMain.class).mapFile());
+                break;
+            }
+            default: {
+
+                // Other method types not allowed.
+                throw new CommandLineException("Method " + method.getName() + " has too many arguments");
+            }
+        }
+
+        // Now we can return the configuration for this method
+        CommandLineMain commandLineMain = method.getDeclaredAnnotation(CommandLineMain.class);
+        if (commandLineMain.input() != CommandLineMain.Input.Arguments && commandLineMain.chunkSize() < 1) {
+            throw new CommandLineException("For method " + method.getName() + ", the chunk size must be at least 1");
+        }
+        if (commandLineMain.concurrency() < 0) {
+            throw new CommandLineException("For method " + method.getName() + ", the concurrency cannot be negative");
+        }
+        if (commandLineMain.concurrency() != 1 && methodType != MethodType.Scalar && methodType != MethodType.Supplier) {
+            throw new CommandLineException("For method " + method.getName()
+                    + ", only a main method taking a single value can be called concurrently");
+        }
+        return new CommandLineMethodHelper(method, methodType, elementClass, converter,
+                commandLineMain.parallelConversion());
+    }
+
+
+    /**
+     * Get the converter for the values of a method
+     *
+     * @param method The method
+     * @param elementClass The element class
+     * @param mapFile True if the values name files to be mapped
+     * @return The converter
+     * @throws CommandLineException if there is no converter for the element class
+     */
+    private static Converter getConverter(Method method, Class<?> elementClass, boolean mapFile) throws CommandLineException {
+        if (mapFile) {
+            Converter converter = CommandLineMappedFiles.converterFor(elementClass);
+            if (converter == null) {
+                throw new CommandLineException("For method " + method.getName()
+                        + ", only a MappedByteBuffer, ByteBuffer, CharSequence or CommandLineMappedFile can be mapped from a file");
+            }
+            return converter;
+        }
+        Converter converter = lookupConverter(method.getDeclaringClass(), elementClass);
+        if (converter == null) {
+            throw new CommandLineException("Cannot find a conversion from String to " + elementClass.getName() + " for method " + method.getName());
+        }
+        return converter;
+    }
+
+
+    /**
+     * Look up the converter for an element class, among the
+     * converters for the application class
+     *
+     * @param applicationClass The application class
+     * @param elementClass The element class
+     * @return The converter, or null if there is none
+     */
+    private static Converter lookupConverter(Class<?> applicationClass, Class<?> elementClass) {
+        ConverterLookupEvent event = CommandLinePhase.isRecorderActive() ? new ConverterLookupEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        Converter converter = CommandLineConverters.forClass(applicationClass).lookup(elementClass);
+        if (event != null) {
+            event.end();
+        }
+        if (event != null && event.shouldCommit()) {
+            event.elementType = elementClass;
+            event.found = converter != null;
+            event.commit();
+        }
+        return converter;
+    }
+
+
+    /**
+     * Get the element class of a generic parameter, such as the
+     * T of a Stream&lt;T&gt;. The type argument has to be a class, or
+     * a wildcard bounded by a class.
+     *
+     * @param method The method, which takes a single parameter
+     * @return The class of the type argument
+     * @throws CommandLineException if the element class can't be determined
+     */
+    private static Class<?> getTypeArgument(Method method) throws CommandLineException {
+        Type parameterType = method.getGenericParameterTypes()[0];
+        if (parameterType instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) parameterType).getActualTypeArguments()[0];
+            if (argument instanceof WildcardType) {
+                argument = ((WildcardType) argument).getUpperBounds()[0];
+            }
+            if (argument instanceof Class) {
+                return (Class<?>) argument;
+            }
+        }
+        throw new CommandLineException("Cannot determine the element type of the parameter for method " + method.getName());
+    }
+
+
+    /**
+     * Determine if a method returns a CompletableFuture&lt;Boolean&gt; or
+     * a CompletableFuture&lt;Void&gt;, making it an asynchronous option method
+     *
+     * @param method The method
+     * @return True if it does
+     */
+    private static boolean isFutureOfBooleanOrVoid(Method method) {
+        if (method.getReturnType() != CompletableFuture.class
+                || !(method.getGenericReturnType() instanceof ParameterizedType)) {
+            return false;
+        }
+        Type argument = ((ParameterizedType) method.getGenericReturnType()).getActualTypeArguments()[0];
+        return argument == Boolean.class || argument == Void.class;
+    }
+
+
+    /**
+     * Validate a Method to be a command line option methods.
+     *
+     * Methods with more than 1 argument are not allowed. Methods with return types
+     * other than boolean, or a CompletableFuture of Boolean or Void, are not allowed.
+     * Methods that throw an exception other than
+     * org.apache.commons.cli.CommandLineException are not allowed,
+     *
+     * @param method the method to validate
+     * @param commandLineOption the options on that method
+     * @return A new method helper for the method
+     */
+    private static CommandLineMethodHelper getHelperForCommandOption(Method method, CommandLineOption commandLineOption) throws CommandLineException {
+
+        // Validate that the return type is a boolean or void, or a future of either
+        if (!method.getReturnType().equals(Boolean.TYPE) && !method.getReturnType().equals(Void.TYPE)
+                && !isFutureOfBooleanOrVoid(method)) {
+            throw new CommandLineException("For method " + method.getName() + ", the return type is not boolean or void");
+        }
+
+        // Validate the exceptions throws by the method
+        for (Class<?> clazz : method.getExceptionTypes()) {
+            if (!clazz.equals(CommandLineException.class)) {
+                throw new CommandLineException("For method " + method.getName() + ", there is an invalid exception class " + clazz.getName());
+            }
+        }
+
+        // In order to get ready to create the configuration instance,
+        // we will need to know the command line option type
+        // and the element type.
+        Class<?> elementClass = null;
+        MethodType methodType;
+        Converter converter;
+
+        // Get the parameters of the method. We'll use these to
+        // determine what type of option we have - scalar, boolean, etc.
+        Class<?> parameterClasses[] = method.getParameterTypes();
+
+        // See what the length tells us
+        switch (parameterClasses.length) {
+            case 0:
+                methodType = MethodType.Boolean;
+                converter = null;
+                break;
+            case 1: {
+
+                // For a method with one argument, we have to look
+                // more closely at the argument. It has to be a simple
+                // scalar object, an array, a list, a primitive stream,
+                // or a supplier of an object.
+                Class<?> parameterClass = parameterClasses[0];
+                if (parameterClass.isArray()) {
+
+                    // For an array, we get the element class based on the
+                    // underlying component type
+                    methodType = MethodType.Array;
+                    elementClass = parameterClass.getComponentType();
+                } else if (List.class.isAssignableFrom(parameterClass)) {
+
+                    // For a list, we get the element class from the command
+                    // line options annotation
+                    methodType = MethodType.List;
+                    elementClass = commandLineOption.argumentType();
+                } else if (getStreamElementClass(parameterClass) != null) {
+
+                    // For a primitive stream, the element class is the
+                    // primitive that it streams
+                    methodType = MethodType.PrimitiveStream;
+                    elementClass = getStreamElementClass(parameterClass);
+                } else if (parameterClass == Supplier.class) {
+
+                    // For a supplier, each value is converted when the
+                    // method asks for it
+                    methodType = MethodType.Supplier;
+                    elementClass = getTypeArgument(method);
+                } else {
+
+                    // For a scalar, we get the element type from the
+                    // type of the parameter.
+                    methodType = MethodType.Scalar;
+                    elementClass = parameterClass;
+                }
+
+                // Now that we have the element type, make sure it's convertable
+                converter = getConverter(method, elementClass, commandLineOption.mapFile());
+                break;
+            }
+            default: {
+
+                // Other method types not allowed.
+                throw new CommandLineException("Method " + method.getName() + " has too many arguments");
+            }
+        }
+
+        // Now we can return the configuration for this method
+        return new CommandLineMethodHelper(method, methodType, elementClass, converter,
+                commandLineOption.parallelConversion());
+    }
+
+
+    /**
+     * Get the element class for a primitive stream parameter
+     *
+     * @param parameterClass The class of the parameter
+     * @return The primitive class, or null if the parameter is not
+     * a primitive stream
+     */
+    private static Class<?> getStreamElementClass(Class<?> parameterClass) {
+        if (parameterClass == IntStream.class) {
+            return int.class;
+        } else if (parameterClass == LongStream.class) {
+            return long.class;
+        } else if (parameterClass == DoubleStream.class) {
+            return double.class;
+        }
+        return null;
+    }
+}
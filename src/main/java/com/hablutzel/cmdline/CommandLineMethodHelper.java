@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.Converter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.BaseStream;
+
+/**
+ * Class used to remember configuration values
+ * for the methods used with the command line options,
+ * and to call those methods.
+ *
+ * The method is bound once, when the helper is created, to a
+ * method handle with a fixed shape: it takes the instance (and
+ * the argument, for methods that take one) and returns a boolean,
+ * with void methods returning true. Each call is then a direct
+ * invokeExact rather than a reflective Method.invoke. Option methods
+ * that return a CompletableFuture are bound to return the future.
+ */
+final class CommandLineMethodHelper {
+
+    enum MethodType {
+        Boolean, Scalar, Array, List, PrimitiveStream, Stream, Iterator, Iterable, Supplier
+    }
+
+    /**
+     * The shapes the method handles are adapted to
+     */
+    private static final java.lang.invoke.MethodType NO_ARGUMENT_INVOKER
+            = java.lang.invoke.MethodType.methodType(boolean.class, Object.class);
+    private static final java.lang.invoke.MethodType ARGUMENT_INVOKER
+            = java.lang.invoke.MethodType.methodType(boolean.class, Object.class, Object.class);
+    private static final java.lang.invoke.MethodType ASYNC_NO_ARGUMENT_INVOKER
+            = java.lang.invoke.MethodType.methodType(Object.class, Object.class);
+    private static final java.lang.invoke.MethodType ASYNC_ARGUMENT_INVOKER
+            = java.lang.invoke.MethodType.methodType(Object.class, Object.class, Object.class);
+
+    final Method method;
+    final MethodType methodType;
+    final Class<?> elementType;
+    final Converter converter;
+
+    /**
+     * True if large arrays and lists are converted in parallel
+     */
+    final boolean parallel;
+
+    /**
+     * True if the method returns a CompletableFuture, so that it is
+     * started on an executor rather than called in turn
+     */
+    final boolean async;
+
+    /**
+     * The bound method, or null if the method is not accessible
+     */
+    private final MethodHandle invoker;
+
+
+    CommandLineMethodHelper(Method method, MethodType methodType, Class<?> elementType, Converter converter,
+                            boolean parallel) {
+        this.method = method;
+        this.methodType = methodType;
+        this.elementType = elementType;
+        this.converter = converter;
+        this.parallel = parallel;
+        this.async = method.getReturnType() == CompletableFuture.class;
+        this.invoker = bind(method, methodType, async);
+    }
+
+
+    /**
+     * Bind the method to a handle of the invoker shape. Methods we
+     * are not allowed to call get no handle; that is reported when
+     * (and if) the method is invoked, as it was with reflection.
+     *
+     * @param method The method to bind
+     * @param methodType The type of the method
+     * @param async True if the method returns a future
+     * @return The adapted method handle, or null
+     */
+    private static MethodHandle bind(Method method, MethodType methodType, boolean async) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+
+        // Futures are returned as they are
+        if (async) {
+            return handle.asType(methodType == MethodType.Boolean ? ASYNC_NO_ARGUMENT_INVOKER : ASYNC_ARGUMENT_INVOKER);
+        }
+
+        // Void methods never stop processing, so they return true
+        if (method.getReturnType().equals(Void.TYPE)) {
+            handle = MethodHandles.filterReturnValue(handle, MethodHandles.constant(boolean.class, true));
+        }
+        return handle.asType(methodType == MethodType.Boolean ? NO_ARGUMENT_INVOKER : ARGUMENT_INVOKER);
+    }
+
+
+    // Invokes the method. If any invocation returns false, then
+    // the looping stops and false is returned. Otherwise this method
+    // returns true. Note that we've already validated that the only
+    // possible return is a boolean, or for an asynchronous method a
+    // future, which is waited for
+
+    boolean invokeMethod( Object instance, String[] arguments ) throws CommandLineException {
+        if (async) {
+            try {
+                return invokeAsync(instance, arguments, Runnable::run).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof CommandLineException
+                        ? (CommandLineException) e.getCause()
+                        : new CommandLineException("Unable to invoke method " + method.getName(), e.getCause());
+            }
+        }
+        return invokeMethod(instance, arguments, null);
+    }
+
+
+    /**
+     * Start an asynchronous option method. The values are converted and
+     * the method is called (once for each value, for a scalar) on the
+     * executor, and the result completes when the futures the method
+     * returned have all completed: with false if any of them gave false,
+     * and true otherwise. If the method or one of its futures fails, the
+     * result fails with a CommandLineException: the one that was thrown,
+     * if it was one, or one with the failure as its cause.
+     *
+     * Cancelling the result cancels the futures the method returned; if
+     * the method has not been called yet, it is not called at all.
+     *
+     * The method is called in the context of the command line that
+     * started it, since the executor's threads may have been created
+     * by (and inherited the context of) an earlier command line.
+     *
+     * @param instance The instance to call the method on
+     * @param arguments The values of the option
+     * @param executor The executor to call the method on
+     * @return The result of the method
+     */
+    CompletableFuture<Boolean> invokeAsync(final Object instance, final String[] arguments, Executor executor) {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        final CommandLineContext context = CommandLineContext.current.get();
+        executor.execute(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            final List<CompletableFuture<?>> futures = new ArrayList<>();
+            CommandLineContext previous = CommandLineContext.current.get();
+            CommandLineContext.current.set(context);
+            try {
+                invokeMethod(instance, arguments, futures);
+            } catch (CommandLineException | RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            } catch (Error e) {
+                result.completeExceptionally(e);
+                throw e;
+            } finally {
+                CommandLineContext.current.set(previous);
+            }
+
+            // Pass a cancellation on to the futures the method returned
+            result.whenComplete((value, failure) -> {
+                if (result.isCancelled()) {
+                    for (CompletableFuture<?> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            });
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenComplete((ignored, failure) -> {
+                if (failure != null) {
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause() : failure;
+                    result.completeExceptionally(cause instanceof CommandLineException ? cause
+                            : new CommandLineException("Unable to invoke method " + method.getName(), cause));
+                } else {
+                    boolean value = true;
+                    for (CompletableFuture<?> future : futures) {
+                        value = !Boolean.FALSE.equals(future.join()) && value;
+                    }
+                    result.complete(value);
+                }
+            });
+        });
+        return result;
+    }
+
+
+    /**
+     * Invoke the method for the values
+     *
+     * @param futures Collects the futures returned by an asynchronous
+     *                method; null for other methods
+     */
+    private boolean invokeMethod(Object instance, String[] arguments, List<CompletableFuture<?>> futures) throws CommandLineException {
+        if (invoker == null) {
+            throw new CommandLineException("Unable to invoke method " + method.getName() + " because the method is not accessible");
+        }
+        switch (methodType) {
+            case Boolean: {
+                return invoke(instance, futures);
+            }
+            case Scalar: {
+                if (arguments == null) {
+                    invoke(instance, null, futures);
+                } else {
+                    for (String s : arguments) {
+                        if (!invoke(instance, converter.convert(elementType, s), futures)) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+            case Supplier: {
+
+                // As for a scalar, but each value is converted only if
+                // and when the method asks for it
+                if (arguments == null) {
+                    invoke(instance, null, futures);
+                } else {
+                    for (String s : arguments) {
+                        if (!invoke(instance, CommandLineConversions.toSupplier(converter, elementType, s), futures)) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+            case Array: {
+                return invoke(instance, CommandLineConversions.toArray(converter, elementType, arguments, parallel), futures);
+            }
+            case PrimitiveStream: {
+                return invoke(instance, toStream(arguments), futures);
+            }
+            case Stream: {
+                return invoke(instance, CommandLineConversions.toStream(converter, elementType, arguments), futures);
+            }
+            case Iterator: {
+                return invoke(instance, CommandLineConversions.toIterator(converter, elementType, arguments), futures);
+            }
+            case Iterable: {
+                return invoke(instance, CommandLineConversions.toIterable(converter, elementType, arguments), futures);
+            }
+            case List: {
+                List<Object> list = CommandLineConversions.toList(converter, elementType, arguments, parallel);
+                return invoke(instance, list, futures);
+            }
+            default:
+                throw new IllegalStateException("Unknown method type " + methodType);
+        }
+    }
+
+
+    /**
+     * Convert the values as invokeMethod would, but without calling
+     * the method. Values that are converted lazily are read to the end.
+     * This is used by training runs, to load the conversion classes.
+     *
+     * @param arguments The values; null is the same as no values
+     */
+    void convertArguments(String[] arguments) {
+        switch (methodType) {
+            case Boolean:
+                break;
+            case Scalar:
+            case Supplier:
+                if (arguments != null) {
+                    for (String s : arguments) {
+                        converter.convert(elementType, s);
+                    }
+                }
+                break;
+            case Array:
+                CommandLineConversions.toArray(converter, elementType, arguments, parallel);
+                break;
+            case PrimitiveStream:
+                ((BaseStream<?,?>) toStream(arguments)).iterator().forEachRemaining(value -> { });
+                break;
+            case Stream:
+                CommandLineConversions.toStream(converter, elementType, arguments).forEach(value -> { });
+                break;
+            case Iterator:
+            case Iterable:
+                CommandLineConversions.toIterator(converter, elementType, arguments).forEachRemaining(value -> { });
+                break;
+            case List:
+                CommandLineConversions.toList(converter, elementType, arguments, parallel);
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type " + methodType);
+        }
+    }
+
+
+    /**
+     * Convert the values to a primitive stream. The values are
+     * converted as the method reads the stream.
+     *
+     * @param arguments The values; null is the same as no values
+     * @return The stream
+     */
+    private Object toStream(String[] arguments) {
+        if (elementType == int.class) {
+            return CommandLineConversions.toIntStream(converter, arguments);
+        } else if (elementType == long.class) {
+            return CommandLineConversions.toLongStream(converter, arguments);
+        } else {
+            return CommandLineConversions.toDoubleStream(converter, arguments);
+        }
+    }
+
+
+    /**
+     * Call a method that takes no arguments
+     *
+     * @param instance The instance to call the method on
+     * @param futures Collects the future returned by an asynchronous method
+     * @return The result of the method, or true for a void or asynchronous method
+     * @throws CommandLineException if the method throws
+     */
+    private boolean invoke(Object instance, List<CompletableFuture<?>> futures) throws CommandLineException {
+        try {
+            if (futures != null) {
+                Object future = invoker.invokeExact(instance);
+                return started(future, futures);
+            }
+            return (boolean) invoker.invokeExact(instance);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new CommandLineException("Unable to invoke method " + method.getName(), t);
+        }
+    }
+
+
+    /**
+     * Call a method that takes one argument
+     *
+     * @param instance The instance to call the method on
+     * @param argument The converted argument
+     * @param futures Collects the future returned by an asynchronous method
+     * @return The result of the method, or true for a void or asynchronous method
+     * @throws CommandLineException if the method throws
+     */
+    private boolean invoke(Object instance, Object argument, List<CompletableFuture<?>> futures) throws CommandLineException {
+        try {
+            if (futures != null) {
+                Object future = invoker.invokeExact(instance, argument);
+                return started(future, futures);
+            }
+            return (boolean) invoker.invokeExact(instance, argument);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new CommandLineException("Unable to invoke method " + method.getName(), t);
+        }
+    }
+
+
+    /**
+     * Remember the future returned by an asynchronous method. A method
+     * that returns null is taken to have finished.
+     */
+    private static boolean started(Object future, List<CompletableFuture<?>> futures) {
+        if (future != null) {
+            futures.add((CompletableFuture<?>) future);
+        }
+        return true;
+    }
+}
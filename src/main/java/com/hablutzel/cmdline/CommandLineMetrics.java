@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.hablutzel.cmdline;
+
+import java.util.Arrays;
+
+/**
+ * The registry of {@link CommandLineMetricsListener}s, which are told
+ * about every command line run in this JVM.
+ *
+ * Registering is rare and running command lines is not, so the
+ * listeners are kept in an array that is replaced on each change,
+ * and read without locking.
+ */
+public final class CommandLineMetrics {
+
+    private static final CommandLineMetricsListener[] NO_LISTENERS = new CommandLineMetricsListener[0];
+
+    private static volatile CommandLineMetricsListener[] listeners = NO_LISTENERS;
+
+    private CommandLineMetrics() {
+    }
+
+
+    /**
+     * Register a listener
+     *
+     * @param listener The listener
+     */
+    public static synchronized void addListener(CommandLineMetricsListener listener) {
+        CommandLineMetricsListener[] current = listeners;
+        CommandLineMetricsListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+
+    /**
+     * Remove a listener, if it is registered
+     *
+     * @param listener The listener
+     */
+    public static synchronized void removeListener(CommandLineMetricsListener listener) {
+        CommandLineMetricsListener[] current = listeners;
+        for (int i = 0; i < current.length; ++i) {
+            if (current[i] == listener) {
+                CommandLineMetricsListener[] updated = new CommandLineMetricsListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * @return The listeners registered now; the array must not be changed
+     */
+    static CommandLineMetricsListener[] listeners() {
+        return listeners;
+    }
+}
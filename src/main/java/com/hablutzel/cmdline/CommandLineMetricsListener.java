@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.hablutzel.cmdline;
+
+/**
+ * Told about each phase of running a command line: configuring the
+ * application class, parsing, and calling each option method and the
+ * main method. This lets a daemon or an application that runs many
+ * command lines keep its own counts and timings, per option if it
+ * likes. Listeners are registered with {@link CommandLineMetrics}.
+ *
+ * The methods are called on the thread running the command line, as
+ * soon as each phase ends, so they should be quick, thread safe, and
+ * not throw. All the methods do nothing by default.
+ */
+public interface CommandLineMetricsListener {
+
+    /**
+     * An application class has been configured. This happens
+     * once per class.
+     *
+     * @param applicationClass The application class
+     * @param durationNanos How long configuring took
+     * @param failure Why the class could not be configured, or null
+     */
+    default void configured(Class<?> applicationClass, long durationNanos, Throwable failure) {
+    }
+
+
+    /**
+     * A command line has been parsed
+     *
+     * @param applicationClass The application class
+     * @param argumentCount The number of arguments parsed
+     * @param durationNanos How long parsing took
+     * @param failure Why the command line could not be parsed, or null
+     */
+    default void parsed(Class<?> applicationClass, int argumentCount, long durationNanos, Throwable failure) {
+    }
+
+
+    /**
+     * An option method has been called, including the
+     * conversion of its values
+     *
+     * @param applicationClass The application class
+     * @param option The long name of the option, or the short name if it has none
+     * @param valueCount The number of values given for the option
+     * @param durationNanos How long converting and calling took
+     * @param failure What the method or conversion threw, or null
+     */
+    default void optionInvoked(Class<?> applicationClass, String option, int valueCount, long durationNanos, Throwable failure) {
+    }
+
+
+    /**
+     * The main method has been called, including the conversion of its
+     * arguments. For arguments converted lazily, that happens as the
+     * method reads them.
+     *
+     * @param applicationClass The application class
+     * @param argumentCount The number of main arguments
+     * @param durationNanos How long converting and calling took
+     * @param failure What the method or conversion threw, or null
+     */
+    default void mainInvoked(Class<?> applicationClass, int argumentCount, long durationNanos, Throwable failure) {
+    }
+}
@@ -107,4 +107,42 @@ public @interface CommandLineOption {
      * @return
      */
     boolean optionalArgument() default false;
+
+
+    /**
+     * For options taking an array or a list, determines whether
+     * a large number of values is converted in parallel. This
+     * is only worth doing for expensive converters. The values
+     * keep their order, and a conversion failure is reported
+     * just as it would be otherwise.
+     *
+     * @return
+     */
+    boolean parallelConversion() default false;
+
+
+    /**
+     * Determines whether the values name files that are mapped into
+     * memory, for methods taking a MappedByteBuffer, a ByteBuffer,
+     * a CharSequence or a {@link CommandLineMappedFile}. The method gets
+     * the contents of each file without them being read onto the heap.
+     * The buffers are read only, and a CharSequence has one character for
+     * each byte. Files over 2GB can only be taken as a CommandLineMappedFile.
+     *
+     * @return
+     */
+    boolean mapFile() default false;
+
+
+    /**
+     * Determines when the option method is called, relative to the
+     * methods for the other options that are present. Options with
+     * a lower order are called first; options with the same order
+     * are called in the order of their method names. By default
+     * this is 0, so options such as --help can be given a negative
+     * order to be called before everything else.
+     *
+     * @return The order of the option
+     */
+    int order() default 0;
 }
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+/**
+ * One phase of running a command line: configuring the application
+ * class, parsing, or calling an option method or the main method. When
+ * the phase ends it is reported to the {@link CommandLineMetricsListener}s
+ * and, if a recording has the events enabled, to the flight recorder.
+ *
+ * A phase is only created while someone is listening; otherwise the
+ * factory methods return null, and the caller does nothing more. No
+ * flight recorder class is loaded until the recorder has started, and
+ * none at all when the runtime was built without the jdk.jfr module.
+ *
+ * The factory methods and {@link #end(Throwable)} are public so that
+ * generated dispatchers can report the same phases as the reflective
+ * configuration.
+ */
+public final class CommandLinePhase {
+
+    enum Kind {
+        Configure, Parse, Option, Main
+    }
+
+    /**
+     * True if the runtime has the flight recorder. A runtime image
+     * built with jlink may leave it out.
+     */
+    private static final boolean FLIGHT_RECORDER_PRESENT = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    /**
+     * The system property the flight recorder sets when it starts, so
+     * that until then it can be ruled out without loading any of it
+     */
+    private static final String FLIGHT_RECORDER_REPOSITORY = "jdk.jfr.repository";
+
+    final Kind kind;
+    final Class<?> applicationClass;
+
+    /**
+     * The option name, or the parser used
+     */
+    final String name;
+    final String methodType;
+
+    /**
+     * The number of values or arguments, or for a configuration the
+     * number of options. This may be set until the phase ends.
+     */
+    int count;
+
+    private final CommandLineMetricsListener[] listeners;
+    private final long start;
+
+    /**
+     * The flight recorder event, or null. It is only known to this class
+     * as an Object, so that nothing here refers to the jdk.jfr module.
+     */
+    private final Object event;
+
+
+    private CommandLinePhase(Kind kind, Class<?> applicationClass, String name, String methodType, int count) {
+        this.kind = kind;
+        this.applicationClass = applicationClass;
+        this.name = name;
+        this.methodType = methodType;
+        this.count = count;
+        this.listeners = CommandLineMetrics.listeners();
+        this.start = listeners.length == 0 ? 0 : System.nanoTime();
+        this.event = isRecorderActive() ? CommandLineEvents.begin(this) : null;
+    }
+
+
+    /**
+     * @return True if the flight recorder has been started, in which
+     * case the events may be recorded
+     */
+    static boolean isRecorderActive() {
+        return FLIGHT_RECORDER_PRESENT && System.getProperty(FLIGHT_RECORDER_REPOSITORY) != null
+                && CommandLineEvents.isActive();
+    }
+
+
+    /**
+     * @return True if a listener is registered or the recorder has
+     * started. Only then is a phase created.
+     */
+    private static boolean isObserved() {
+        return CommandLineMetrics.listeners().length != 0 || isRecorderActive();
+    }
+
+
+    /**
+     * Begin configuring an application class
+     *
+     * @param applicationClass The application class
+     * @return The phase, or null if no one is listening
+     */
+    static CommandLinePhase configure(Class<?> applicationClass) {
+        return isObserved() ? new CommandLinePhase(Kind.Configure, applicationClass, null, null, 0) : null;
+    }
+
+
+    /**
+     * Begin parsing a command line
+     *
+     * @param applicationClass The application class
+     * @param parser The parser used: "Native" or "CommonsCli"
+     * @param argumentCount The number of arguments
+     * @return The phase, or null if no one is listening
+     */
+    public static CommandLinePhase parse(Class<?> applicationClass, String parser, int argumentCount) {
+        return isObserved() ? new CommandLinePhase(Kind.Parse, applicationClass, parser, null, argumentCount) : null;
+    }
+
+
+    /**
+     * Begin converting the values of an option and calling its method
+     *
+     * @param applicationClass The application class
+     * @param option The long name of the option, or the short name if it has none
+     * @param methodType The kind of method, such as "Scalar" or "Array"
+     * @param valueCount The number of values given for the option
+     * @return The phase, or null if no one is listening
+     */
+    public static CommandLinePhase option(Class<?> applicationClass, String option, String methodType, int valueCount) {
+        return isObserved() ? new CommandLinePhase(Kind.Option, applicationClass, option, methodType, valueCount) : null;
+    }
+
+
+    /**
+     * Begin converting the main arguments and calling the main method
+     *
+     * @param applicationClass The application class
+     * @param methodType The kind of method, such as "Scalar" or "Array"
+     * @param argumentCount The number of main arguments
+     * @return The phase, or null if no one is listening
+     */
+    public static CommandLinePhase main(Class<?> applicationClass, String methodType, int argumentCount) {
+        return isObserved() ? new CommandLinePhase(Kind.Main, applicationClass, null, methodType, argumentCount) : null;
+    }
+
+
+    /**
+     * End the phase, reporting it to the listeners and the recorder
+     *
+     * @param failure What the phase threw, or null if it succeeded
+     */
+    public void end(Throwable failure) {
+        if (event != null) {
+            CommandLineEvents.end(event, this, failure);
+        }
+        if (listeners.length != 0) {
+            long duration = System.nanoTime() - start;
+            for (CommandLineMetricsListener listener : listeners) {
+                switch (kind) {
+                    case Configure:
+                        listener.configured(applicationClass, duration, failure);
+                        break;
+                    case Parse:
+                        listener.parsed(applicationClass, count, duration, failure);
+                        break;
+                    case Option:
+                        listener.optionInvoked(applicationClass, name, count, duration, failure);
+                        break;
+                    case Main:
+                        listener.mainInvoked(applicationClass, count, duration, failure);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown phase " + kind);
+                }
+            }
+        }
+    }
+}
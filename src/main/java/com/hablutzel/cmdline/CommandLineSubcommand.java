@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a subcommand of an application class, in the style of git:
+ * when the first argument is the name of a subcommand, the rest of the
+ * command line is passed to a new instance of the subcommand class,
+ * and the application class itself is not configured at all.
+ *
+ * The subcommand class is given by name rather than as a class literal,
+ * so that it is only loaded (and configured) when the subcommand is
+ * used. A tool made of many subcommands then starts in time that depends
+ * on the subcommand being run, not on the whole tool. The name is the
+ * binary name of a CommandLineApplication subclass with a public no
+ * argument constructor; the annotation processor checks it at compile
+ * time. Subcommand classes can have subcommands of their own.
+ *
+ * The application class still needs a @CommandLineMain method, which is
+ * called when the first argument is not a subcommand; it would normally
+ * report the command as unknown, or print the usage text, which lists
+ * the subcommands.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(CommandLineSubcommands.class)
+public @interface CommandLineSubcommand {
+
+    /**
+     * The name of the subcommand, as given on the command line
+     *
+     * @return The name
+     */
+    String name();
+
+    /**
+     * The binary name of the class that implements the subcommand,
+     * such as com.example.tool.IndexCommand
+     *
+     * @return The class name
+     */
+    String className();
+
+    /**
+     * A description of the subcommand for the usage text
+     *
+     * @return The description
+     */
+    String usage() default "";
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The subcommands declared by an application class with
+ * {@link CommandLineSubcommand}. The table is built from the
+ * annotations alone, so building it loads none of the subcommand
+ * classes; each is loaded the first time it is used.
+ */
+final class CommandLineSubcommandTable {
+
+    /**
+     * The tables by application class. The value is null for
+     * classes without subcommands.
+     */
+    private static final ClassValue<CommandLineSubcommandTable> tables = new ClassValue<CommandLineSubcommandTable>() {
+        @Override
+        protected CommandLineSubcommandTable computeValue(Class<?> type) {
+            CommandLineSubcommand[] declared = type.getAnnotationsByType(CommandLineSubcommand.class);
+            return declared.length == 0 ? null : new CommandLineSubcommandTable(type, declared);
+        }
+    };
+
+    private final Map<String, Subcommand> subcommands = new LinkedHashMap<>();
+
+    // The first name declared twice, or null
+    private final String duplicate;
+
+
+    private CommandLineSubcommandTable(Class<?> applicationClass, CommandLineSubcommand[] declared) {
+        String duplicate = null;
+        for (CommandLineSubcommand subcommand : declared) {
+            if (subcommands.put(subcommand.name(), new Subcommand(applicationClass, subcommand)) != null
+                    && duplicate == null) {
+                duplicate = subcommand.name();
+            }
+        }
+        this.duplicate = duplicate;
+    }
+
+
+    /**
+     * Get the subcommands of an application class
+     *
+     * @param applicationClass The application class
+     * @return The subcommands, or null if the class has none
+     * @throws CommandLineException if a subcommand name is declared twice
+     */
+    static CommandLineSubcommandTable forClass(Class<?> applicationClass) throws CommandLineException {
+        CommandLineSubcommandTable table = tables.get(applicationClass);
+        if (table != null && table.duplicate != null) {
+            throw new CommandLineException("Subcommand " + table.duplicate + " is declared more than once");
+        }
+        return table;
+    }
+
+
+    /**
+     * Look up a subcommand
+     *
+     * @param name The name given on the command line
+     * @return The subcommand, or null if there is none by that name
+     */
+    Subcommand get(String name) {
+        return subcommands.get(name);
+    }
+
+
+    /**
+     * Get all of the subcommands, in the order they were declared
+     *
+     * @return The subcommands
+     */
+    Collection<Subcommand> all() {
+        return subcommands.values();
+    }
+
+
+    /**
+     * Describe the subcommands for the usage text, one to a line
+     *
+     * @return The description
+     */
+    String describe() {
+        int width = 0;
+        for (String name : subcommands.keySet()) {
+            width = Math.max(width, name.length());
+        }
+        StringBuilder description = new StringBuilder("Commands:");
+        for (Subcommand subcommand : subcommands.values()) {
+            description.append(System.lineSeparator()).append("  ").append(subcommand.name);
+            if (!subcommand.usage.isEmpty()) {
+                for (int i = subcommand.name.length(); i < width + 3; ++i) {
+                    description.append(' ');
+                }
+                description.append(subcommand.usage);
+            }
+        }
+        return description.toString();
+    }
+
+
+    /**
+     * One subcommand. The class is loaded, and its constructor found,
+     * the first time an instance is needed.
+     */
+    static final class Subcommand {
+
+        final String name;
+        final String className;
+        final String usage;
+        private final ClassLoader classLoader;
+        private volatile Constructor<? extends CommandLineApplication> constructor;
+
+        Subcommand(Class<?> applicationClass, CommandLineSubcommand subcommand) {
+            this.name = subcommand.name();
+            this.className = subcommand.className();
+            this.usage = subcommand.usage();
+            this.classLoader = applicationClass.getClassLoader();
+        }
+
+
+        /**
+         * Create a new instance of the subcommand class
+         *
+         * @return The instance
+         * @throws CommandLineException if the class can't be loaded or created
+         */
+        CommandLineApplication newInstance() throws CommandLineException {
+            try {
+                return getConstructor().newInstance();
+            } catch (InvocationTargetException e) {
+                throw new CommandLineException("Unable to create the " + name + " subcommand", e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new CommandLineException("Unable to create the " + name + " subcommand", e);
+            }
+        }
+
+
+        /**
+         * Get the subcommand class, loading it if need be
+         *
+         * @return The class
+         * @throws CommandLineException if the class can't be loaded or isn't usable
+         */
+        Class<? extends CommandLineApplication> getApplicationClass() throws CommandLineException {
+            return getConstructor().getDeclaringClass();
+        }
+
+
+        private Constructor<? extends CommandLineApplication> getConstructor() throws CommandLineException {
+
+            // Finding the constructor twice is harmless, so there is no lock
+            Constructor<? extends CommandLineApplication> constructor = this.constructor;
+            if (constructor == null) {
+                Class<?> type;
+                try {
+                    type = Class.forName(className, true, classLoader);
+                } catch (ClassNotFoundException e) {
+                    throw new CommandLineException("Cannot find the class " + className + " for the " + name + " subcommand", e);
+                }
+                if (!CommandLineApplication.class.isAssignableFrom(type)) {
+                    throw new CommandLineException("The class " + className + " for the " + name
+                            + " subcommand is not a CommandLineApplication");
+                }
+                try {
+                    constructor = type.asSubclass(CommandLineApplication.class).getConstructor();
+                } catch (NoSuchMethodException e) {
+                    throw new CommandLineException("The class " + className + " for the " + name
+                            + " subcommand has no public no argument constructor", e);
+                }
+                this.constructor = constructor;
+            }
+            return constructor;
+        }
+    }
+}
@@ -0,0 +1,646 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.cli.*;
+
+import java.util.*;
+
+/**
+ * The library's own command line parser, used in place of the commons-cli
+ * DefaultParser when the application class asks for it with
+ * {@link CommandLineConfiguration#parser()}, and for any command line
+ * that names argument files, whose expanded arguments it reads as it
+ * parses them.
+ *
+ * The short and long forms of the options are compiled into two tries
+ * when the class is configured. Each token is then resolved by walking
+ * its characters through a trie, so parsing takes time in proportion
+ * to the length of the command line, however many options the class
+ * declares.
+ *
+ * The rules follow those of the DefaultParser:
+ * <ul>
+ *     <li>{@code --name} and {@code --name=value} give a long option. A
+ *     long option may be shortened to any prefix that is unique.</li>
+ *     <li>{@code -n}, {@code -n=value} and {@code -nvalue} give a short
+ *     option; {@code -abc} gives the short options a, b and c. A single
+ *     hyphen may also introduce a long option. As in the DefaultParser,
+ *     a short name is tried before a long one, then a long option the
+ *     token starts with, then a Java property such as {@code -Dkey=value},
+ *     and only then separate short options.</li>
+ *     <li>An option that takes arguments takes the following tokens as
+ *     values, up to its maximumArgumentCount, until a token is itself an
+ *     option. Negative numbers are taken as values. Each token is split
+ *     on the argumentSeparator, and surrounding double quotes are removed.</li>
+ *     <li>An option whose argument is not optional must be given at
+ *     least one value (or all of them, with a fixed maximumArgumentCount
+ *     above one).</li>
+ *     <li>{@code --} ends the options; everything after it, and every
+ *     token that is not an option or an option value, is an argument
+ *     for the main method.</li>
+ * </ul>
+ * Errors are reported with the same commons-cli exceptions the
+ * DefaultParser uses, as the cause of the CommandLineException.
+ *
+ * The tokenizer is not changed after it is built, and keeps the state
+ * of each parse in a separate object, so it can be used by many
+ * threads at once.
+ */
+final class CommandLineTokenizer {
+
+    /**
+     * Results of looking a name up in a trie
+     */
+    private static final int NONE = -1;
+    private static final int AMBIGUOUS = -2;
+
+
+    /**
+     * A node of a trie. The children are kept in parallel arrays,
+     * sorted by character, for a binary search.
+     */
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+
+        // The option whose name ends here, or NONE
+        int option = NONE;
+
+        // The only option whose name ends at or below this
+        // node, NONE if there are none, or AMBIGUOUS
+        int unique = NONE;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        Node add(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            newKeys[i] = c;
+            newChildren[i] = new Node();
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[i];
+        }
+    }
+
+
+    /**
+     * One option found on the command line, with the values
+     * given for it across all its occurrences
+     */
+    private static final class Found {
+        final int option;
+        final List<String> values = new ArrayList<>(2);
+
+        Found(int option) {
+            this.option = option;
+        }
+    }
+
+
+    /**
+     * The state of a single parse
+     */
+    private static final class Parse {
+        final Map<Integer,Found> found = new HashMap<>();
+        final List<String> arguments = new ArrayList<>();
+
+        // The option currently taking values, and the number
+        // of values it has been given in this occurrence
+        Found current;
+        int currentCount;
+    }
+
+
+    private final CommandLineMetadata metadata;
+    private final Node shortRoot = new Node();
+    private final Node longRoot = new Node();
+
+    /**
+     * The settings of each option, as the commons-cli options would have
+     * them. They are taken from the annotations, so that the options of
+     * a class with lazy options are only built when they are found.
+     */
+    private final boolean[] hasArg;
+    private final int[] numberOfArgs;
+    private final char[] separator;
+    private final boolean[] optionalArg;
+    private final int[] required;
+
+
+    /**
+     * Build the tokenizer for the options of a class
+     *
+     * @param metadata The metadata for the class
+     */
+    CommandLineTokenizer(CommandLineMetadata metadata) {
+        this.metadata = metadata;
+        int count = metadata.optionCount();
+        hasArg = new boolean[count];
+        numberOfArgs = new int[count];
+        separator = new char[count];
+        optionalArg = new boolean[count];
+        int[] requiredOptions = new int[count];
+        int requiredCount = 0;
+
+        for (int i = 0; i < count; ++i) {
+            CommandLineOption annotation = metadata.optionAnnotation(i);
+            hasArg[i] = metadata.takesValues(i);
+            numberOfArgs[i] = hasArg[i] ? annotation.maximumArgumentCount() : Option.UNINITIALIZED;
+            separator[i] = hasArg[i] ? annotation.argumentSeparator() : 0;
+            optionalArg[i] = hasArg[i] && annotation.optionalArgument();
+            if (annotation.required()) {
+                requiredOptions[requiredCount++] = i;
+            }
+            if (metadata.shortName(i) != null) {
+                insert(shortRoot, metadata.shortName(i), i);
+            }
+            if (metadata.longName(i) != null) {
+                insert(longRoot, metadata.longName(i), i);
+            }
+        }
+        required = Arrays.copyOf(requiredOptions, requiredCount);
+    }
+
+
+    /**
+     * Add a name to a trie, keeping the unique option of each
+     * node on the way up to date
+     */
+    private static void insert(Node root, String name, int option) {
+        Node node = root;
+        updateUnique(node, option);
+        for (int i = 0; i < name.length(); ++i) {
+            node = node.add(name.charAt(i));
+            updateUnique(node, option);
+        }
+        node.option = option;
+    }
+
+    private static void updateUnique(Node node, int option) {
+        node.unique = node.unique == NONE || node.unique == option ? option : AMBIGUOUS;
+    }
+
+
+    /**
+     * Find the node for a name in a trie
+     *
+     * @return The node, or null if no option starts with the name
+     */
+    private static Node find(Node root, String s, int start, int end) {
+        Node node = root;
+        for (int i = start; i < end && node != null; ++i) {
+            node = node.child(s.charAt(i));
+        }
+        return node;
+    }
+
+
+    /**
+     * Look up the option with exactly the given name
+     */
+    private static int exact(Node root, String s, int start, int end) {
+        Node node = find(root, s, start, end);
+        return node == null ? NONE : node.option;
+    }
+
+
+    /**
+     * Look up the option with the given name, or whose name is
+     * the only one starting with it
+     *
+     * @return The option, NONE or AMBIGUOUS
+     */
+    private static int prefix(Node root, String s, int start, int end) {
+        Node node = find(root, s, start, end);
+        if (node == null) {
+            return NONE;
+        }
+        return node.option != NONE ? node.option : node.unique;
+    }
+
+
+    /**
+     * Parse a command line
+     *
+     * @param args The command line arguments
+     * @return The parsed command line
+     * @throws CommandLineException if the command line is not valid
+     */
+    ParsedCommandLine parse(String[] args) throws CommandLineException {
+        return parse(args == null ? Collections.<String>emptyIterator() : Arrays.asList(args).iterator());
+    }
+
+
+    /**
+     * Parse a command line, taking each token from an iterator as it is
+     * needed. Only the option values and main arguments are kept, so a
+     * command line expanded from argument files is never held as a whole.
+     *
+     * @param args The command line arguments
+     * @return The parsed command line
+     * @throws CommandLineException if the command line is not valid
+     */
+    ParsedCommandLine parse(Iterator<String> args) throws CommandLineException {
+        try {
+            Parse parse = new Parse();
+            boolean skipParsing = false;
+            while (args.hasNext()) {
+                String token = args.next();
+                if (skipParsing) {
+                    parse.arguments.add(token);
+                } else if ("--".equals(token)) {
+                    checkRequiredArgs(parse);
+                    skipParsing = true;
+                } else if (parse.current != null && acceptsArg(parse) && isArgument(token)) {
+                    addValue(parse, stripQuotes(token));
+                } else if (token.startsWith("--")) {
+                    handleLongOption(parse, token, 2);
+                } else if (token.startsWith("-") && token.length() > 1) {
+                    handleShortOption(parse, token);
+                } else {
+                    parse.arguments.add(token);
+                }
+            }
+            checkRequiredArgs(parse);
+            checkRequiredOptions(parse);
+            return result(parse);
+        } catch (ParseException e) {
+            throw new CommandLineException("Unable to parse command line", e);
+        }
+    }
+
+
+    /**
+     * Handle a long option, which may have its value after an equals sign
+     *
+     * @param start The position of the name in the token
+     */
+    private void handleLongOption(Parse parse, String token, int start) throws ParseException {
+        int equals = token.indexOf('=', start);
+        int end = equals < 0 ? token.length() : equals;
+        int option = prefix(longRoot, token, start, end);
+        if (option == NONE) {
+            throw new UnrecognizedOptionException("Unrecognized option: " + token, token);
+        }
+        if (option == AMBIGUOUS) {
+            throw new AmbiguousOptionException(token.substring(start, end), matching(token, start, end));
+        }
+        if (equals < 0) {
+            startOption(parse, option);
+        } else if (hasArg[option]) {
+            startOption(parse, option);
+            addValue(parse, token.substring(equals + 1));
+            parse.current = null;
+        } else {
+            throw new UnrecognizedOptionException("Unrecognized option: " + token, token);
+        }
+    }
+
+
+    /**
+     * Handle a token starting with a single hyphen. The cases are tried
+     * in the order the DefaultParser tries them, so that a token that
+     * could be read more than one way is read the same way.
+     */
+    private void handleShortOption(Parse parse, String token) throws ParseException {
+        // -S, including short names of more than one character
+        int option = exact(shortRoot, token, 1, token.length());
+        if (option != NONE) {
+            startOption(parse, option);
+            return;
+        }
+        if (token.length() == 2) {
+            throw new UnrecognizedOptionException("Unrecognized option: " + token, token);
+        }
+
+        int equals = token.indexOf('=');
+        if (equals < 0) {
+
+            // -L, or a unique prefix of one
+            if (prefix(longRoot, token, 1, token.length()) != NONE) {
+                handleLongOption(parse, token, 1);
+                return;
+            }
+
+            // -Lvalue, for the longest long option the token starts with;
+            // if that is also a short name, the short option is used
+            int length = longestLongPrefix(token);
+            if (length != NONE) {
+                option = named(token, 1, 1 + length);
+                if (hasArg[option]) {
+                    startOption(parse, option);
+                    addValue(parse, token.substring(1 + length));
+                    parse.current = null;
+                    return;
+                }
+            }
+
+            // -Svalue, for a short option taking two or more values
+            option = named(token, 1, 2);
+            if (isJavaProperty(option)) {
+                startOption(parse, option);
+                addValue(parse, token.substring(2));
+                parse.current = null;
+                return;
+            }
+
+            // -abc, or -Svalue: each character is an option, until
+            // one takes a value, which is then the rest of the token.
+            // As in the DefaultParser, that option can still take more
+            // values from the tokens that follow
+            for (int i = 1; i < token.length(); ++i) {
+                option = named(token, i, i + 1);
+                if (option == NONE) {
+                    throw new UnrecognizedOptionException("Unrecognized option: " + token, token);
+                }
+                startOption(parse, option);
+                if (parse.current != null && i + 1 < token.length()) {
+                    addValue(parse, token.substring(i + 1));
+                    break;
+                }
+            }
+            return;
+        }
+
+        // -S=V, which can only be a single character option
+        if (equals == 2) {
+            option = named(token, 1, 2);
+            if (option != NONE && hasArg[option]) {
+                startOption(parse, option);
+                addValue(parse, token.substring(equals + 1));
+                parse.current = null;
+                return;
+            }
+            throw new UnrecognizedOptionException("Unrecognized option: " + token, token);
+        }
+
+        // -Skey=value, for a short option taking two or more values
+        option = named(token, 1, 2);
+        if (isJavaProperty(option)) {
+            startOption(parse, option);
+            addValue(parse, token.substring(2, equals));
+            addValue(parse, token.substring(equals + 1));
+            parse.current = null;
+            return;
+        }
+
+        // -L=V
+        handleLongOption(parse, token, 1);
+    }
+
+
+    /**
+     * Look up an option by its exact name, short or long, preferring
+     * the short name as commons-cli does
+     */
+    private int named(String s, int start, int end) {
+        int option = exact(shortRoot, s, start, end);
+        return option != NONE ? option : exact(longRoot, s, start, end);
+    }
+
+
+    /**
+     * Determine if an option takes a key and value, as -Dkey=value does
+     */
+    private boolean isJavaProperty(int option) {
+        return option != NONE && (numberOfArgs[option] >= 2 || numberOfArgs[option] == Option.UNLIMITED_VALUES);
+    }
+
+
+    /**
+     * Find the longest long option that the token (after its hyphen)
+     * starts with, leaving at least two characters for the value as
+     * the DefaultParser does
+     *
+     * @return The length of the name, or NONE
+     */
+    private int longestLongPrefix(String token) {
+        int longest = NONE;
+        Node node = longRoot;
+        for (int i = 1; i < token.length() - 2 && node != null; ++i) {
+            node = node.child(token.charAt(i));
+            if (node != null && node.option != NONE && i >= 2) {
+                longest = i;
+            }
+        }
+        return longest;
+    }
+
+
+    /**
+     * Determine if a token following an option is a value for it
+     */
+    private boolean isArgument(String token) {
+        return !isOption(token) || isNegativeNumber(token);
+    }
+
+    private boolean isOption(String token) {
+        if (!token.startsWith("-") || token.length() < 2) {
+            return false;
+        }
+        int start = token.startsWith("--") ? 2 : 1;
+        int equals = token.indexOf('=');
+        int end = equals < 0 ? token.length() : equals;
+        return exact(shortRoot, token, 1, 2) != NONE
+                || prefix(longRoot, token, start, end) != NONE
+                || (start == 1 && longestLongPrefix(token) != NONE);
+    }
+
+    private static boolean isNegativeNumber(String token) {
+        try {
+            Double.parseDouble(token);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Start an occurrence of an option
+     */
+    private void startOption(Parse parse, int option) throws ParseException {
+        checkRequiredArgs(parse);
+        Found found = parse.found.get(option);
+        if (found == null) {
+            found = new Found(option);
+            parse.found.put(option, found);
+        }
+        parse.current = hasArg[option] ? found : null;
+        parse.currentCount = 0;
+    }
+
+
+    /**
+     * Determine if the current option can take more values
+     */
+    private boolean acceptsArg(Parse parse) {
+        int max = numberOfArgs[parse.current.option];
+        return max <= 0 || parse.currentCount < max;
+    }
+
+
+    /**
+     * Add a value to the current option, splitting it on the separator.
+     * Once the option has as many values as it can take, the rest of the
+     * value is kept as the last one.
+     */
+    private void addValue(Parse parse, String value) {
+        int option = parse.current.option;
+        int max = numberOfArgs[option];
+        char sep = separator[option];
+        int start = 0;
+        if (sep != 0) {
+
+            // Each element is copied once, so a long list is split
+            // in time proportional to its length
+            int index = value.indexOf(sep);
+            while (index != -1 && parse.currentCount != max - 1) {
+                parse.current.values.add(value.substring(start, index));
+                parse.currentCount++;
+                start = index + 1;
+                index = value.indexOf(sep, start);
+            }
+        }
+        parse.current.values.add(start == 0 ? value : value.substring(start));
+        parse.currentCount++;
+
+        // An option that is full takes no more values
+        if (!acceptsArg(parse)) {
+            parse.current = null;
+        }
+    }
+
+
+    /**
+     * Check that the current option, if any, has all the values it needs
+     */
+    private void checkRequiredArgs(Parse parse) throws MissingArgumentException {
+        Found current = parse.current;
+        if (current == null || optionalArg[current.option]) {
+            return;
+        }
+        boolean requiresArg = numberOfArgs[current.option] == Option.UNLIMITED_VALUES
+                ? parse.currentCount == 0
+                : acceptsArg(parse);
+        if (requiresArg) {
+            throw new MissingArgumentException(metadata.option(current.option));
+        }
+    }
+
+
+    /**
+     * Check that all the required options were given
+     */
+    private void checkRequiredOptions(Parse parse) throws MissingOptionException {
+        List<String> missing = null;
+        for (int option : required) {
+            if (!parse.found.containsKey(option)) {
+                if (missing == null) {
+                    missing = new ArrayList<>();
+                }
+                missing.add(metadata.shortName(option) == null ? metadata.longName(option) : metadata.shortName(option));
+            }
+        }
+        if (missing != null) {
+            throw new MissingOptionException(missing);
+        }
+    }
+
+    /**
+     * Build the parsed command line, with the options in metadata order
+     */
+    private ParsedCommandLine result(Parse parse) throws CommandLineException {
+        int count = parse.found.size();
+        Found[] found = parse.found.values().toArray(new Found[count]);
+        Arrays.sort(found, new Comparator<Found>() {
+            @Override
+            public int compare(Found a, Found b) {
+                return Integer.compare(a.option, b.option);
+            }
+        });
+
+        Option[] options = new Option[count];
+        CommandLineMethodHelper[] helpers = new CommandLineMethodHelper[count];
+        String[][] values = new String[count][];
+        for (int i = 0; i < count; ++i) {
+            options[i] = metadata.option(found[i].option);
+            helpers[i] = metadata.optionHelper(found[i].option);
+            if (hasArg[found[i].option] && !found[i].values.isEmpty()) {
+                values[i] = found[i].values.toArray(new String[found[i].values.size()]);
+            }
+        }
+        return new ParsedCommandLine(metadata, options, helpers, values,
+                parse.arguments.toArray(new String[parse.arguments.size()]));
+    }
+
+
+    /**
+     * Collect the long options starting with a prefix, for an error message
+     */
+    private List<String> matching(String token, int start, int end) {
+        List<String> matching = new ArrayList<>();
+        for (int i = 0; i < metadata.optionCount(); ++i) {
+            String longOpt = metadata.longName(i);
+            if (longOpt != null && longOpt.regionMatches(0, token, start, end - start)) {
+                matching.add(longOpt);
+            }
+        }
+        return matching;
+    }
+
+
+    /**
+     * Remove a pair of double quotes around a value, as the DefaultParser does
+     */
+    private static String stripQuotes(String value) {
+        int length = value.length();
+        if (length > 1 && value.charAt(0) == '"' && value.charAt(length - 1) == '"'
+                && value.indexOf('"', 1) == length - 1) {
+            return value.substring(1, length - 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Training runs, which build a class data sharing (CDS) archive for
+ * an application so that later runs start faster.
+ *
+ * Most of the start up time of a command line tool goes into loading
+ * classes: those of commons-cli, commons-beanutils and the application.
+ * A CDS archive holds these classes already parsed and verified, and
+ * the JVM maps it in rather than loading them one by one.
+ *
+ * A training run is asked for with a hidden option, which has to be
+ * the first argument, followed by representative arguments for the
+ * application:
+ *
+ *     java -cp ... Indexer --cmdline-train=indexer.jsa --verbose --limit 10 input.txt
+ *
+ * This starts a second JVM with -XX:ArchiveClassesAtExit, which runs
+ * the application with just --cmdline-train and the arguments; the JVM
+ * writes the archive when that run exits. The training run configures
+ * the class, parses the arguments, converts their values and resolves
+ * the handles of the methods, but calls none of the application's option
+ * or main methods, so training has none of their side effects. Later
+ * runs then use the archive with -XX:SharedArchiveFile=indexer.jsa.
+ *
+ * Every subcommand class of the application is loaded and configured
+ * too. If the first representative argument names a subcommand, the
+ * rest of the arguments are parsed and converted for that subcommand,
+ * just as they would be for the application class.
+ *
+ * The second JVM is started with the same JVM options, class path and
+ * main class (or jar) as the first. If that isn't right, the archive
+ * can be written directly instead:
+ *
+ *     java -XX:ArchiveClassesAtExit=indexer.jsa -cp ... Indexer --cmdline-train --verbose input.txt
+ */
+final class CommandLineTraining {
+
+    static final String TRAINING_OPTION = "--cmdline-train";
+
+    private CommandLineTraining() {
+    }
+
+
+    /**
+     * @param args The command line arguments
+     * @return True if the arguments ask for a training run
+     */
+    static boolean isTrainingRun(String[] args) {
+        return args.length > 0 && (args[0].equals(TRAINING_OPTION) || args[0].startsWith(TRAINING_OPTION + "="));
+    }
+
+
+    /**
+     * Run a training run
+     *
+     * @param application The application instance
+     * @param dispatcher The generated dispatcher for the class, or null
+     * @param args The command line arguments, starting with the training option
+     * @throws CommandLineException if the arguments are not valid, or the archive can't be written
+     */
+    static void train(CommandLineApplication application, CommandLineDispatcher<?> dispatcher, String[] args) throws CommandLineException {
+        String[] trainingArgs = Arrays.copyOfRange(args, 1, args.length);
+        if (args[0].equals(TRAINING_OPTION)) {
+            exercise(application.getClass(), dispatcher, trainingArgs);
+        } else {
+            writeArchive(Paths.get(args[0].substring(TRAINING_OPTION.length() + 1)), trainingArgs);
+        }
+    }
+
+
+    /**
+     * Go through everything a run of the application does, short of
+     * calling its methods, so that the classes are loaded
+     *
+     * @param applicationClass The application or subcommand class
+     * @param dispatcher The generated dispatcher for the class, or null
+     * @param args The representative arguments for the class, or null
+     *             to configure the class without parsing anything
+     */
+    private static void exercise(Class<? extends CommandLineApplication> applicationClass,
+                                 CommandLineDispatcher<?> dispatcher, String[] args) throws CommandLineException {
+
+        // Configure the class, setting up all the option methods
+        CommandLineInterpreter<?> interpreter = configure(applicationClass, dispatcher);
+
+        // Load and configure the subcommands. A subcommand named
+        // first takes the rest of the arguments
+        CommandLineSubcommandTable subcommands = CommandLineSubcommandTable.forClass(applicationClass);
+        CommandLineSubcommandTable.Subcommand chosen = subcommands != null && args != null && args.length > 0
+                ? subcommands.get(args[0]) : null;
+        if (subcommands != null) {
+            for (CommandLineSubcommandTable.Subcommand subcommand : subcommands.all()) {
+                Class<? extends CommandLineApplication> subcommandClass = subcommand.getApplicationClass();
+                exercise(subcommandClass, CommandLineApplication.generatedDispatcher(subcommandClass),
+                        subcommand == chosen ? Arrays.copyOfRange(args, 1, args.length) : null);
+            }
+        }
+        if (args == null || chosen != null) {
+            return;
+        }
+
+        // Parse the arguments, both with the generated dispatcher's
+        // options if there is one, and reflectively
+        if (dispatcher != null) {
+            try {
+                new DefaultParser().parse(dispatcher.getOptions(), args);
+            } catch (ParseException e) {
+                throw new CommandLineException("Unable to parse command line", e);
+            }
+        }
+        ParsedCommandLine commandLine = interpreter.parse(args);
+
+        // Convert the option values and the main arguments. The helpers
+        // have resolved their method handles, but the methods aren't called
+        for (int i = 0; i < commandLine.helpers.length; ++i) {
+            commandLine.helpers[i].convertArguments(commandLine.values[i]);
+        }
+        interpreter.metadata.mainHelper.convertArguments(commandLine.arguments);
+    }
+
+
+    /**
+     * Configure a class, setting up all its option methods, and
+     * format its usage text, which many tools print when the command
+     * line is wrong
+     *
+     * @return The interpreter for the class
+     */
+    private static CommandLineInterpreter<?> configure(Class<? extends CommandLineApplication> applicationClass,
+                                                       CommandLineDispatcher<?> dispatcher) throws CommandLineException {
+        CommandLineInterpreter<?> interpreter = CommandLineInterpreter.forClass(applicationClass);
+
+        // Lazy options are otherwise set up only for those in the arguments
+        interpreter.validate();
+        Options options = dispatcher != null ? dispatcher.getOptions() : interpreter.metadata.options();
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp(new PrintWriter(new StringWriter()), formatter.getWidth(), "training", null,
+                options, formatter.getLeftPadding(), formatter.getDescPadding(), null, true);
+        return interpreter;
+    }
+
+
+    /**
+     * Run the training run in a new JVM that writes a dynamic CDS archive
+     *
+     * @param archive The archive to write
+     * @param args The representative arguments
+     */
+    private static void writeArchive(Path archive, String[] args) throws CommandLineException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+
+        // Use the same JVM options, except for any archive we were given
+        for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!option.startsWith("-XX:ArchiveClassesAtExit") && !option.startsWith("-XX:SharedArchiveFile")) {
+                command.add(option);
+            }
+        }
+        command.add("-XX:ArchiveClassesAtExit=" + archive.toAbsolutePath());
+
+        // Run the same application. The launcher records what it ran; the
+        // arguments are separated by spaces, so a jar or class name with
+        // spaces in it can't be told apart
+        String launched = System.getProperty("sun.java.command", "").split(" ")[0];
+        if (launched.isEmpty()) {
+            throw new CommandLineException("Unable to determine the main class to train; use -XX:ArchiveClassesAtExit with " + TRAINING_OPTION);
+        }
+        if (launched.endsWith(".jar")) {
+            command.add("-jar");
+            command.add(launched);
+        } else {
+            String classPath = System.getProperty("java.class.path");
+            if (classPath != null && !classPath.isEmpty()) {
+                command.add("-cp");
+                command.add(classPath);
+            }
+            String modulePath = System.getProperty("jdk.module.path");
+            if (modulePath != null) {
+                command.add("-p");
+                command.add(modulePath);
+            }
+            if (launched.contains("/")) {
+                command.add("-m");
+            }
+            command.add(launched);
+        }
+        command.add(TRAINING_OPTION);
+        command.addAll(Arrays.asList(args));
+
+        int status;
+        try {
+            status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        } catch (IOException e) {
+            throw new CommandLineException("Unable to start the training run", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while waiting for the training run", e);
+        }
+        if (status != 0 || !Files.exists(archive)) {
+            throw new CommandLineException("The training run did not write " + archive + " (exit status " + status + ")");
+        }
+    }
+}
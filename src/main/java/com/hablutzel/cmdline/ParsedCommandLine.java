@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.cli.Option;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of parsing a command line with a {@link CommandLineInterpreter}:
+ * the options that were present, with their values, and the remaining
+ * arguments for the main method.
+ *
+ * A parsed command line can't be changed, so it can be handed between
+ * threads, and dispatched more than once, without any locking.
+ */
+public final class ParsedCommandLine {
+
+    /**
+     * The metadata of the class the command line was parsed for
+     */
+    final CommandLineMetadata metadata;
+
+    /**
+     * The options that were present, with their helpers and values,
+     * in the order the option methods will be called. The values of
+     * an option are null if none were given.
+     */
+    final Option[] options;
+    final CommandLineMethodHelper[] helpers;
+    final String[][] values;
+
+    /**
+     * The arguments left over for the main method
+     */
+    final String[] arguments;
+
+
+    ParsedCommandLine(CommandLineMetadata metadata, Option[] options, CommandLineMethodHelper[] helpers,
+                      String[][] values, String[] arguments) {
+        this.metadata = metadata;
+        this.options = options;
+        this.helpers = helpers;
+        this.values = values;
+        this.arguments = arguments;
+    }
+
+
+    /**
+     * Determine if an option was given on the command line
+     *
+     * @param name The short or long form of the option
+     * @return true if the option was present
+     */
+    public boolean hasOption(String name) {
+        return indexOf(name) >= 0;
+    }
+
+
+    /**
+     * Get the values given for an option
+     *
+     * @param name The short or long form of the option
+     * @return A copy of the values, or null if the option was not
+     * present or had no values
+     */
+    public String[] getOptionValues(String name) {
+        int index = indexOf(name);
+        return index < 0 || values[index] == null ? null : values[index].clone();
+    }
+
+
+    /**
+     * Get the arguments that will be passed to the main method
+     *
+     * @return The remaining arguments
+     */
+    public List<String> getArguments() {
+        return Collections.unmodifiableList(Arrays.asList(arguments));
+    }
+
+
+    private int indexOf(String name) {
+        for (int i = 0; i < options.length; ++i) {
+            if (name.equals(options[i].getOpt()) || name.equals(options[i].getLongOpt())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,1021 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline.processor;
+
+import com.hablutzel.cmdline.CommandLineConfiguration;
+import com.hablutzel.cmdline.CommandLineDispatcher;
+import com.hablutzel.cmdline.CommandLineMain;
+import com.hablutzel.cmdline.CommandLineOption;
+import com.hablutzel.cmdline.CommandLineSubcommand;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ * Annotation processor that generates a {@link CommandLineDispatcher}
+ * for each CommandLineApplication subclass that declares
+ * {@link CommandLineOption} or {@link CommandLineMain} methods.
+ *
+ * The generated dispatcher builds the commons-cli options directly and
+ * calls the annotated methods directly, so that parseAndRun does not have
+ * to scan the class and invoke the methods reflectively on every start.
+ *
+ * Classes with a {@link CommandLineConfiguration} that asks for the
+ * native parser or for argument files, and classes with option methods
+ * that return a CompletableFuture, are left to the run time
+ * configuration, which implements those settings.
+ *
+ * The processor applies the same rules as the reflective configuration.
+ * If a class does not follow them (or uses something the generator cannot
+ * express, such as private methods), a warning is given and no dispatcher
+ * is generated; parseAndRun then falls back to the reflective path, which
+ * reports the problem at run time as before.
+ *
+ * The class names given with {@link CommandLineSubcommand} are also
+ * checked, since they are only resolved at run time when the subcommand
+ * is used: a name that is declared twice, or a class that is not a
+ * CommandLineApplication, is an error, and a class that can't be
+ * found is a warning (it may be added to the class path later).
+ */
+@SupportedAnnotationTypes({
+        "com.hablutzel.cmdline.CommandLineOption",
+        "com.hablutzel.cmdline.CommandLineMain",
+        "com.hablutzel.cmdline.CommandLineSubcommand",
+        "com.hablutzel.cmdline.CommandLineSubcommands"
+})
+public class CommandLineProcessor extends AbstractProcessor {
+
+    private static final String APPLICATION_CLASS = "com.hablutzel.cmdline.CommandLineApplication";
+    private static final String EXCEPTION_CLASS = "com.hablutzel.cmdline.CommandLineException";
+
+
+    /**
+     * The kinds of methods we can call; these mirror the method
+     * types used by the reflective configuration
+     */
+    private enum MethodType {
+        Boolean, Scalar, Array, List, PrimitiveStream, Stream, Iterator, Iterable, Supplier
+    }
+
+
+    /**
+     * The primitive stream parameter types, and the primitives they stream
+     */
+    private static final Map<String, TypeKind> PRIMITIVE_STREAMS = new HashMap<>();
+    static {
+        PRIMITIVE_STREAMS.put("java.util.stream.IntStream", TypeKind.INT);
+        PRIMITIVE_STREAMS.put("java.util.stream.LongStream", TypeKind.LONG);
+        PRIMITIVE_STREAMS.put("java.util.stream.DoubleStream", TypeKind.DOUBLE);
+    }
+
+
+    /**
+     * The lazily converted main parameter types, and their method types
+     */
+    private static final Map<String, MethodType> LAZY_TYPES = new HashMap<>();
+    static {
+        LAZY_TYPES.put("java.util.stream.Stream", MethodType.Stream);
+        LAZY_TYPES.put("java.util.Iterator", MethodType.Iterator);
+        LAZY_TYPES.put("java.lang.Iterable", MethodType.Iterable);
+    }
+
+
+    /**
+     * The types that files can be mapped to
+     */
+    private static final Set<String> MAPPED_TYPES = new HashSet<>(Arrays.asList(
+            "java.nio.MappedByteBuffer", "java.nio.ByteBuffer", "java.lang.CharSequence",
+            "com.hablutzel.cmdline.CommandLineMappedFile"));
+
+
+    /**
+     * The number of options handled by each generated helper method. A
+     * Java method is limited to 64KB of bytecode, so the options are
+     * built and dispatched in groups of this size rather than all in
+     * the constructor and parseAndRun.
+     */
+    private static final int OPTIONS_PER_METHOD = 50;
+
+
+    private static final String SUPPLIER_CLASS = "java.util.function.Supplier";
+    private static final String FUTURE_CLASS = "java.util.concurrent.CompletableFuture";
+
+
+    /**
+     * What we know about an annotated method once it has been
+     * validated.
+     */
+    private static final class MethodModel {
+        ExecutableElement method;
+        MethodType methodType;
+        TypeMirror elementType;
+        boolean returnsBoolean;
+        boolean parallelConversion;
+        boolean mapFile;
+
+        // Option attributes; unused for the main method
+        String shortName;
+        String longName;
+        String usage;
+        boolean required;
+        char argumentSeparator;
+        int maximumArgumentCount;
+        boolean optionalArgument;
+        int order;
+
+        String name() {
+            return method.getSimpleName().toString();
+        }
+
+        String key() {
+            return shortName != null ? shortName : longName;
+        }
+    }
+
+
+    /**
+     * Thrown internally when a class cannot have a dispatcher generated
+     */
+    private static final class UnsupportedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final Element element;
+
+        UnsupportedException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+
+
+    /**
+     * The classes already handled, so that later rounds don't
+     * generate them again
+     */
+    private final Set<String> processedTypes = new HashSet<>();
+
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+        // Collect the classes that declare annotated methods, and
+        // those that declare subcommands
+        Set<TypeElement> applicationTypes = new LinkedHashSet<>();
+        Set<TypeElement> subcommandTypes = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.METHOD) {
+                    applicationTypes.add((TypeElement) element.getEnclosingElement());
+                } else if (element.getKind() == ElementKind.CLASS) {
+                    subcommandTypes.add((TypeElement) element);
+                }
+            }
+        }
+        for (TypeElement type : subcommandTypes) {
+            checkSubcommands(type);
+        }
+
+        // Generate a dispatcher for each of them
+        for (TypeElement type : applicationTypes) {
+            if (processedTypes.add(type.getQualifiedName().toString())) {
+                try {
+                    generateDispatcher(type);
+                } catch (UnsupportedException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "No command line dispatcher generated for " + type.getQualifiedName()
+                                    + ": " + e.getMessage(), e.element);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Unable to write command line dispatcher for " + type.getQualifiedName()
+                                    + ": " + e.getMessage(), type);
+                }
+            }
+        }
+
+        // The annotations are only for this library, so they are claimed;
+        // that doesn't stop them being read at run time, and unclaimed
+        // annotations are a warning under -Xlint:processing
+        return true;
+    }
+
+
+    /**
+     * Check the subcommands declared by a class
+     *
+     * @param type The class declaring the subcommands
+     */
+    private void checkSubcommands(TypeElement type) {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        TypeElement applicationElement = elements.getTypeElement(APPLICATION_CLASS);
+        Set<String> names = new HashSet<>();
+        for (CommandLineSubcommand subcommand : type.getAnnotationsByType(CommandLineSubcommand.class)) {
+            if (!names.add(subcommand.name())) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Subcommand " + subcommand.name() + " is declared more than once", type);
+                continue;
+            }
+
+            // The class name is a binary name; nested classes are
+            // looked up by their canonical name
+            TypeElement subcommandType = elements.getTypeElement(subcommand.className().replace('$', '.'));
+            if (subcommandType == null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Cannot find the class " + subcommand.className() + " for the "
+                                + subcommand.name() + " subcommand", type);
+            } else if (applicationElement != null && !types.isSubtype(subcommandType.asType(), applicationElement.asType())) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "The class " + subcommand.className() + " for the " + subcommand.name()
+                                + " subcommand is not a CommandLineApplication", type);
+            }
+        }
+    }
+
+
+    /**
+     * Validate the class and its methods, and write the dispatcher source
+     *
+     * @param type The application class
+     */
+    private void generateDispatcher(TypeElement type) throws UnsupportedException, IOException {
+
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+
+        // The parser and argument file settings in @CommandLineConfiguration
+        // are handled by the run time configuration, so those classes are
+        // left to it
+        CommandLineConfiguration configuration = type.getAnnotation(CommandLineConfiguration.class);
+        if (configuration != null && (configuration.parser() != CommandLineConfiguration.Parser.CommonsCli
+                || configuration.argumentFiles())) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "No command line dispatcher generated for " + type.getQualifiedName()
+                            + ", because its @CommandLineConfiguration is handled at run time", type);
+            return;
+        }
+        boolean shortCircuit = configuration != null && configuration.shortCircuit();
+        boolean lazyOptions = configuration != null && configuration.lazyOptions();
+
+        // The class has to be a concrete, non-generic CommandLineApplication
+        // that the generated class (in the same package) can refer to
+        TypeElement applicationElement = elements.getTypeElement(APPLICATION_CLASS);
+        if (applicationElement == null || !types.isSubtype(type.asType(), applicationElement.asType())) {
+            throw new UnsupportedException(type, "the class does not extend CommandLineApplication");
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new UnsupportedException(type, "the class is abstract");
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new UnsupportedException(type, "the class is generic");
+        }
+        for (Element enclosing = type; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            TypeElement enclosingType = (TypeElement) enclosing;
+            if (enclosingType.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new UnsupportedException(type, "the class is private");
+            }
+            if (enclosingType.getNestingKind() == NestingKind.LOCAL || enclosingType.getNestingKind() == NestingKind.ANONYMOUS) {
+                throw new UnsupportedException(type, "the class is a local class");
+            }
+            if (enclosingType.getNestingKind() == NestingKind.MEMBER
+                    && enclosingType.getEnclosingElement().getKind().isClass()
+                    && !enclosingType.getModifiers().contains(Modifier.STATIC)) {
+                throw new UnsupportedException(type, "the class is an inner class");
+            }
+        }
+
+        // Validate each of the annotated methods
+        List<MethodModel> optionMethods = new ArrayList<>();
+        MethodModel mainMethod = null;
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            CommandLineOption commandLineOption = method.getAnnotation(CommandLineOption.class);
+
+            // Asynchronous option methods are started and waited for by
+            // the run time dispatch, so those classes are left to it
+            if (commandLineOption != null && types.erasure(method.getReturnType()).toString().equals(FUTURE_CLASS)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "No command line dispatcher generated for " + type.getQualifiedName()
+                                + ", because " + method.getSimpleName() + " returns a CompletableFuture", method);
+                return;
+            }
+            CommandLineMain commandLineMain = method.getAnnotation(CommandLineMain.class);
+            if (commandLineMain != null && (commandLineMain.input() != CommandLineMain.Input.Arguments
+                    || commandLineMain.concurrency() != 1)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "No command line dispatcher generated for " + type.getQualifiedName() + ", because "
+                                + method.getSimpleName() + (commandLineMain.input() != CommandLineMain.Input.Arguments
+                                ? " reads the standard input" : " is called concurrently"), method);
+                return;
+            }
+            if (commandLineOption != null) {
+                optionMethods.add(getModelForCommandOption(method, commandLineOption));
+            } else if (commandLineMain != null) {
+                if (mainMethod != null) {
+                    throw new UnsupportedException(method, "there are two main methods specified");
+                }
+                mainMethod = getModelForCommandLineMain(method);
+            }
+        }
+        if (mainMethod == null) {
+            throw new UnsupportedException(type, "there is no @CommandLineMain method");
+        }
+
+        // The option methods are called in the same order as the
+        // reflective configuration calls them
+        optionMethods.sort(Comparator.comparingInt((MethodModel model) -> model.order)
+                .thenComparing(MethodModel::name));
+
+        // Write the dispatcher
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                + CommandLineDispatcher.GENERATED_SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter())) {
+            writeDispatcher(out, packageName, simpleName, type.getQualifiedName().toString(), optionMethods, mainMethod,
+                    shortCircuit, lazyOptions);
+        }
+    }
+
+
+    /**
+     * Validate a method to be a main command line application method,
+     * following the same rules as the reflective configuration.
+     *
+     * @param method The method to validate
+     * @return The model for the method
+     */
+    private MethodModel getModelForCommandLineMain(ExecutableElement method) throws UnsupportedException {
+
+        validateCommon(method);
+        if (method.getReturnType().getKind() != TypeKind.VOID) {
+            throw new UnsupportedException(method, "the return type of " + method.getSimpleName() + " is not void");
+        }
+
+        MethodModel model = new MethodModel();
+        model.method = method;
+        model.parallelConversion = method.getAnnotation(CommandLineMain.class).parallelConversion();
+        model.mapFile = method.getAnnotation(CommandLineMain.class).mapFile();
+        switch (method.getParameters().size()) {
+            case 0:
+                throw new UnsupportedException(method, "the main command line method must take arguments");
+            case 1: {
+                Types types = processingEnv.getTypeUtils();
+                TypeMirror parameterType = types.erasure(method.getParameters().get(0).asType());
+                TypeMirror listType = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.List").asType());
+                TypeMirror arrayListType = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.ArrayList").asType());
+                if (parameterType.getKind() == TypeKind.ARRAY) {
+                    model.methodType = MethodType.Array;
+                    model.elementType = getComponentType(method, parameterType);
+                } else if (types.isAssignable(parameterType, listType)) {
+
+                    // We always pass an ArrayList, so the parameter has to accept one
+                    if (!types.isAssignable(arrayListType, parameterType)) {
+                        throw new UnsupportedException(method, "the parameter of " + method.getSimpleName() + " cannot accept an ArrayList");
+                    }
+                    model.methodType = MethodType.List;
+                    model.elementType = getTypeArgument(method, method.getParameters().get(0).asType());
+                } else if (PRIMITIVE_STREAMS.containsKey(parameterType.toString())) {
+                    model.methodType = MethodType.PrimitiveStream;
+                    model.elementType = types.getPrimitiveType(PRIMITIVE_STREAMS.get(parameterType.toString()));
+                } else if (parameterType.toString().equals(SUPPLIER_CLASS)) {
+                    model.methodType = MethodType.Supplier;
+                    model.elementType = getTypeArgument(method, method.getParameters().get(0).asType());
+                } else if (LAZY_TYPES.containsKey(parameterType.toString())) {
+                    model.methodType = LAZY_TYPES.get(parameterType.toString());
+                    model.elementType = getTypeArgument(method, method.getParameters().get(0).asType());
+                } else {
+                    model.methodType = MethodType.Scalar;
+                    model.elementType = parameterType;
+                }
+                break;
+            }
+            default:
+                throw new UnsupportedException(method, "method " + method.getSimpleName() + " has too many arguments");
+        }
+        if (model.mapFile && (model.elementType == null || !MAPPED_TYPES.contains(model.elementType.toString()))) {
+            throw new UnsupportedException(method, "only a MappedByteBuffer, ByteBuffer, CharSequence or CommandLineMappedFile can be mapped from a file");
+        }
+        return model;
+    }
+
+
+    /**
+     * Validate a method to be a command line option method,
+     * following the same rules as the reflective configuration.
+     *
+     * @param method The method to validate
+     * @param commandLineOption The options on that method
+     * @return The model for the method
+     */
+    private MethodModel getModelForCommandOption(ExecutableElement method, CommandLineOption commandLineOption) throws UnsupportedException {
+
+        validateCommon(method);
+        TypeKind returnKind = method.getReturnType().getKind();
+        if (returnKind != TypeKind.BOOLEAN && returnKind != TypeKind.VOID) {
+            throw new UnsupportedException(method, "the return type of " + method.getSimpleName() + " is not boolean or void");
+        }
+
+        MethodModel model = new MethodModel();
+        model.method = method;
+        model.returnsBoolean = returnKind == TypeKind.BOOLEAN;
+
+        // The names and attributes of the option
+        model.shortName = commandLineOption.shortForm().equals("") ? null : commandLineOption.shortForm();
+        model.longName = commandLineOption.longForm().equals("") ? null : commandLineOption.longForm();
+        if (model.shortName == null && model.longName == null) {
+            model.longName = model.name();
+        }
+        model.usage = commandLineOption.usage();
+        model.required = commandLineOption.required();
+        model.argumentSeparator = commandLineOption.argumentSeparator();
+        model.maximumArgumentCount = commandLineOption.maximumArgumentCount();
+        model.optionalArgument = commandLineOption.optionalArgument();
+        model.parallelConversion = commandLineOption.parallelConversion();
+        model.mapFile = commandLineOption.mapFile();
+        model.order = commandLineOption.order();
+
+        // The method type follows from the parameters
+        Types types = processingEnv.getTypeUtils();
+        switch (method.getParameters().size()) {
+            case 0:
+                model.methodType = MethodType.Boolean;
+                break;
+            case 1: {
+                TypeMirror parameterType = types.erasure(method.getParameters().get(0).asType());
+                TypeMirror listType = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.List").asType());
+                TypeMirror arrayListType = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.ArrayList").asType());
+                if (parameterType.getKind() == TypeKind.ARRAY) {
+                    model.methodType = MethodType.Array;
+                    model.elementType = getComponentType(method, parameterType);
+                } else if (types.isAssignable(parameterType, listType)) {
+
+                    // We always pass an ArrayList, so the parameter has to accept one
+                    if (!types.isAssignable(arrayListType, parameterType)) {
+                        throw new UnsupportedException(method, "the parameter of " + method.getSimpleName() + " cannot accept an ArrayList");
+                    }
+                    model.methodType = MethodType.List;
+                    model.elementType = getArgumentType(commandLineOption);
+                } else if (PRIMITIVE_STREAMS.containsKey(parameterType.toString())) {
+                    model.methodType = MethodType.PrimitiveStream;
+                    model.elementType = types.getPrimitiveType(PRIMITIVE_STREAMS.get(parameterType.toString()));
+                } else if (parameterType.toString().equals(SUPPLIER_CLASS)) {
+                    model.methodType = MethodType.Supplier;
+                    model.elementType = getTypeArgument(method, method.getParameters().get(0).asType());
+                } else {
+                    model.methodType = MethodType.Scalar;
+                    model.elementType = parameterType;
+                }
+                break;
+            }
+            default:
+                throw new UnsupportedException(method, "method " + method.getSimpleName() + " has too many arguments");
+        }
+        if (model.mapFile && (model.elementType == null || !MAPPED_TYPES.contains(model.elementType.toString()))) {
+            throw new UnsupportedException(method, "only a MappedByteBuffer, ByteBuffer, CharSequence or CommandLineMappedFile can be mapped from a file");
+        }
+        return model;
+    }
+
+
+    /**
+     * Checks shared by option and main methods: the method has to
+     * be callable from the generated class, and can only throw
+     * CommandLineException
+     *
+     * @param method The method to validate
+     */
+    private void validateCommon(ExecutableElement method) throws UnsupportedException {
+        if (method.getModifiers().contains(Modifier.PRIVATE)) {
+            throw new UnsupportedException(method, "method " + method.getSimpleName() + " is private");
+        }
+        if (method.getModifiers().contains(Modifier.STATIC)) {
+            throw new UnsupportedException(method, "method " + method.getSimpleName() + " is static");
+        }
+        if (!method.getTypeParameters().isEmpty()) {
+            throw new UnsupportedException(method, "method " + method.getSimpleName() + " is generic");
+        }
+        for (TypeMirror thrownType : method.getThrownTypes()) {
+            if (!thrownType.toString().equals(EXCEPTION_CLASS)) {
+                throw new UnsupportedException(method, "for method " + method.getSimpleName()
+                        + ", there is an invalid exception class " + thrownType);
+            }
+        }
+    }
+
+
+    /**
+     * Get the component type of an array parameter. Nested arrays are
+     * left to the reflective path.
+     */
+    private TypeMirror getComponentType(ExecutableElement method, TypeMirror arrayType) throws UnsupportedException {
+        TypeMirror componentType = ((ArrayType) arrayType).getComponentType();
+        if (componentType.getKind() == TypeKind.ARRAY) {
+            throw new UnsupportedException(method, "method " + method.getSimpleName() + " takes a nested array");
+        }
+        return componentType;
+    }
+
+
+    /**
+     * Get the element type of a stream, iterator or iterable parameter.
+     * As in the reflective configuration, the type argument has to be a
+     * class, or a wildcard bounded by a class.
+     */
+    private TypeMirror getTypeArgument(ExecutableElement method, TypeMirror parameterType) throws UnsupportedException {
+        List<? extends TypeMirror> arguments = ((DeclaredType) parameterType).getTypeArguments();
+        TypeMirror argument = arguments.isEmpty() ? null : arguments.get(0);
+        if (argument instanceof WildcardType) {
+            argument = ((WildcardType) argument).getExtendsBound();
+        }
+        if (!(argument instanceof DeclaredType) || !((DeclaredType) argument).getTypeArguments().isEmpty()) {
+            throw new UnsupportedException(method, "cannot determine the element type of the parameter of method " + method.getSimpleName());
+        }
+        return argument;
+    }
+
+
+    /**
+     * Read the argumentType attribute, which is only available as a
+     * type mirror at compile time
+     */
+    private TypeMirror getArgumentType(CommandLineOption commandLineOption) {
+        try {
+            commandLineOption.argumentType();
+            throw new IllegalStateException("argumentType should not be readable as a class");
+        } catch (MirroredTypeException e) {
+            return processingEnv.getTypeUtils().erasure(e.getTypeMirror());
+        }
+    }
+
+
+    /**
+     * Write the source of the dispatcher class
+     */
+    private void writeDispatcher(PrintWriter out, String packageName, String simpleName, String applicationName,
+                                 List<MethodModel> optionMethods, MethodModel mainMethod, boolean shortCircuit,
+                                 boolean lazyOptions) {
+
+        if (!packageName.isEmpty()) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        out.println("import com.hablutzel.cmdline.CommandLineConversions;");
+        out.println("import com.hablutzel.cmdline.CommandLineConverters;");
+        out.println("import com.hablutzel.cmdline.CommandLineDispatcher;");
+        out.println("import com.hablutzel.cmdline.CommandLineException;");
+        out.println("import com.hablutzel.cmdline.CommandLinePhase;");
+        out.println("import org.apache.commons.beanutils.Converter;");
+        out.println("import org.apache.commons.cli.CommandLine;");
+        out.println("import org.apache.commons.cli.DefaultParser;");
+        out.println("import org.apache.commons.cli.Option;");
+        out.println("import org.apache.commons.cli.Options;");
+        out.println("import org.apache.commons.cli.ParseException;");
+        out.println();
+        out.println("/**");
+        out.println(" * Command line dispatcher for {@link " + applicationName + "}.");
+        out.println(" * Generated by " + getClass().getName() + "; do not edit.");
+        out.println(" */");
+        out.println("public final class " + simpleName + " implements CommandLineDispatcher<" + applicationName + "> {");
+        out.println();
+        out.println("    private final Options options = new Options();");
+
+        // The option converters are kept in an array, since they are set
+        // by the helper methods; being reached through a final field, they
+        // are still published safely with the dispatcher
+        if (!lazyOptions) {
+            out.println("    private final Converter[] converters = new Converter[" + optionMethods.size() + "];");
+        } else {
+            for (int i = 0; i < optionMethods.size(); ++i) {
+                writeConverterField(out, optionMethods.get(i), "converter" + i, true);
+            }
+        }
+        writeConverterField(out, mainMethod, "mainConverter", false);
+        out.println();
+
+        // The constructor builds the options and resolves the converters,
+        // exactly as configure() would. A converter that can't be found
+        // fails the constructor, and parseAndRun then falls back to the
+        // reflective path, which reports it. With lazy options, only the
+        // main converter is resolved here; each option converter is
+        // resolved the first time its option is used
+        out.println("    public " + simpleName + "() throws CommandLineException {");
+        for (int start = 0; start < optionMethods.size(); start += OPTIONS_PER_METHOD) {
+            out.println("        addOptions" + start / OPTIONS_PER_METHOD + "();");
+        }
+        writeConverterLookup(out, mainMethod, "mainConverter", "        ");
+        out.println("    }");
+        out.println();
+
+        for (int start = 0; start < optionMethods.size(); start += OPTIONS_PER_METHOD) {
+            out.println("    private void addOptions" + start / OPTIONS_PER_METHOD + "() throws CommandLineException {");
+            for (int i = start; i < Math.min(start + OPTIONS_PER_METHOD, optionMethods.size()); ++i) {
+                MethodModel model = optionMethods.get(i);
+                String option = "option" + i;
+                boolean allowsArguments = model.methodType != MethodType.Boolean;
+                out.println("        Option " + option + " = new Option(" + literal(model.shortName) + ", "
+                        + literal(model.longName) + ", " + allowsArguments + ", " + literal(model.usage) + ");");
+                out.println("        " + option + ".setRequired(" + model.required + ");");
+                if (allowsArguments) {
+                    out.println("        " + option + ".setType(" + model.elementType + ".class);");
+                    out.println("        " + option + ".setArgs(" + model.maximumArgumentCount + ");");
+                    out.println("        " + option + ".setValueSeparator(" + literal(model.argumentSeparator) + ");");
+                    out.println("        " + option + ".setOptionalArg(" + model.optionalArgument + ");");
+                }
+                out.println("        options.addOption(" + option + ");");
+                if (!lazyOptions) {
+                    writeConverterLookup(out, model, "converters[" + i + "]", "        ");
+                }
+            }
+            out.println("    }");
+            out.println();
+        }
+
+        out.println("    @Override");
+        out.println("    public Options getOptions() {");
+        out.println("        return options;");
+        out.println("    }");
+        out.println();
+
+        // The dispatch method; the options are handled by the helper
+        // methods, which pass on whether main is still to be run
+        out.println("    @Override");
+        out.println("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+        out.println("    public void parseAndRun(" + applicationName + " application, String[] args) throws CommandLineException {");
+        out.println("        CommandLine line;");
+        StringWriter parse = new StringWriter();
+        PrintWriter parseOut = new PrintWriter(parse);
+        parseOut.println("        try {");
+        parseOut.println("            line = new DefaultParser().parse(options, args);");
+        parseOut.println("        } catch (ParseException e) {");
+        parseOut.println("            throw new CommandLineException(\"Unable to parse command line\", e);");
+        parseOut.println("        }");
+        parseOut.flush();
+        writeRecorded(out, "        ", "parsePhase", "parseFailure",
+                "CommandLinePhase.parse(" + applicationName + ".class, \"CommonsCli\", args.length)", parse.toString());
+        out.println();
+        out.println("        boolean runMain = true;");
+        for (int start = 0; start < optionMethods.size(); start += OPTIONS_PER_METHOD) {
+            out.println("        runMain = dispatchOptions" + start / OPTIONS_PER_METHOD + "(application, line, runMain);");
+        }
+        out.println();
+        out.println("        if (runMain) {");
+        out.println("            String[] values = line.getArgs();");
+        StringWriter main = new StringWriter();
+        PrintWriter mainOut = new PrintWriter(main);
+        writeValuesCall(mainOut, mainMethod, "mainConverter", false);
+        mainOut.flush();
+        writeRecorded(out, "            ", "phase", "failure", "CommandLinePhase.main(" + applicationName + ".class, \""
+                + mainMethod.methodType + "\", values.length)", main.toString());
+        out.println("        }");
+        out.println("    }");
+        out.println();
+
+        for (int start = 0; start < optionMethods.size(); start += OPTIONS_PER_METHOD) {
+            out.println("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("    private boolean dispatchOptions" + start / OPTIONS_PER_METHOD + "(" + applicationName
+                    + " application, CommandLine line, boolean runMain) throws CommandLineException {");
+            for (int i = start; i < Math.min(start + OPTIONS_PER_METHOD, optionMethods.size()); ++i) {
+                MethodModel model = optionMethods.get(i);
+                if (i > start) {
+                    out.println();
+                }
+
+                // When short circuiting, an earlier false skips the option
+                String condition = "line.hasOption(" + literal(model.key()) + ")";
+                out.println("        if (" + (shortCircuit ? "runMain && " + condition : condition) + ") {");
+                StringWriter call = new StringWriter();
+                PrintWriter callOut = new PrintWriter(call);
+                String valueCount;
+                if (model.methodType == MethodType.Boolean) {
+                    writeCall(callOut, "            ", model, "", "result");
+                    if (model.returnsBoolean) {
+                        callOut.println("            runMain = result && runMain;");
+                    }
+                    valueCount = "0";
+                } else {
+                    out.println("            String[] values = line.getOptionValues(" + literal(model.key()) + ");");
+                    writeValuesCall(callOut, model, lazyOptions ? "converter" + i + "()" : "converters[" + i + "]", true);
+                    valueCount = "values == null ? 0 : values.length";
+                }
+                callOut.flush();
+                writeRecorded(out, "            ", "phase", "failure", "CommandLinePhase.option(" + applicationName + ".class, "
+                        + literal(model.longName != null ? model.longName : model.shortName) + ", \""
+                        + model.methodType + "\", " + valueCount + ")", call.toString());
+                out.println("        }");
+            }
+            out.println("        return runMain;");
+            out.println("    }");
+            out.println();
+        }
+
+        // The lazy converter lookups
+        if (lazyOptions) {
+            for (int i = 0; i < optionMethods.size(); ++i) {
+                if (needsConverter(optionMethods.get(i))) {
+                    String converter = "converter" + i;
+                    out.println("    private Converter " + converter + "() throws CommandLineException {");
+                    out.println("        Converter converter = " + converter + ";");
+                    out.println("        if (converter == null) {");
+                    writeConverterLookup(out, optionMethods.get(i), "converter", "            ");
+                    out.println("            " + converter + " = converter;");
+                    out.println("        }");
+                    out.println("        return converter;");
+                    out.println("    }");
+                    out.println();
+                }
+            }
+        }
+
+        // Shared converter lookup
+        out.println("    private static Converter lookupConverter(Class<?> type, String methodName) throws CommandLineException {");
+        out.println("        Converter converter = CommandLineConverters.forClass(" + applicationName + ".class).lookup(type);");
+        out.println("        if (converter == null) {");
+        out.println("            throw new CommandLineException(\"Cannot find a conversion from String to \" + type.getName() + \" for method \" + methodName);");
+        out.println("        }");
+        out.println("        return converter;");
+        out.println("    }");
+        out.println("}");
+    }
+
+
+    /**
+     * Determine if a method needs a converter. Strings are passed through
+     * the converter too, as the reflective path does, since the class may
+     * register a converter of its own for them.
+     */
+    private boolean needsConverter(MethodModel model) {
+        return model.methodType != MethodType.Boolean;
+    }
+
+
+    /**
+     * Write the field holding the converter for a method, if it needs one.
+     * A lazily resolved converter may be resolved by several threads at
+     * once, which is harmless, but it has to be published safely.
+     */
+    private void writeConverterField(PrintWriter out, MethodModel model, String converter, boolean lazy) {
+        if (needsConverter(model)) {
+            out.println("    private " + (lazy ? "volatile " : "final ") + "Converter " + converter + ";");
+        }
+    }
+
+
+    /**
+     * Write the converter lookup for a method, if it needs one
+     */
+    private void writeConverterLookup(PrintWriter out, MethodModel model, String converter, String indent) {
+        if (model.mapFile) {
+            out.println(indent + converter + " = CommandLineConversions.toMappedFile(" + model.elementType + ".class);");
+        } else if (needsConverter(model)) {
+            out.println(indent + converter + " = lookupConverter(" + model.elementType + ".class, "
+                    + literal(model.name()) + ");");
+        }
+    }
+
+
+    /**
+     * Write code that is reported as a phase to the metrics listeners
+     * and the flight recorder, as the reflective configuration does
+     *
+     * @param indent The indent of the phase
+     * @param phase The local variable for the phase
+     * @param failure The local variable for the failure
+     * @param begin The expression beginning the phase
+     * @param body The code of the phase, written at the given indent
+     */
+    private void writeRecorded(PrintWriter out, String indent, String phase, String failure, String begin, String body) {
+        out.println(indent + "CommandLinePhase " + phase + " = " + begin + ";");
+        out.println(indent + "Throwable " + failure + " = null;");
+        out.println(indent + "try {");
+        for (String line : body.split("\\R")) {
+            out.println(line.isEmpty() ? line : "    " + line);
+        }
+        out.println(indent + "} catch (CommandLineException | RuntimeException | Error e) {");
+        out.println(indent + "    " + failure + " = e;");
+        out.println(indent + "    throw e;");
+        out.println(indent + "} finally {");
+        out.println(indent + "    if (" + phase + " != null) {");
+        out.println(indent + "        " + phase + ".end(" + failure + ");");
+        out.println(indent + "    }");
+        out.println(indent + "}");
+    }
+
+
+    /**
+     * Write the conversion and call for a method taking values, which are
+     * in the local variable {@code values}.
+     *
+     * @param isOption True for option methods, whose boolean results
+     *                 update {@code runMain}
+     */
+    private void writeValuesCall(PrintWriter out, MethodModel model, String converter, boolean isOption) {
+        String elementType = model.elementType.toString();
+        String result = isOption && model.returnsBoolean ? "result" : null;
+        switch (model.methodType) {
+            case Scalar:
+            case Supplier: {
+
+                // Called once per value, stopping if the method returns false. An
+                // optional argument that was not given is passed as null. A
+                // supplier converts its value only if the method asks for it
+                String parameterType = elementType;
+                String converted = conversion(model, converter, "value");
+                if (model.methodType == MethodType.Supplier) {
+                    parameterType = model.method.getParameters().get(0).asType().toString();
+                    converted = "CommandLineConversions.toSupplier(" + converter + ", " + elementType + ".class, value)";
+                }
+                out.println("            if (values == null) {");
+                if (model.elementType.getKind().isPrimitive()) {
+                    out.println("                throw new CommandLineException(\"No value given for method " + model.name() + "\");");
+                } else {
+                    writeCall(out, "                ", model, "null", null);
+                }
+                out.println("            } else {");
+                out.println("                for (String value : values) {");
+                out.println("                    " + parameterType + " converted = " + converted + ";");
+                writeCall(out, "                    ", model, "converted", result);
+                if (result != null) {
+                    out.println("                    if (!result) {");
+                    out.println("                        runMain = false;");
+                    out.println("                        break;");
+                    out.println("                    }");
+                }
+                out.println("                }");
+                out.println("            }");
+                return;
+            }
+            case Array: {
+                String primitiveName = primitiveName(model.elementType);
+                if (model.parallelConversion) {
+
+                    // Large arrays are converted on the fork-join pool
+                    out.println("            " + elementType + "[] array = (" + elementType + "[]) CommandLineConversions.toArray("
+                            + converter + ", " + elementType + ".class, values, true);");
+                    writeCall(out, "            ", model, "array", result);
+                    break;
+                }
+                if (primitiveName != null) {
+
+                    // The common primitives are converted without boxing
+                    out.println("            " + elementType + "[] array = CommandLineConversions.to" + primitiveName
+                            + "Array(" + converter + ", values);");
+                    writeCall(out, "            ", model, "array", result);
+                    break;
+                }
+                out.println("            " + elementType + "[] array;");
+                out.println("            if (values == null) {");
+                out.println("                array = new " + elementType + "[0];");
+                out.println("            } else {");
+                out.println("                array = new " + elementType + "[values.length];");
+                out.println("                for (int i = 0; i < values.length; ++i) {");
+                out.println("                    array[i] = " + conversion(model, converter, "values[i]") + ";");
+                out.println("                }");
+                out.println("            }");
+                writeCall(out, "            ", model, "array", result);
+                break;
+            }
+            case PrimitiveStream: {
+                out.println("            " + model.method.getParameters().get(0).asType() + " stream = CommandLineConversions.to"
+                        + primitiveName(model.elementType) + "Stream(" + converter + ", values);");
+                writeCall(out, "            ", model, "stream", result);
+                break;
+            }
+            case Stream:
+            case Iterator:
+            case Iterable: {
+
+                // The values are converted as the method reads them
+                String parameterType = model.method.getParameters().get(0).asType().toString();
+                out.println("            " + parameterType + " view = CommandLineConversions.to" + model.methodType
+                        + "(" + converter + ", " + elementType + ".class, values);");
+                writeCall(out, "            ", model, "view", result);
+                break;
+            }
+            case List: {
+                if (model.parallelConversion) {
+                    out.println("            java.util.List list = CommandLineConversions.toList("
+                            + converter + ", " + elementType + ".class, values, true);");
+                    writeCall(out, "            ", model, "list", result);
+                    break;
+                }
+                out.println("            java.util.List list = new java.util.ArrayList();");
+                out.println("            if (values != null) {");
+                out.println("                for (String value : values) {");
+                out.println("                    list.add(" + conversion(model, converter, "value") + ");");
+                out.println("                }");
+                out.println("            }");
+                writeCall(out, "            ", model, "list", result);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unexpected method type " + model.methodType);
+        }
+        if (result != null) {
+            out.println("            runMain = result && runMain;");
+        }
+    }
+
+
+    /**
+     * Write a call to the method. Exceptions thrown by the method are
+     * wrapped the same way the reflective invocation wraps them.
+     *
+     * @param result The local variable for the boolean result, or null
+     *               if the result is not used
+     */
+    private void writeCall(PrintWriter out, String indent, MethodModel model, String argument, String result) {
+        String call = "application." + model.name() + "(" + argument + ")";
+        if (result != null && model.returnsBoolean) {
+            out.println(indent + "boolean " + result + ";");
+            call = result + " = " + call;
+        }
+        out.println(indent + "try {");
+        out.println(indent + "    " + call + ";");
+        out.println(indent + "} catch (Exception e) {");
+        out.println(indent + "    throw new CommandLineException(\"Unable to invoke method " + model.name() + "\", e);");
+        out.println(indent + "}");
+    }
+
+
+    /**
+     * Get the expression converting a string value to the element type.
+     * Converter.convert is generic, so the result needs no cast; for a
+     * primitive it is the boxed type, which is unboxed where it is used.
+     */
+    private String conversion(MethodModel model, String converter, String value) {
+        return converter + ".convert(" + model.elementType + ".class, " + value + ")";
+    }
+
+
+    /**
+     * Get the name used by CommandLineConversions for a primitive
+     * element type, or null if it has no direct conversion
+     */
+    private static String primitiveName(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return "Int";
+            case LONG:
+                return "Long";
+            case DOUBLE:
+                return "Double";
+            case BOOLEAN:
+                return "Boolean";
+            default:
+                return null;
+        }
+    }
+
+
+    private String literal(Object value) {
+        return value == null ? "null" : processingEnv.getElementUtils().getConstantExpression(value);
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CommandLineArgumentFilesTest {
+
+    @CommandLineConfiguration(argumentFiles = true)
+    public static class Indexer extends CommandLineApplication {
+
+        @CommandLineOption(shortForm = "v", usage = "Verbose")
+        public void verbose() {
+        }
+
+        @CommandLineOption(longForm = "name", usage = "A name")
+        public void name(String name) {
+        }
+
+        @CommandLineOption(longForm = "sizes", usage = "Some sizes", maximumArgumentCount = 3)
+        public void sizes(int[] sizes) {
+        }
+
+        @CommandLineMain
+        public void run(String[] files) {
+        }
+    }
+
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private Path write(String contents) throws Exception {
+        return write(contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path write(byte[] contents) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, contents);
+        return file;
+    }
+
+
+    @Test
+    public void emptyFilesHaveNoArguments() throws Exception {
+        assertEquals(Collections.emptyList(), CommandLineArgumentFiles.read(write("")));
+        assertEquals(Collections.emptyList(), CommandLineArgumentFiles.read(write(" \t\r\n\n  ")));
+        assertEquals(Collections.emptyList(), CommandLineArgumentFiles.read(write("# only a comment")));
+        assertEquals(Collections.emptyList(), CommandLineArgumentFiles.read(write("# one\n  # two\r\n")));
+    }
+
+
+    @Test
+    public void argumentsAreSplitLikeTheJavaLauncher() throws Exception {
+        Path file = write("-v --name 'two words'\n"
+                + "# a comment with \"quotes\n"
+                + "a\"b c\"d \"\" C:\\temp\\x \"tab\\there\" x#y\n"
+                + "caf\u00e9 last");
+        assertEquals(Arrays.asList("-v", "--name", "two words", "ab cd", "", "C:\\temp\\x", "tab\there",
+                "x#y", "caf\u00e9", "last"), CommandLineArgumentFiles.read(file));
+    }
+
+
+    @Test
+    public void argumentFilesAreExpandedInPlace() throws Exception {
+        Path file = write("b c\n");
+        Path empty = write("");
+        String[] args = {"a", "@" + file, "@" + empty, "@@literal", "@", "d"};
+        assertArrayEquals(new String[]{"a", "b", "c", "@literal", "@", "d"}, CommandLineArgumentFiles.expand(args));
+
+        String[] plain = {"a", "b"};
+        assertSame(plain, CommandLineArgumentFiles.expand(plain));
+    }
+
+
+    @Test
+    public void unterminatedQuotesAreReported() throws Exception {
+        try {
+            CommandLineArgumentFiles.read(write("a 'b c"));
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+        try {
+            CommandLineArgumentFiles.split("\"open");
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void invalidFilesAreReported() throws Exception {
+        try {
+            CommandLineArgumentFiles.read(write(new byte[]{'a', ' ', (byte) 0xc3}));
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+        try {
+            CommandLineArgumentFiles.read(folder.getRoot().toPath().resolve("missing"));
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void expandedArgumentsAreParsedAsTheyAreRead() throws Exception {
+
+        // Enough arguments to take many decoding buffers, with options
+        // and values spread across the file
+        List<String> expected = new ArrayList<>();
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) {
+            String argument = i % 1000 == 0 ? "--sizes" : i % 1000 < 4 ? Integer.toString(i) : "file" + i;
+            expected.add(argument);
+            contents.append(argument).append(i % 7 == 0 ? "\n" : " ");
+        }
+        Path file = write(contents.toString());
+
+        CommandLineInterpreter<Indexer> interpreter = CommandLineInterpreter.forClass(Indexer.class);
+        ParsedCommandLine streamed = interpreter.parse("-v", "@" + file, "--name", "@@x");
+        expected.add(0, "-v");
+        expected.add("--name");
+        expected.add("@x");
+        ParsedCommandLine parsed = new CommandLineTokenizer(CommandLineMetadata.forClass(Indexer.class))
+                .parse(expected.toArray(new String[expected.size()]));
+
+        assertEquals(parsed.getArguments(), streamed.getArguments());
+        assertArrayEquals(parsed.getOptionValues("sizes"), streamed.getOptionValues("sizes"));
+        assertEquals(60, streamed.getOptionValues("sizes").length);
+        assertArrayEquals(new String[]{"@x"}, streamed.getOptionValues("name"));
+        assertNull(streamed.getOptionValues("v"));
+    }
+
+
+    @Test
+    public void unreadableArgumentFilesFailTheParse() throws Exception {
+        CommandLineInterpreter<Indexer> interpreter = CommandLineInterpreter.forClass(Indexer.class);
+        try {
+            interpreter.parse("-v", "@" + folder.getRoot().toPath().resolve("missing"));
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+        try {
+            interpreter.parse("@" + write("a 'b"));
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void linesAreSplitLikeFiles() throws Exception {
+        assertEquals(Arrays.asList("a", "b c"), CommandLineArgumentFiles.split("a 'b c'"));
+        assertEquals(Collections.emptyList(), CommandLineArgumentFiles.split("   "));
+        assertEquals(Collections.emptyList(), CommandLineArgumentFiles.split("# comment"));
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.hablutzel.cmdline;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandLineAsyncOptionsTest {
+
+    /**
+     * Two options that each wait for the other to have started
+     */
+    public static class Together extends CommandLineApplication {
+        final CountDownLatch started = new CountDownLatch(2);
+        boolean ranMain;
+
+        @CommandLineOption(longForm = "first", usage = "Waits for the second")
+        public CompletableFuture<Void> first() {
+            return meet();
+        }
+
+        @CommandLineOption(longForm = "second", usage = "Waits for the first")
+        public CompletableFuture<Void> second() {
+            return meet();
+        }
+
+        private CompletableFuture<Void> meet() {
+            started.countDown();
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    if (!started.await(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("The options did not run at the same time");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            ranMain = true;
+        }
+    }
+
+
+    /**
+     * One option's future fails once the other's has been returned,
+     * which never completes on its own
+     */
+    public static class Failing extends CommandLineApplication {
+        final CommandLineException failure = new CommandLineException("Broken");
+        final CompletableFuture<Void> failing = new CompletableFuture<>();
+        final CompletableFuture<Void> pending = new CompletableFuture<>();
+        boolean ranMain;
+
+        @CommandLineOption(longForm = "fail", usage = "Fails")
+        public CompletableFuture<Void> fail() {
+            return failing;
+        }
+
+        @CommandLineOption(longForm = "hang", usage = "Never finishes")
+        public CompletableFuture<Void> hang() {
+            failing.completeExceptionally(failure);
+            return pending;
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            ranMain = true;
+        }
+    }
+
+
+    /**
+     * An option whose future gives false, and one that gives nothing
+     */
+    public static class Declining extends CommandLineApplication {
+        boolean ranOther;
+        boolean ranMain;
+
+        @CommandLineOption(longForm = "decline", usage = "Gives false")
+        public CompletableFuture<Boolean> decline() {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        @CommandLineOption(longForm = "other", usage = "Gives nothing")
+        public CompletableFuture<Void> other() {
+            ranOther = true;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            ranMain = true;
+        }
+    }
+
+
+    /**
+     * An option whose future never completes on its own
+     */
+    public static class Waiting extends CommandLineApplication {
+        final CountDownLatch called = new CountDownLatch(1);
+        final CompletableFuture<Void> pending = new CompletableFuture<>();
+
+        @CommandLineOption(longForm = "wait", usage = "Never finishes")
+        public CompletableFuture<Void> waitForever() {
+            called.countDown();
+            return pending;
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            fail("main should not be called");
+        }
+    }
+
+
+    @Test
+    public void slowOptionsRunAtTheSameTime() throws Exception {
+        Together application = new Together();
+        application.parseAndRun(new String[]{"--first", "--second"});
+        assertEquals(0, application.started.getCount());
+        assertTrue(application.ranMain);
+    }
+
+
+    @Test
+    public void aFailureCancelsTheOtherOptionsAndIsThrownAtOnce() throws Exception {
+        Failing application = new Failing();
+        try {
+            application.parseAndRun(new String[]{"--fail", "--hang"});
+            fail();
+        } catch (CommandLineException e) {
+            assertSame(application.failure, e);
+        }
+        assertCancelled(application.pending);
+        assertFalse(application.ranMain);
+    }
+
+
+    @Test
+    public void falseFromAFutureSuppressesMain() throws Exception {
+        Declining application = new Declining();
+        application.parseAndRun(new String[]{"--decline", "--other"});
+        assertTrue(application.ranOther);
+        assertFalse(application.ranMain);
+    }
+
+
+    @Test
+    public void interruptionCancelsTheStartedOptions() throws Exception {
+        Waiting application = new Waiting();
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            try {
+                application.parseAndRun(new String[]{"--wait"});
+            } catch (Throwable e) {
+                thrown.set(e);
+            }
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        thread.start();
+        assertTrue(application.called.await(10, TimeUnit.SECONDS));
+        thread.interrupt();
+        thread.join(10000);
+
+        assertFalse(thread.isAlive());
+        assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof CommandLineException);
+        assertTrue(thrown.get().getCause() instanceof InterruptedException);
+        assertTrue(interrupted.get());
+
+        assertCancelled(application.pending);
+    }
+
+
+    /**
+     * Check that a future returned by an option method is cancelled. The
+     * cancellation is passed on from the executor's thread, so it may not
+     * have happened yet.
+     */
+    private static void assertCancelled(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+}
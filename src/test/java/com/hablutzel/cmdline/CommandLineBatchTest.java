@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.hablutzel.cmdline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandLineBatchTest {
+
+    /**
+     * An application with an asynchronous option, which writes from
+     * the option executor's threads
+     */
+    public static class Loader extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "load", usage = "The value to load")
+        public CompletableFuture<Void> load(String value) {
+            System.out.println("loaded " + value);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            System.out.println("main " + String.join(" ", arguments));
+        }
+    }
+
+
+    /**
+     * An application whose command lines can take different times,
+     * set an exit status, or fail
+     */
+    public static class Echo extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "sleep", usage = "Milliseconds to wait")
+        public void sleep(int milliseconds) {
+            try {
+                Thread.sleep(milliseconds);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @CommandLineOption(longForm = "status", usage = "The exit status")
+        public void status(int status) {
+            CommandLineContext.current().setExitStatus(status);
+        }
+
+        @CommandLineOption(longForm = "fail", usage = "Throw")
+        public void fail() {
+            throw new IllegalStateException("failed");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            System.out.println(String.join("|", arguments));
+        }
+    }
+
+
+    public static class Broken extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "pair", usage = "Takes two values")
+        public void pair(String first, String second) {
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    /**
+     * Runs another command line from inside its own, and records
+     * the context it is left in
+     */
+    public static class Nesting extends CommandLineApplication {
+        static CommandLineContext after;
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            assertEquals(0, newContext().run(Echo::new, arguments));
+            after = CommandLineContext.current();
+        }
+    }
+
+
+    private static CommandLineContext newContext() {
+        return new CommandLineContext(Paths.get("").toAbsolutePath(), Collections.<String, String>emptyMap(),
+                new ByteArrayInputStream(new byte[0]), new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(new ByteArrayOutputStream()));
+    }
+
+
+    private static List<CommandLineBatch.Result> run(int concurrency, String lines) throws Exception {
+        List<CommandLineBatch.Result> results = new ArrayList<>();
+        new CommandLineBatch<>(Echo.class, Echo::new, concurrency).run(new StringReader(lines), results::add);
+        return results;
+    }
+
+
+    @Test
+    public void resultsArePassedBackInTheOrderOfTheLines() throws Exception {
+
+        // The earlier lines take longer, so they finish last
+        StringBuilder lines = new StringBuilder();
+        for (int i = 1; i <= 8; ++i) {
+            lines.append("--sleep ").append(10 * (8 - i)).append(" line").append(i).append('\n');
+        }
+        List<CommandLineBatch.Result> results = run(4, lines.toString());
+
+        assertEquals(8, results.size());
+        for (int i = 1; i <= 8; ++i) {
+            CommandLineBatch.Result result = results.get(i - 1);
+            assertEquals(i, result.getLineNumber());
+            assertEquals("line" + i + System.lineSeparator(), result.getOutput());
+        }
+    }
+
+
+    @Test
+    public void linesAreSplitLikeArgumentFiles() throws Exception {
+        List<CommandLineBatch.Result> results = run(2, "\n  \n# a comment\n'a b' \"c d\" e # the rest\n");
+
+        assertEquals(1, results.size());
+        CommandLineBatch.Result result = results.get(0);
+        assertEquals(4, result.getLineNumber());
+        assertEquals(Arrays.asList("a b", "c d", "e"), result.getArguments());
+        assertEquals("a b|c d|e" + System.lineSeparator(), result.getOutput());
+    }
+
+
+    @Test
+    public void exitStatusesAreReported() throws Exception {
+        List<CommandLineBatch.Result> results = new ArrayList<>();
+        CommandLineBatch.Summary summary = new CommandLineBatch<>(Echo.class, Echo::new, 2).run(
+                new StringReader("ok\n--status 3\n--fail\n\"unterminated\n--nothing\n"), results::add);
+
+        assertEquals(5, results.size());
+        assertEquals(0, results.get(0).getExitStatus());
+        assertEquals(3, results.get(1).getExitStatus());
+        assertEquals(1, results.get(2).getExitStatus());
+        assertEquals("", results.get(2).getOutput());
+
+        // A line that can't be split is not run
+        assertEquals(CommandLineBatch.INVALID_LINE, results.get(3).getExitStatus());
+        assertTrue(results.get(3).getError(), results.get(3).getError().startsWith("Line 4: "));
+        assertEquals(1, results.get(4).getExitStatus());
+
+        assertEquals(5, summary.getCount());
+        assertEquals(4, summary.getFailed());
+        assertTrue(summary.getLongestNanos() <= summary.getTotalNanos());
+    }
+
+
+    @Test
+    public void aBrokenClassIsReportedOnce() throws Exception {
+        List<CommandLineBatch.Result> results = new ArrayList<>();
+        try {
+            new CommandLineBatch<>(Broken.class, Broken::new, 2).run(new StringReader("a\nb\n"), results::add);
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+        assertEquals(0, results.size());
+    }
+
+
+    @Test
+    public void asynchronousOptionsWriteToTheirOwnLine() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 1; i <= 6; ++i) {
+            lines.append("--load ").append(i).append(" line").append(i).append('\n');
+        }
+        List<CommandLineBatch.Result> results = new ArrayList<>();
+        new CommandLineBatch<>(Loader.class, Loader::new, 2).run(new StringReader(lines.toString()), results::add);
+
+        assertEquals(6, results.size());
+        for (CommandLineBatch.Result result : results) {
+            int i = result.getLineNumber();
+            assertEquals(0, result.getExitStatus());
+            assertEquals("loaded " + i + System.lineSeparator() + "main line" + i + System.lineSeparator(),
+                    result.getOutput());
+        }
+    }
+
+
+    @Test
+    public void aNestedCommandLineRestoresTheContext() throws Exception {
+        CommandLineContext outer = newContext();
+        assertEquals(0, outer.run(Nesting::new, new String[]{"inner"}));
+        assertSame(outer, Nesting.after);
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.Converter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandLineCompletionTest {
+
+    public enum Format {
+        Json, Text, Table
+    }
+
+    public enum Mode {
+        Fast, Slow
+    }
+
+
+    /**
+     * Converts the names of the constants of an enum
+     */
+    private static <E extends Enum<E>> Converter enumConverter(final Class<E> enumType) {
+        return new Converter() {
+            @Override
+            public <T> T convert(Class<T> type, Object value) {
+                return type.cast(Enum.valueOf(enumType, value.toString()));
+            }
+        };
+    }
+
+
+    // Completion looks at the classes without initializing them, so
+    // the converters are registered here rather than in the classes
+    static {
+        CommandLineConverters.forClass(Tool.class).register(Format.class, enumConverter(Format.class));
+        CommandLineConverters.forClass(Search.class).register(Mode.class, enumConverter(Mode.class));
+    }
+
+
+    @CommandLineSubcommand(name = "search", className = "com.hablutzel.cmdline.CommandLineCompletionTest$Search",
+            usage = "Search the index")
+    public static class Tool extends CommandLineApplication {
+        @CommandLineOption(shortForm = "v", longForm = "verbose", usage = "Verbose")
+        public void verbose() {
+        }
+
+        @CommandLineOption(longForm = "format", usage = "The output format")
+        public void format(Format format) {
+        }
+
+        @CommandLineOption(longForm = "force", usage = "Overwrite")
+        public void force(boolean force) {
+        }
+
+        @CommandLineOption(longForm = "output", usage = "The output file")
+        public void output(File output) {
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    public static class Search extends CommandLineApplication {
+        @CommandLineOption(longForm = "mode", usage = "How to search")
+        public void mode(Mode mode) {
+        }
+
+        @CommandLineOption(longForm = "limit", usage = "The most results")
+        public void limit(int limit) {
+        }
+
+        @CommandLineMain
+        public void run(String[] terms) {
+        }
+    }
+
+
+    private static List<String> complete(int index, String... words) throws CommandLineException {
+        return CommandLineCompletion.complete(Tool.class, Arrays.asList(words), index);
+    }
+
+
+    @Test
+    public void optionsAreCompletedByPrefix() throws Exception {
+        assertEquals(Arrays.asList("--force", "--format"), complete(0, "--f"));
+        assertEquals(Arrays.asList("--output"), complete(1, "x", "--o"));
+        assertEquals(Arrays.asList("--force", "--format", "--output", "--verbose", "-v"), complete(0, "-"));
+        assertEquals(Collections.emptyList(), complete(0, "--nothing"));
+    }
+
+
+    @Test
+    public void valuesAreCompletedAfterTheirOption() throws Exception {
+        assertEquals(Arrays.asList("Json", "Table", "Text"), complete(1, "--format"));
+        assertEquals(Arrays.asList("Table", "Text"), complete(1, "--format", "T"));
+        assertEquals(Arrays.asList("false", "true"), complete(1, "--force", ""));
+
+        // Nothing particular for a file, so the shell completes file names
+        assertEquals(Collections.emptyList(), complete(1, "--output"));
+    }
+
+
+    @Test
+    public void valuesAreCompletedAfterAnEqualsSign() throws Exception {
+        assertEquals(Arrays.asList("--format=Json", "--format=Table", "--format=Text"), complete(0, "--format="));
+        assertEquals(Arrays.asList("--format=Json"), complete(0, "--format=J"));
+        assertEquals(Collections.emptyList(), complete(0, "--verbose="));
+    }
+
+
+    @Test
+    public void subcommandsAreCompleted() throws Exception {
+        assertEquals(Arrays.asList("search"), complete(0, ""));
+        assertEquals(Arrays.asList("search"), complete(0, "se"));
+
+        // Once named, a subcommand completes its own options and values
+        assertEquals(Arrays.asList("--limit"), complete(1, "search", "--l"));
+        assertEquals(Arrays.asList("Fast", "Slow"), complete(2, "search", "--mode"));
+        assertEquals(Arrays.asList("--mode=Slow"), complete(1, "search", "--mode=S"));
+
+        // Subcommands are only named first
+        assertEquals(Collections.emptyList(), complete(1, "x", "se"));
+    }
+
+
+    @Test
+    public void positionsOutsideTheCommandLineFail() throws Exception {
+        try {
+            complete(2, "--format");
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void theHiddenOptionPrintsTheCandidates() throws Exception {
+        PrintStream original = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            new Tool().parseAndRun(new String[]{"--cmdline-complete", "1", "--format", "J"});
+        } finally {
+            System.setOut(original);
+        }
+        assertEquals("Json" + System.lineSeparator(), output.toString("UTF-8"));
+    }
+
+
+    @Test
+    public void bashScriptCompletes() throws Exception {
+        String script = CommandLineCompletion.script(Tool.class, "tool", CommandLineCompletion.Shell.Bash);
+        assertTrue(script, script.contains("complete -o bashdefault -o default -F _tool_complete tool\n"));
+
+        assertEquals("--force --format", bashComplete(script, "tool", "--f"));
+        assertEquals("Json Table Text", bashComplete(script, "tool", "--format", ""));
+        assertEquals("Json", bashComplete(script, "tool", "--format", "=", "J"));
+        assertEquals("search", bashComplete(script, "tool", "s"));
+        assertEquals("Fast Slow", bashComplete(script, "tool", "search", "--mode", ""));
+        assertEquals("--limit", bashComplete(script, "tool", "search", "--l"));
+    }
+
+
+    @Test
+    public void zshScriptUsesTheBashFunction() throws Exception {
+        String bash = CommandLineCompletion.script(Tool.class, "tool", CommandLineCompletion.Shell.Bash);
+        String zsh = CommandLineCompletion.script(Tool.class, "tool", CommandLineCompletion.Shell.Zsh);
+        assertTrue(zsh, zsh.contains("autoload -U +X bashcompinit && bashcompinit\n"));
+        assertTrue(zsh, zsh.endsWith(bash.substring(bash.indexOf('\n') + 1)));
+    }
+
+
+    @Test
+    public void fishScriptListsOptionsValuesAndSubcommands() throws Exception {
+        String script = CommandLineCompletion.script(Tool.class, "tool", CommandLineCompletion.Shell.Fish);
+        List<String> lines = Arrays.asList(script.split("\n"));
+        String top = "complete -c tool -n 'not __fish_seen_subcommand_from search'";
+        assertTrue(script, lines.contains("complete -c tool -n '__fish_use_subcommand' -f -a 'search' -d 'Search the index'"));
+        assertTrue(script, lines.contains(top + " -s v -l verbose -d 'Verbose'"));
+        assertTrue(script, lines.contains(top + " -l format -x -a 'Json Table Text' -d 'The output format'"));
+        assertTrue(script, lines.contains(top + " -l output -r -d 'The output file'"));
+        assertTrue(script, lines.contains("complete -c tool -n '__fish_seen_subcommand_from search' -l mode -x -a 'Fast Slow' -d 'How to search'"));
+    }
+
+
+    /**
+     * Run a bash completion function the way bash does on Tab, for
+     * the last word, and return the candidates separated by spaces
+     */
+    private static String bashComplete(String script, String... words) throws Exception {
+        Path file = Files.createTempFile("cmdline-completion", ".bash");
+        try {
+            Files.write(file, script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder array = new StringBuilder();
+            for (String word : words) {
+                array.append(" '").append(word).append('\'');
+            }
+            String command = "source '" + file + "'; COMP_WORDS=(" + array + "); COMP_CWORD=" + (words.length - 1)
+                    + "; _tool_complete; echo \"${COMPREPLY[*]}\"";
+            Process process = new ProcessBuilder("bash", "-c", command).redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            assertEquals(output, 0, process.waitFor());
+            return output;
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.ConversionException;
+import org.apache.commons.beanutils.Converter;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CommandLineConversionsTest {
+
+    // Values the standard converters parse, and values they don't
+    private static final String[] VALUES = {
+            "0", "12", " 12 ", "-3", "+5", "2147483648", "9223372036854775808", "1.5", "1e3", "-0.0",
+            "NaN", "Infinity", "0x10", "", " ", "x", "true", "TRUE", "yes", "Y", "on", "1",
+            "false", "No", "off", "n", "maybe"
+    };
+
+
+    public static class Primitives extends CommandLineApplication {
+        int[] ids;
+        long[] sizes;
+        double[] weights;
+        boolean[] flags;
+        int total;
+        long[] arguments;
+
+        @CommandLineOption(longForm = "ids", usage = "Ids", maximumArgumentCount = -2)
+        public void setIds(int[] ids) {
+            this.ids = ids;
+        }
+
+        @CommandLineOption(longForm = "sizes", usage = "Sizes", maximumArgumentCount = -2)
+        public void setSizes(long[] sizes) {
+            this.sizes = sizes;
+        }
+
+        @CommandLineOption(longForm = "weights", usage = "Weights", maximumArgumentCount = -2)
+        public void setWeights(double[] weights) {
+            this.weights = weights;
+        }
+
+        @CommandLineOption(longForm = "flags", usage = "Flags", maximumArgumentCount = -2)
+        public void setFlags(boolean[] flags) {
+            this.flags = flags;
+        }
+
+        @CommandLineOption(longForm = "sum", usage = "Values to add", maximumArgumentCount = -2)
+        public void setSum(IntStream values) {
+            this.total = values.sum();
+        }
+
+        @CommandLineMain
+        public void run(long[] arguments) {
+            this.arguments = arguments;
+        }
+    }
+
+
+    public static class Doubled extends CommandLineApplication {
+        static {
+            CommandLineConverters.forClass(Doubled.class).register(Integer.class, new Converter() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <T> T convert(Class<T> type, Object value) {
+                    return (T) Integer.valueOf(2 * Integer.parseInt(value.toString()));
+                }
+            });
+        }
+
+        int[] ids;
+
+        @CommandLineOption(longForm = "ids", usage = "Ids", maximumArgumentCount = -2)
+        public void setIds(int[] ids) {
+            this.ids = ids;
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    /**
+     * A value whose conversions are counted
+     */
+    public static class Counted {
+        static final AtomicInteger conversions = new AtomicInteger();
+
+        final String value;
+
+        Counted(String value) {
+            this.value = value;
+        }
+    }
+
+    private static final Converter COUNTING = new Converter() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T convert(Class<T> type, Object value) {
+            Counted.conversions.incrementAndGet();
+            return (T) new Counted(value.toString());
+        }
+    };
+
+
+    public static class Streamed extends CommandLineApplication {
+        static {
+            CommandLineConverters.forClass(Streamed.class).register(Counted.class, COUNTING);
+        }
+
+        final List<String> read = new ArrayList<>();
+        final List<Integer> conversions = new ArrayList<>();
+
+        @CommandLineMain
+        public void run(Stream<Counted> values) {
+            values.limit(2).forEach(value -> {
+                read.add(value.value);
+                conversions.add(Counted.conversions.get());
+            });
+        }
+    }
+
+
+    public static class Iterated extends CommandLineApplication {
+        static {
+            CommandLineConverters.forClass(Iterated.class).register(Counted.class, COUNTING);
+        }
+
+        final List<String> read = new ArrayList<>();
+
+        @CommandLineMain
+        public void run(Iterator<? extends Counted> values) {
+            read.add(values.next().value);
+        }
+    }
+
+
+    public static class Reread extends CommandLineApplication {
+        static {
+            CommandLineConverters.forClass(Reread.class).register(Counted.class, COUNTING);
+        }
+
+        final List<String> read = new ArrayList<>();
+
+        @CommandLineMain
+        public void run(Iterable<Counted> values) {
+            for (int pass = 0; pass < 2; ++pass) {
+                for (Counted value : values) {
+                    read.add(value.value);
+                }
+            }
+        }
+    }
+
+
+    public static class Supplied extends CommandLineApplication {
+        static {
+            CommandLineConverters.forClass(Supplied.class).register(Counted.class, COUNTING);
+        }
+
+        final List<Supplier<Counted>> schemas = new ArrayList<>();
+        final List<Supplier<Counted>> values = new ArrayList<>();
+
+        @CommandLineOption(longForm = "schema", usage = "The schema", optionalArgument = true)
+        public void setSchema(Supplier<Counted> schema) {
+            schemas.add(schema);
+        }
+
+        @CommandLineMain
+        public void run(Supplier<Counted> value) {
+            values.add(value);
+        }
+    }
+
+
+    /**
+     * Fails the first time each value is converted
+     */
+    public static class Flaky extends CommandLineApplication {
+        static final List<String> failed = new ArrayList<>();
+        static {
+            CommandLineConverters.forClass(Flaky.class).register(Counted.class, new Converter() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <T> T convert(Class<T> type, Object value) {
+                    if (!failed.contains(value.toString())) {
+                        failed.add(value.toString());
+                        throw new ConversionException("Not yet");
+                    }
+                    return (T) new Counted(value.toString());
+                }
+            });
+        }
+
+        Supplier<Counted> value;
+
+        @CommandLineMain
+        public void run(Supplier<Counted> value) {
+            this.value = value;
+        }
+    }
+
+
+    public static class Names extends CommandLineApplication {
+        List<String> names;
+
+        @CommandLineMain
+        public void run(Stream<File> files) {
+            names = files.map(File::getName).collect(Collectors.toList());
+        }
+    }
+
+
+    @Test
+    public void directParsingMatchesTheStandardConverters() {
+        CommandLineConverters converters = CommandLineConverters.forClass(CommandLineConversionsTest.class);
+        Converter intConverter = converters.lookup(int.class);
+        Converter longConverter = converters.lookup(long.class);
+        Converter doubleConverter = converters.lookup(double.class);
+        Converter booleanConverter = converters.lookup(boolean.class);
+        for (String value : VALUES) {
+            assertEquals(value, outcome(() -> intConverter.convert(Integer.class, value)),
+                    outcome(() -> CommandLineConversions.toInt(intConverter, value)));
+            assertEquals(value, outcome(() -> longConverter.convert(Long.class, value)),
+                    outcome(() -> CommandLineConversions.toLong(longConverter, value)));
+            assertEquals(value, outcome(() -> doubleConverter.convert(Double.class, value)),
+                    outcome(() -> CommandLineConversions.toDouble(doubleConverter, value)));
+            assertEquals(value, outcome(() -> booleanConverter.convert(Boolean.class, value)),
+                    outcome(() -> CommandLineConversions.toBoolean(booleanConverter, value)));
+        }
+    }
+
+
+    @Test
+    public void primitiveArraysAndStreams() throws Exception {
+        Primitives primitives = new Primitives();
+        CommandLineInterpreter.forClass(Primitives.class).run(primitives,
+                "--ids", "1,-2,3", "--sizes", "4294967296", "--weights", "0.5,2",
+                "--flags", "true,no,1", "--sum", "1,2,3,4", "--", "7", "8");
+        assertArrayEquals(new int[]{1, -2, 3}, primitives.ids);
+        assertArrayEquals(new long[]{4294967296L}, primitives.sizes);
+        assertArrayEquals(new double[]{0.5, 2}, primitives.weights, 0);
+        assertArrayEquals(new boolean[]{true, false, true}, primitives.flags);
+        assertEquals(10, primitives.total);
+        assertArrayEquals(new long[]{7, 8}, primitives.arguments);
+    }
+
+
+    @Test
+    public void largePrimitiveArrays() throws Exception {
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < 50000; ++i) {
+            ids.append(i == 0 ? "" : ",").append(i);
+        }
+        Primitives primitives = new Primitives();
+        CommandLineInterpreter.forClass(Primitives.class).run(primitives, "--ids", ids.toString());
+        assertEquals(50000, primitives.ids.length);
+        for (int i = 0; i < primitives.ids.length; ++i) {
+            assertEquals(i, primitives.ids[i]);
+        }
+    }
+
+
+    @Test
+    public void customConvertersAreUsedForEachElement() throws Exception {
+        Doubled doubled = new Doubled();
+        CommandLineInterpreter.forClass(Doubled.class).run(doubled, "--ids", "1,2,3");
+        assertArrayEquals(new int[]{2, 4, 6}, doubled.ids);
+    }
+
+
+    @Test
+    public void streamedArgumentsAreConvertedAsTheyAreRead() throws Exception {
+        Streamed streamed = new Streamed();
+        int before = Counted.conversions.get();
+        CommandLineInterpreter.forClass(Streamed.class).run(streamed, "a", "b", "c", "d");
+        assertEquals(Arrays.asList("a", "b"), streamed.read);
+        assertEquals(Arrays.asList(before + 1, before + 2), streamed.conversions);
+        assertEquals(before + 2, Counted.conversions.get());
+    }
+
+
+    @Test
+    public void iteratorArgumentsAreConvertedAsTheyAreRead() throws Exception {
+        Iterated iterated = new Iterated();
+        int before = Counted.conversions.get();
+        CommandLineInterpreter.forClass(Iterated.class).run(iterated, "a", "b", "c");
+        assertEquals(Arrays.asList("a"), iterated.read);
+        assertEquals(before + 1, Counted.conversions.get());
+    }
+
+
+    @Test
+    public void everyIterationConvertsTheArgumentsAgain() throws Exception {
+        Reread reread = new Reread();
+        int before = Counted.conversions.get();
+        CommandLineInterpreter.forClass(Reread.class).run(reread, "a", "b");
+        assertEquals(Arrays.asList("a", "b", "a", "b"), reread.read);
+        assertEquals(before + 4, Counted.conversions.get());
+    }
+
+
+    @Test
+    public void suppliedValuesAreConvertedWhenAsked() throws Exception {
+        Supplied supplied = new Supplied();
+        int before = Counted.conversions.get();
+        CommandLineInterpreter.forClass(Supplied.class).run(supplied, "--schema=s", "a", "b");
+
+        // The main method is called once for each value, and nothing is converted
+        assertEquals(1, supplied.schemas.size());
+        assertEquals(2, supplied.values.size());
+        assertEquals(before, Counted.conversions.get());
+        assertEquals("Supplier[b]", supplied.values.get(1).toString());
+
+        // The value is converted the first time, and then kept
+        Counted b = supplied.values.get(1).get();
+        assertEquals("b", b.value);
+        assertSame(b, supplied.values.get(1).get());
+        assertEquals(before + 1, Counted.conversions.get());
+        assertEquals("s", supplied.schemas.get(0).get().value);
+        assertEquals(before + 2, Counted.conversions.get());
+    }
+
+
+    @Test
+    public void anOptionalValueThatIsNotGivenIsNull() throws Exception {
+        Supplied supplied = new Supplied();
+        CommandLineInterpreter.forClass(Supplied.class).run(supplied, "--schema");
+        assertEquals(1, supplied.schemas.size());
+        assertNull(supplied.schemas.get(0));
+    }
+
+
+    @Test
+    public void suppliedConversionFailuresAreThrownFromGet() throws Exception {
+        Flaky flaky = new Flaky();
+        CommandLineInterpreter.forClass(Flaky.class).run(flaky, "a");
+        try {
+            flaky.value.get();
+            fail();
+        } catch (ConversionException e) {
+            // Expected
+        }
+
+        // A failed conversion is tried again
+        assertEquals("a", flaky.value.get().value);
+    }
+
+
+    @Test
+    public void streamsUseTheStandardConverters() throws Exception {
+        Names names = new Names();
+        CommandLineInterpreter.forClass(Names.class).run(names, "/tmp/a.txt", "b.txt");
+        assertEquals(Arrays.asList("a.txt", "b.txt"), names.names);
+
+        CommandLineInterpreter.forClass(Names.class).run(names);
+        assertEquals(Arrays.asList(), names.names);
+    }
+
+
+    /**
+     * Converts "v" followed by a number to that number, after a short
+     * delay so the conversions overlap, and fails for anything else
+     */
+    private static final Converter NUMBERED = new Converter() {
+        @Override
+        public <T> T convert(Class<T> type, Object value) {
+            String text = value.toString();
+            if (!text.startsWith("v")) {
+                throw new ConversionException(text);
+            }
+            Thread.yield();
+            return type.cast(Integer.valueOf(text.substring(1)));
+        }
+    };
+
+
+    private static String[] numbered(int count) {
+        String[] values = new String[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = "v" + i;
+        }
+        return values;
+    }
+
+
+    @Test
+    public void parallelConversionKeepsTheOrder() {
+        String[] values = numbered(CommandLineConversions.PARALLEL_THRESHOLD * 20);
+        Integer[] array = (Integer[]) CommandLineConversions.toArray(NUMBERED, Integer.class, values, true);
+        List<Object> list = CommandLineConversions.toList(NUMBERED, Integer.class, values, true);
+        assertEquals(values.length, array.length);
+        assertEquals(values.length, list.size());
+        for (int i = 0; i < values.length; ++i) {
+            assertEquals(Integer.valueOf(i), array[i]);
+            assertEquals(Integer.valueOf(i), list.get(i));
+        }
+    }
+
+
+    @Test
+    public void parallelConversionReportsTheFirstFailure() {
+        String[] values = numbered(CommandLineConversions.PARALLEL_THRESHOLD * 20);
+        values[values.length - 1] = "last";
+        values[values.length / 2] = "middle";
+        values[values.length / 3] = "third";
+        for (int attempt = 0; attempt < 20; ++attempt) {
+            try {
+                CommandLineConversions.toList(NUMBERED, Integer.class, values, true);
+                fail();
+            } catch (ConversionException e) {
+                assertEquals("third", e.getMessage());
+            }
+        }
+    }
+
+
+    private interface Conversion {
+        Object convert();
+    }
+
+    /**
+     * The value a conversion gives, or the class of the exception it throws
+     */
+    private static Object outcome(Conversion conversion) {
+        try {
+            return conversion.convert();
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.ConversionException;
+import org.apache.commons.beanutils.Converter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CommandLineConvertersTest {
+
+    /**
+     * An immutable value, converted by a converter that counts its calls
+     */
+    public static final class Key {
+        final String name;
+
+        Key(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+
+    private static final class KeyConverter implements Converter {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public <T> T convert(Class<T> type, Object value) {
+            calls.incrementAndGet();
+            if (value.toString().isEmpty()) {
+                throw new ConversionException("No key");
+            }
+            return type.cast(new Key(value.toString()));
+        }
+    }
+
+
+    // The registries are per class, so each test registers for its own
+    private static final class Repeated {
+    }
+
+    private static final class Replaced {
+    }
+
+    private static final class Uncached {
+    }
+
+    private static final class Reregistered {
+    }
+
+
+    public static class Cached extends CommandLineApplication {
+        static final KeyConverter converter = new KeyConverter();
+        static final List<Key> keys = new ArrayList<>();
+        static {
+            CommandLineConverters.forClass(Cached.class).register(Key.class, converter).cacheConversions(Key.class, 16);
+        }
+
+        @CommandLineOption(longForm = "keys", usage = "Keys", maximumArgumentCount = 8)
+        public void keys(Key[] keys) {
+            Cached.keys.addAll(Arrays.asList(keys));
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    private static Converter cached(Class<?> applicationClass, KeyConverter converter, int size) {
+        return CommandLineConverters.forClass(applicationClass).register(Key.class, converter)
+                .cacheConversions(Key.class, size).lookup(Key.class);
+    }
+
+
+    @Test
+    public void repeatedValuesAreConvertedOnce() {
+        KeyConverter counting = new KeyConverter();
+        Converter converter = cached(Repeated.class, counting, 16);
+
+        Key first = converter.convert(Key.class, "a");
+        assertSame(first, converter.convert(Key.class, "a"));
+        assertNotSame(first, converter.convert(Key.class, "b"));
+        assertSame(first, converter.convert(Key.class, "a"));
+        assertEquals(2, counting.calls.get());
+    }
+
+
+    @Test
+    public void aValueReplacesTheOneInItsEntry() {
+        KeyConverter counting = new KeyConverter();
+        Converter converter = cached(Replaced.class, counting, 1);
+
+        // With one entry, every new value replaces the last
+        converter.convert(Key.class, "a");
+        converter.convert(Key.class, "b");
+        converter.convert(Key.class, "a");
+        converter.convert(Key.class, "a");
+        assertEquals(3, counting.calls.get());
+    }
+
+
+    @Test
+    public void failuresAndOtherValuesAreNotCached() {
+        KeyConverter counting = new KeyConverter();
+        Converter converter = cached(Uncached.class, counting, 16);
+
+        for (int i = 0; i < 2; ++i) {
+            try {
+                converter.convert(Key.class, "");
+                fail();
+            } catch (ConversionException e) {
+                // Expected
+            }
+        }
+        assertEquals(2, counting.calls.get());
+
+        // Only strings are cached
+        StringBuilder value = new StringBuilder("a");
+        assertNotSame(converter.convert(Key.class, value), converter.convert(Key.class, value));
+        assertEquals(4, counting.calls.get());
+    }
+
+
+    @Test
+    public void registeringAgainReplacesTheCache() {
+        KeyConverter counting = new KeyConverter();
+        Converter before = cached(Reregistered.class, counting, 16);
+        Key key = before.convert(Key.class, "a");
+
+        Converter after = CommandLineConverters.forClass(Reregistered.class).register(Key.class, counting).lookup(Key.class);
+        assertSame(after, CommandLineConverters.forClass(Reregistered.class).lookup(Key.class));
+        assertNotSame(key, after.convert(Key.class, "a"));
+        assertEquals(2, counting.calls.get());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void theCacheNeedsAnEntry() {
+        CommandLineConverters.forClass(Uncached.class).cacheConversions(Key.class, 0);
+    }
+
+
+    @Test
+    public void commandLinesShareTheCache() throws Exception {
+        new Cached().parseAndRun(new String[]{"--keys=a,b,a", "x"});
+        new Cached().parseAndRun(new String[]{"--keys=b,c"});
+
+        assertEquals(5, Cached.keys.size());
+        assertSame(Cached.keys.get(0), Cached.keys.get(2));
+        assertSame(Cached.keys.get(1), Cached.keys.get(3));
+        assertEquals(3, Cached.converter.calls.get());
+    }
+}
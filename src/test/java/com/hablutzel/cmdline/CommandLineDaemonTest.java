@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandLineDaemonTest {
+
+    /**
+     * Writes its arguments to standard output, and a summary to standard
+     * error. Each line is written separately, so that requests running
+     * at the same time interleave their writes.
+     */
+    public static class Echo extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "status", usage = "The exit status")
+        public void setStatus(int status) {
+            CommandLineContext.current().setExitStatus(status);
+        }
+
+        @CommandLineOption(longForm = "cat", usage = "Copy the standard input")
+        public void cat() throws CommandLineException {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    System.out.println("in " + line);
+                }
+            } catch (IOException e) {
+                throw new CommandLineException("Unable to read the input", e);
+            }
+        }
+
+        @CommandLineOption(longForm = "crash", usage = "Throw an Error")
+        public void crash() {
+            throw new AssertionError("crashed");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            for (String argument : arguments) {
+                System.out.println(argument);
+                Thread.yield();
+            }
+            System.err.println(arguments.length + " in " + CommandLineContext.current().getWorkingDirectory());
+        }
+    }
+
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path socket;
+    private CommandLineDaemon<Echo> daemon;
+    private Thread server;
+
+
+    @Before
+    public void startDaemon() throws Exception {
+        socket = folder.getRoot().toPath().resolve("echo.sock");
+        daemon = new CommandLineDaemon<>(Echo.class, Echo::new, socket, 4);
+        server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (CommandLineException | IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        server.start();
+        for (int i = 0; i < 500 && !Files.exists(socket); ++i) {
+            Thread.sleep(10);
+        }
+        assertTrue(Files.exists(socket));
+    }
+
+
+    @After
+    public void stopDaemon() throws Exception {
+        daemon.close();
+        server.join(10000);
+    }
+
+
+    /**
+     * The exit status and output of a request
+     */
+    private static final class Response {
+        int status;
+        String output;
+        String error;
+    }
+
+
+    private Response run(String input, String... args) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        Response response = new Response();
+        response.status = CommandLineDaemonClient.run(socket, args,
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output, error);
+        response.output = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        response.error = new String(error.toByteArray(), StandardCharsets.UTF_8);
+        return response;
+    }
+
+
+    /**
+     * Send the start of a request as it is, and read the response
+     *
+     * @param ints The integers of the request, after the protocol version
+     */
+    private Response send(int... ints) throws IOException {
+        Response response = new Response();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+            request.writeInt(CommandLineDaemon.PROTOCOL_VERSION);
+            for (int value : ints) {
+                request.writeInt(value);
+            }
+            request.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            int type;
+            while ((type = in.readUnsignedByte()) != CommandLineDaemon.EXIT) {
+                byte[] block = new byte[in.readInt()];
+                in.readFully(block);
+                (type == CommandLineDaemon.ERROR ? error : output).write(block);
+            }
+            response.status = in.readInt();
+        }
+        response.output = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        response.error = new String(error.toByteArray(), StandardCharsets.UTF_8);
+        return response;
+    }
+
+
+    private static String lines(String... lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+
+    @Test
+    public void outputAndStatusAreSentToTheClient() throws Exception {
+        Response response = run("", "--status", "3", "a", "b");
+        assertEquals(3, response.status);
+        assertEquals(lines("a", "b"), response.output);
+        assertEquals(lines("2 in " + Paths.get("").toAbsolutePath()), response.error);
+
+        response = run("first\nsecond\n", "--cat");
+        assertEquals(0, response.status);
+        assertEquals(lines("in first", "in second"), response.output);
+    }
+
+
+    @Test
+    public void failuresStillSendAStatus() throws Exception {
+        Response response = run("", "--unknown");
+        assertEquals(1, response.status);
+        assertTrue(response.error, response.error.contains("Unable to parse command line"));
+
+        response = run("", "--crash");
+        assertEquals(1, response.status);
+        assertTrue(response.error, response.error.contains("crashed"));
+
+        // The daemon is still serving
+        assertEquals(0, run("", "x").status);
+    }
+
+
+    @Test
+    public void concurrentRequestsAreKeptApart() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Response>> responses = new ArrayList<>();
+            for (int i = 0; i < 16; ++i) {
+                final String[] args = new String[200];
+                for (int j = 0; j < args.length; ++j) {
+                    args[j] = "request" + i;
+                }
+                responses.add(clients.submit((Callable<Response>) () -> run("", args)));
+            }
+            for (int i = 0; i < responses.size(); ++i) {
+                Response response = responses.get(i).get();
+                assertEquals(0, response.status);
+                String[] lines = response.output.split(System.lineSeparator());
+                assertEquals(200, lines.length);
+                for (String line : lines) {
+                    assertEquals("request" + i, line);
+                }
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+
+    @Test
+    public void onlyTheOwnerCanConnect() throws Exception {
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+    }
+
+
+    @Test
+    public void malformedRequestsAreAnsweredWithAnError() throws Exception {
+        int[][] requests = {
+                {-1},                                   // a negative argument count
+                {Integer.MAX_VALUE},                    // a huge argument count
+                {1, -5},                                // a negative string length
+                {1, Integer.MAX_VALUE},                 // a huge string length
+                {0, 0, CommandLineDaemon.MAX_COUNT + 1} // too many environment variables
+        };
+        for (int[] request : requests) {
+            Response response = send(request);
+            assertEquals(2, response.status);
+            assertTrue(response.error, response.error.startsWith("Malformed request"));
+            assertEquals("", response.output);
+        }
+
+        // The daemon is still serving
+        assertEquals(0, run("", "x").status);
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.hablutzel.cmdline;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The flight recorder can't be stopped once it has started, so the
+ * tests run in name order: the one without a recording comes first.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CommandLineEventsTest {
+
+    private static final String[] EVENTS = {
+            "com.hablutzel.cmdline.Configure",
+            "com.hablutzel.cmdline.Parse",
+            "com.hablutzel.cmdline.Option",
+            "com.hablutzel.cmdline.Main"
+    };
+
+
+    public static class Unrecorded extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "name", usage = "The name")
+        public void setName(String name) {
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    public static class Recorded extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "tags", usage = "Up to three tags", maximumArgumentCount = 3)
+        public void tags(String[] tags) {
+        }
+
+        @CommandLineOption(longForm = "pause", usage = "Milliseconds to wait")
+        public void pause(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    @Test
+    public void aRunWithoutARecordingCreatesNoEvents() throws Exception {
+        assertFalse(CommandLinePhase.isRecorderActive());
+        assertNull(CommandLinePhase.option(Unrecorded.class, "name", "Scalar", 1));
+        new Unrecorded().parseAndRun(new String[]{"--name", "x", "file"});
+
+        // Nothing has started the recorder for the events
+        assertFalse(FlightRecorder.isInitialized());
+        assertFalse(CommandLinePhase.isRecorderActive());
+    }
+
+
+    @Test
+    public void phasesAreRecorded() throws Exception {
+        List<RecordedEvent> events = record(() -> new Recorded().parseAndRun(
+                new String[]{"--tags", "a", "b", "c", "--pause", "20", "first", "second"}));
+
+        RecordedEvent configure = only(events, "com.hablutzel.cmdline.Configure");
+        assertEquals(2, configure.getInt("optionCount"));
+
+        RecordedEvent parse = only(events, "com.hablutzel.cmdline.Parse");
+        assertEquals(8, parse.getInt("argumentCount"));
+        assertTrue(parse.getBoolean("succeeded"));
+
+        assertEquals(2, named(events, "com.hablutzel.cmdline.Option").size());
+        RecordedEvent tags = option(events, "tags");
+        assertEquals("Array", tags.getString("methodType"));
+        assertEquals(3, tags.getInt("valueCount"));
+        assertTrue(tags.getBoolean("succeeded"));
+        assertFalse(tags.getDuration().isNegative());
+        RecordedEvent pause = option(events, "pause");
+        assertEquals("Scalar", pause.getString("methodType"));
+        assertEquals(1, pause.getInt("valueCount"));
+        assertTrue(pause.getDuration().compareTo(Duration.ofMillis(20)) >= 0);
+
+        RecordedEvent main = only(events, "com.hablutzel.cmdline.Main");
+        assertEquals("Array", main.getString("methodType"));
+        assertEquals(2, main.getInt("argumentCount"));
+        assertTrue(main.getBoolean("succeeded"));
+        assertFalse(main.getDuration().isNegative());
+    }
+
+
+    @Test
+    public void phasesOutsideARecordingAreNotRecorded() throws Exception {
+        record(() -> new Recorded().parseAndRun(new String[]{"first"}));
+        assertTrue(CommandLinePhase.isRecorderActive());
+        new Recorded().parseAndRun(new String[]{"--pause", "1", "later"});
+        assertEquals(new ArrayList<RecordedEvent>(), record(() -> {
+        }));
+    }
+
+
+    private interface Run {
+        void run() throws Exception;
+    }
+
+
+    /**
+     * Run with a recording of the command line events, returning the
+     * events for the test applications in the order they began
+     */
+    private static List<RecordedEvent> record(Run run) throws Exception {
+        Path file = Files.createTempFile("cmdline", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : EVENTS) {
+                recording.enable(event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            run.run();
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (Arrays.asList(EVENTS).contains(event.getEventType().getName())
+                        && event.getClass("applicationClass").getName().startsWith(CommandLineEventsTest.class.getName())) {
+                    events.add(event);
+                }
+            }
+            events.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+            return events;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> named = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                named.add(event);
+            }
+        }
+        return named;
+    }
+
+
+    private static RecordedEvent only(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> named = named(events, name);
+        assertEquals(1, named.size());
+        return named.get(0);
+    }
+
+
+    private static RecordedEvent option(List<RecordedEvent> events, String option) {
+        for (RecordedEvent event : named(events, "com.hablutzel.cmdline.Option")) {
+            if (event.getString("option").equals(option)) {
+                return event;
+            }
+        }
+        throw new AssertionError("No event for " + option);
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandLineFanOutTest {
+
+    // The values the main methods below were called with, and what became of them
+    static final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+    static final AtomicInteger running = new AtomicInteger();
+    static final AtomicInteger mostRunning = new AtomicInteger();
+
+    // Counted down when a slow call starts
+    static volatile CountDownLatch slowStarted = new CountDownLatch(0);
+
+
+    /**
+     * Handle a value: "fail" throws once any slow call has started, "slow"
+     * waits until it is interrupted, and a number waits that many
+     * milliseconds and prints itself
+     */
+    static void handle(String value) {
+        calls.add(value);
+        mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+            if (value.startsWith("fail")) {
+                slowStarted.await(5, TimeUnit.SECONDS);
+                throw new IllegalStateException(value);
+            } else if (value.equals("slow")) {
+                slowStarted.countDown();
+                Thread.sleep(10000);
+                calls.add("slow finished");
+            } else {
+                Thread.sleep(Integer.parseInt(value));
+                System.out.println(value);
+            }
+        } catch (InterruptedException e) {
+            calls.add(value + " interrupted");
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+
+    public static class Ordered extends CommandLineApplication {
+
+        @CommandLineMain(concurrency = 4, orderedOutput = true)
+        public void run(String value) {
+            handle(value);
+        }
+    }
+
+
+    public static class Stopping extends CommandLineApplication {
+
+        @CommandLineMain(concurrency = 2)
+        public void run(String value) {
+            handle(value);
+        }
+    }
+
+
+    public static class Continuing extends CommandLineApplication {
+
+        @CommandLineMain(concurrency = 2, continueAfterFailure = true)
+        public void run(String value) {
+            handle(value);
+        }
+    }
+
+
+    private static void reset() {
+        slowStarted = new CountDownLatch(0);
+        calls.clear();
+        running.set(0);
+        mostRunning.set(0);
+    }
+
+
+    @Test
+    public void outputIsWrittenInTheOrderOfTheValues() throws Exception {
+        reset();
+
+        // The earlier values take longer, so they finish last
+        String[] values = new String[12];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = Integer.toString(5 * (values.length - i));
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CommandLineContext context = new CommandLineContext(Paths.get("").toAbsolutePath(), Collections.<String, String>emptyMap(),
+                new ByteArrayInputStream(new byte[0]), new PrintStream(output, true), new PrintStream(new ByteArrayOutputStream()));
+        assertEquals(0, context.run(Ordered::new, values));
+
+        String newline = System.lineSeparator();
+        assertEquals(String.join(newline, values) + newline, new String(output.toByteArray(), Charset.defaultCharset()));
+        assertEquals(values.length, calls.size());
+        assertTrue(String.valueOf(mostRunning.get()), mostRunning.get() <= 4);
+    }
+
+
+    @Test
+    public void aFailureCancelsTheRunningCalls() throws Exception {
+        reset();
+        slowStarted = new CountDownLatch(1);
+        long start = System.nanoTime();
+        try {
+            new Stopping().parseAndRun(new String[]{"slow", "fail", "1", "1", "1"});
+            fail();
+        } catch (CommandLineException e) {
+            assertEquals("fail", rootCause(e).getMessage());
+        }
+
+        // The slow call was interrupted rather than waited for
+        assertTrue((System.nanoTime() - start) / 1000000 + "ms", System.nanoTime() - start < 5000000000L);
+        assertTrue(calls.toString(), calls.contains("slow interrupted"));
+    }
+
+
+    @Test
+    public void noMoreCallsStartAfterTheFirstFailure() throws Exception {
+        reset();
+        try {
+            new Stopping().parseAndRun(new String[]{"fail", "fail2", "50", "50", "50", "50"});
+            fail();
+        } catch (CommandLineException e) {
+
+            // Only the failures of calls that weren't cancelled are reported
+            assertTrue(e.getMessage(), rootCause(e).getMessage().startsWith("fail"));
+        }
+
+        // Either of the first two may be cancelled before it starts, but
+        // none of the values after them is started
+        assertTrue(calls.toString(), !calls.isEmpty() && Arrays.asList("fail", "fail2").containsAll(calls));
+    }
+
+
+    @Test
+    public void everyFailureIsReportedWhenTheCallsContinue() throws Exception {
+        reset();
+        try {
+            new Continuing().parseAndRun(new String[]{"fail1", "1", "fail2", "1"});
+            fail();
+        } catch (CommandLineException e) {
+            assertEquals("2 calls of the main method failed", e.getMessage());
+            assertEquals(1, e.getSuppressed().length);
+            List<String> failures = sorted(Arrays.asList(rootCause(e.getCause()).getMessage(),
+                    rootCause(e.getSuppressed()[0]).getMessage()));
+            assertEquals(Arrays.asList("fail1", "fail2"), failures);
+        }
+        assertEquals(Arrays.asList("1", "1", "fail1", "fail2"), sorted(calls));
+    }
+
+
+    private static Throwable rootCause(Throwable throwable) {
+        while (throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+
+    private static List<String> sorted(List<String> values) {
+        List<String> sorted;
+        synchronized (values) {
+            sorted = new ArrayList<>(values);
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
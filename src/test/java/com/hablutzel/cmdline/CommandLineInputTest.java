@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CommandLineInputTest {
+
+    /**
+     * Prints each chunk of lines it is called with
+     */
+    public static class Lister extends CommandLineApplication {
+
+        @CommandLineMain(input = CommandLineMain.Input.Lines, chunkSize = 2)
+        public void run(String[] lines) {
+            System.out.println(Arrays.toString(lines));
+        }
+    }
+
+
+    /**
+     * Read an input, returning the chunks the main method was called with
+     */
+    private static List<List<String>> read(String input, CommandLineMain.Input format, int chunkSize,
+                                           int expectedCount) throws CommandLineException {
+        List<List<String>> chunks = new ArrayList<>();
+        int count = CommandLineInput.read(new ByteArrayInputStream(input.getBytes(Charset.defaultCharset())),
+                format, chunkSize, values -> chunks.add(Arrays.asList(values)));
+        assertEquals(expectedCount, count);
+        return chunks;
+    }
+
+
+    @Test
+    public void valuesArePassedInChunks() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            input.append(i).append('\n');
+        }
+        assertEquals(Arrays.asList(
+                Arrays.asList("0", "1", "2", "3"),
+                Arrays.asList("4", "5", "6", "7"),
+                Arrays.asList("8", "9")),
+                read(input.toString(), CommandLineMain.Input.Lines, 4, 10));
+
+        // A full last chunk, and a last line without a line ending
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d")),
+                read("a\nb\nc\nd", CommandLineMain.Input.Lines, 2, 4));
+    }
+
+
+    @Test
+    public void valuesLongerThanTheReadBufferAreKeptWhole() throws Exception {
+        char[] letters = new char[20000];
+        Arrays.fill(letters, 'x');
+        String longValue = new String(letters);
+        assertEquals(Collections.singletonList(Arrays.asList("a", longValue, "b")),
+                read("a\n" + longValue + "\nb\n", CommandLineMain.Input.Lines, 10, 3));
+    }
+
+
+    @Test
+    public void lineEndingsMayBeCrLf() throws Exception {
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")),
+                read("a\r\nb\r\nc\r\n", CommandLineMain.Input.Lines, 10, 3));
+
+        // Only a carriage return at the end of a line is removed
+        assertEquals(Collections.singletonList(Arrays.asList("a\rb", "c\r")),
+                read("a\rb\nc\r\r\n", CommandLineMain.Input.Lines, 10, 2));
+    }
+
+
+    @Test
+    public void blankLinesAreSkipped() throws Exception {
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b", " ")),
+                read("\na\n\r\n\nb\n \n\n", CommandLineMain.Input.Lines, 10, 3));
+    }
+
+
+    @Test
+    public void nulTerminatedValuesCanHoldLineEndings() throws Exception {
+        assertEquals(Arrays.asList(Arrays.asList("a b", "c\nd"), Arrays.asList("e\r\n", "f")),
+                read("a b\0c\nd\0\0e\r\n\0f", CommandLineMain.Input.NulTerminated, 2, 4));
+    }
+
+
+    @Test
+    public void emptyInputCallsMainOnce() throws Exception {
+        assertEquals(Collections.singletonList(Collections.<String>emptyList()),
+                read("", CommandLineMain.Input.Lines, 10, 0));
+        assertEquals(Collections.singletonList(Collections.<String>emptyList()),
+                read("\n\r\n\n", CommandLineMain.Input.Lines, 10, 0));
+        assertEquals(Collections.singletonList(Collections.<String>emptyList()),
+                read("\0\0", CommandLineMain.Input.NulTerminated, 10, 0));
+    }
+
+
+    @Test
+    public void aFailureStopsTheReading() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            input.append(i).append('\n');
+        }
+        List<Integer> calls = new ArrayList<>();
+        try {
+            CommandLineInput.read(new ByteArrayInputStream(input.toString().getBytes(Charset.defaultCharset())),
+                    CommandLineMain.Input.Lines, 10, values -> {
+                        calls.add(values.length);
+                        throw new CommandLineException("Stop");
+                    });
+            fail();
+        } catch (CommandLineException e) {
+            assertEquals("Stop", e.getMessage());
+        }
+        assertEquals(Collections.singletonList(10), calls);
+    }
+
+
+    @Test(timeout = 10000)
+    public void anInputThatThrowsFailsTheRead() throws Exception {
+        IllegalStateException failure = new IllegalStateException("Broken");
+        InputStream input = new InputStream() {
+            @Override
+            public int read() {
+                throw failure;
+            }
+        };
+        try {
+            CommandLineInput.read(input, CommandLineMain.Input.Lines, 10, values -> fail());
+            fail();
+        } catch (CommandLineException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+
+    @Test
+    public void theMainMethodReadsTheInputWhenNoArgumentsAreLeft() throws Exception {
+        String newline = System.lineSeparator();
+        assertEquals("[a, b]" + newline + "[c]" + newline, run("a\nb\nc\n"));
+        assertEquals("[]" + newline, run(""));
+        assertEquals("[x]" + newline, run("a\nb\n", "x"));
+    }
+
+
+    private static String run(String input, String... args) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream outputStream = new PrintStream(output, true);
+        CommandLineContext context = new CommandLineContext(Paths.get("").toAbsolutePath(), Collections.<String, String>emptyMap(),
+                new ByteArrayInputStream(input.getBytes(Charset.defaultCharset())), outputStream,
+                new PrintStream(new ByteArrayOutputStream()));
+        CommandLineContext.routeStandardStreams();
+        assertEquals(0, context.run(Lister::new, args));
+        return new String(output.toByteArray(), Charset.defaultCharset());
+    }
+}
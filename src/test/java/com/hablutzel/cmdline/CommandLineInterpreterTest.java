@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.ConversionException;
+import org.apache.commons.beanutils.Converter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandLineInterpreterTest {
+
+    public static class Counter extends CommandLineApplication {
+        int count;
+        String name;
+        List<String> arguments;
+
+        @CommandLineOption(longForm = "count", usage = "The count")
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        @CommandLineOption(shortForm = "n", longForm = "name", usage = "The name")
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            this.arguments = Arrays.asList(arguments);
+        }
+    }
+
+
+    /**
+     * A size that can't be converted; the converter counts its calls
+     */
+    public static final class Size {
+    }
+
+
+    private static final class Unconvertible implements Converter {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public <T> T convert(Class<T> type, Object value) {
+            calls.incrementAndGet();
+            throw new ConversionException("No size");
+        }
+    }
+
+
+    @CommandLineConfiguration(shortCircuit = true)
+    public static class Stopping extends CommandLineApplication {
+        static final Unconvertible converter = new Unconvertible();
+        final List<String> calls = new ArrayList<>();
+
+        @CommandLineOption(longForm = "help", usage = "Stops everything else", order = -1)
+        public boolean help() {
+            calls.add("help");
+            return false;
+        }
+
+        @CommandLineOption(longForm = "size", usage = "Can't be converted")
+        public void size(Size size) {
+            calls.add("size");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            calls.add("main");
+        }
+    }
+
+
+    /**
+     * The same options, without short circuiting
+     */
+    public static class Continuing extends CommandLineApplication {
+        static final Unconvertible converter = new Unconvertible();
+        final List<String> calls = new ArrayList<>();
+
+        @CommandLineOption(longForm = "help", usage = "Stops only main", order = -1)
+        public boolean help() {
+            calls.add("help");
+            return false;
+        }
+
+        @CommandLineOption(longForm = "size", usage = "Can't be converted")
+        public void size(Size size) {
+            calls.add("size");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            calls.add("main");
+        }
+    }
+
+
+    /**
+     * Short circuits after starting an asynchronous option
+     */
+    @CommandLineConfiguration(shortCircuit = true)
+    public static class StoppingAsync extends CommandLineApplication {
+        static final Unconvertible converter = new Unconvertible();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        final List<String> calls = new ArrayList<>();
+
+        @CommandLineOption(longForm = "load", usage = "Never finishes", order = -2)
+        public CompletableFuture<Void> load() {
+            loading.countDown();
+            return loaded;
+        }
+
+        @CommandLineOption(longForm = "help", usage = "Stops everything else", order = -1)
+        public boolean help() throws CommandLineException {
+
+            // Wait for the load to have been called, so that there is a
+            // future to cancel
+            try {
+                loading.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new CommandLineException("Interrupted", e);
+            }
+            calls.add("help");
+            return false;
+        }
+
+        @CommandLineOption(longForm = "size", usage = "Can't be converted")
+        public void size(Size size) {
+            calls.add("size");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            calls.add("main");
+        }
+    }
+
+
+    // Registered before the classes are configured
+    static {
+        CommandLineConverters.forClass(Stopping.class).register(Size.class, Stopping.converter);
+        CommandLineConverters.forClass(Continuing.class).register(Size.class, Continuing.converter);
+        CommandLineConverters.forClass(StoppingAsync.class).register(Size.class, StoppingAsync.converter);
+    }
+
+
+    @Test
+    public void parsedCommandLinesCannotBeChanged() throws Exception {
+        ParsedCommandLine commandLine = CommandLineInterpreter.forClass(Counter.class)
+                .parse("--count", "3", "-n", "first", "a", "b");
+        assertEquals(Arrays.asList("a", "b"), commandLine.getArguments());
+        assertArrayEquals(new String[]{"first"}, commandLine.getOptionValues("name"));
+        assertArrayEquals(new String[]{"first"}, commandLine.getOptionValues("n"));
+        assertFalse(commandLine.hasOption("missing"));
+        assertNull(commandLine.getOptionValues("missing"));
+
+        commandLine.getOptionValues("count")[0] = "4";
+        assertArrayEquals(new String[]{"3"}, commandLine.getOptionValues("count"));
+    }
+
+
+    @Test
+    public void oneInterpreterServesManyThreads() throws Exception {
+        CommandLineInterpreter<Counter> interpreter = CommandLineInterpreter.forClass(Counter.class);
+        ParsedCommandLine shared = interpreter.parse("--count", "-1", "--name", "shared");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; ++i) {
+                        Counter counter = new Counter();
+                        interpreter.run(counter, "--count", Integer.toString(i), "--name", "t" + thread, "x" + i);
+                        assertEquals(i, counter.count);
+                        assertEquals("t" + thread, counter.name);
+                        assertEquals(Arrays.asList("x" + i), counter.arguments);
+
+                        // A parsed command line can be dispatched on any thread
+                        Counter other = new Counter();
+                        interpreter.dispatch(other, shared);
+                        assertEquals(-1, other.count);
+                        assertEquals("shared", other.name);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void falseStopsTheLaterOptionsWhenShortCircuiting() throws Exception {
+        Stopping application = new Stopping();
+        application.parseAndRun(new String[]{"--size", "3", "--help", "file"});
+        assertEquals(Arrays.asList("help"), application.calls);
+        assertEquals(0, Stopping.converter.calls.get());
+
+        // Otherwise the later option is still converted, and fails
+        Continuing continuing = new Continuing();
+        try {
+            continuing.parseAndRun(new String[]{"--size", "3", "--help", "file"});
+            fail();
+        } catch (ConversionException e) {
+            // Expected
+        }
+        assertEquals(Arrays.asList("help"), continuing.calls);
+        assertEquals(1, Continuing.converter.calls.get());
+    }
+
+
+    @Test
+    public void shortCircuitingCancelsTheStartedOptions() throws Exception {
+        StoppingAsync application = new StoppingAsync();
+        application.parseAndRun(new String[]{"--size", "3", "--load", "--help"});
+        assertEquals(Arrays.asList("help"), application.calls);
+        assertEquals(0, StoppingAsync.converter.calls.get());
+
+        // The cancellation is passed on from the executor's thread
+        try {
+            application.loaded.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (CancellationException e) {
+            // Expected
+        }
+        assertTrue(application.loaded.isCancelled());
+    }
+}
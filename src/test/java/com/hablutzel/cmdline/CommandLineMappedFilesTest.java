@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.beanutils.ConversionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandLineMappedFilesTest {
+
+    /**
+     * Searches a mapped log for errors, with a mapped dictionary
+     */
+    public static class Searcher extends CommandLineApplication {
+
+        static ByteBuffer dictionary;
+        static String firstError;
+
+        @CommandLineOption(longForm = "dictionary", usage = "The dictionary file", mapFile = true)
+        public void setDictionary(ByteBuffer dictionary) {
+            Searcher.dictionary = dictionary;
+        }
+
+        @CommandLineMain(mapFile = true)
+        public void search(CharSequence log) {
+            Matcher matcher = Pattern.compile("ERROR (\\w+)").matcher(log);
+            firstError = matcher.find() ? matcher.group(1) : null;
+        }
+    }
+
+
+    /**
+     * Takes a file of any size
+     */
+    public static class Counter extends CommandLineApplication {
+
+        static CommandLineMappedFile file;
+
+        @CommandLineMain(mapFile = true)
+        public void count(CommandLineMappedFile file) {
+            Counter.file = file;
+        }
+    }
+
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private Path write(String contents) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, contents.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+
+    @Test
+    public void optionAndMainValuesAreMapped() throws Exception {
+        Path dictionary = write("apple\nbanana\n");
+        Path log = write("INFO started\nERROR disk full\nERROR again\n");
+        new Searcher().parseAndRun(new String[]{"--dictionary", dictionary.toString(), log.toString()});
+
+        assertTrue(Searcher.dictionary.isReadOnly());
+        assertEquals(13, Searcher.dictionary.remaining());
+        assertEquals('b', Searcher.dictionary.get(6));
+        assertEquals("disk", Searcher.firstError);
+    }
+
+
+    @Test
+    public void regionsCoverTheWholeFile() throws Exception {
+        CommandLineMappedFile file = CommandLineMappedFiles.mapRegions(write("abcdefghij").toString(), 4);
+
+        assertEquals(10, file.getSize());
+        assertEquals(3, file.getRegionCount());
+        assertEquals(8, file.getRegionOffset(2));
+        assertEquals(4, file.getRegion(1).remaining());
+        assertEquals(2, file.getRegion(2).remaining());
+        assertEquals('e', file.getRegion(1).get());
+        StringBuilder contents = new StringBuilder();
+        for (long offset = 0; offset < file.getSize(); ++offset) {
+            contents.append((char) file.get(offset));
+        }
+        assertEquals("abcdefghij", contents.toString());
+
+        // Each region returned is a new buffer
+        file.getRegion(0).position(3);
+        assertEquals(0, file.getRegion(0).position());
+
+        try {
+            file.get(10);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void emptyFilesHaveAnEmptyRegion() throws Exception {
+        CommandLineMappedFile file = CommandLineMappedFiles.mapRegions(write("").toString(), 4);
+        assertEquals(0, file.getSize());
+        assertEquals(1, file.getRegionCount());
+        assertFalse(file.getRegion(0).hasRemaining());
+    }
+
+
+    @Test
+    public void filesOver2GBAreMappedInRegions() throws Exception {
+
+        // A sparse file, so the test takes no real space on most file systems
+        long size = 3L << 30;
+        long offset = (2L << 30) + 5;
+        Path path = folder.newFile().toPath();
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size);
+            file.seek(offset);
+            file.write('x');
+            file.seek(size - 1);
+            file.write('z');
+        }
+
+        new Counter().parseAndRun(new String[]{path.toString()});
+        assertEquals(size, Counter.file.getSize());
+        assertEquals(3, Counter.file.getRegionCount());
+        assertEquals('x', Counter.file.get(offset));
+        assertEquals('z', Counter.file.get(size - 1));
+        assertEquals(0, Counter.file.get(offset - 1));
+
+        // A single buffer can't hold the file
+        try {
+            new Searcher().parseAndRun(new String[]{path.toString()});
+            fail();
+        } catch (ConversionException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void missingFilesFailToConvert() throws Exception {
+        String missing = folder.getRoot().toPath().resolve("missing").toString();
+        try {
+            new Counter().parseAndRun(new String[]{missing});
+            fail();
+        } catch (ConversionException e) {
+            // Expected
+        }
+        try {
+            new Searcher().parseAndRun(new String[]{"--dictionary", missing, write("").toString()});
+            fail();
+        } catch (ConversionException e) {
+            // Expected
+        }
+    }
+}
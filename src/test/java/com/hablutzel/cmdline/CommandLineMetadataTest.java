@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CommandLineMetadataTest {
+
+    public static class Counter extends CommandLineApplication {
+        int count;
+
+        @CommandLineOption(longForm = "add", usage = "Add to the count")
+        public void add(int value) {
+            count += value;
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    public static class SubCounter extends Counter {
+
+        @CommandLineOption(longForm = "double", usage = "Double the count")
+        public void doubleCount() {
+            count = count == 0 ? 1 : count * 2;
+        }
+
+        @CommandLineMain
+        public void start(String[] arguments) {
+        }
+    }
+
+
+    public static class Broken extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "pair", usage = "Takes two parameters")
+        public void pair(String first, String second) {
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    @CommandLineConfiguration(lazyOptions = true)
+    public static class Lazy extends CommandLineApplication {
+        int count;
+
+        @CommandLineOption(longForm = "add", usage = "Add to the count")
+        public void add(int value) {
+            count += value;
+        }
+
+        @CommandLineOption(longForm = "pair", usage = "Takes two parameters")
+        public void pair(String first, String second) {
+        }
+
+        @CommandLineOption(longForm = "thread", usage = "Has no converter")
+        public void thread(Thread thread) {
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    public static class Ordered extends CommandLineApplication {
+        final List<String> calls = new ArrayList<>();
+
+        @CommandLineOption(longForm = "b", usage = "Called last", order = 1)
+        public void b() {
+            calls.add("b");
+        }
+
+        @CommandLineOption(longForm = "a", usage = "Called second", order = 1)
+        public void a() {
+            calls.add("a");
+        }
+
+        @CommandLineOption(longForm = "z", usage = "Called first")
+        public void z() {
+            calls.add("z");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    /**
+     * Records the classes configured, and whether each failed
+     */
+    private static final class Configurations implements CommandLineMetricsListener {
+        final List<String> configured = new ArrayList<>();
+
+        @Override
+        public synchronized void configured(Class<?> applicationClass, long durationNanos, Throwable failure) {
+            configured.add(applicationClass.getSimpleName() + (failure == null ? "" : " failed"));
+        }
+    }
+
+
+    @Test
+    public void classesAreConfiguredOnce() throws Exception {
+        Configurations configurations = new Configurations();
+        CommandLineMetrics.addListener(configurations);
+        try {
+            for (int i = 1; i <= 3; ++i) {
+                Counter counter = new Counter();
+                counter.parseAndRun(new String[]{"--add", Integer.toString(i)});
+                assertEquals(i, counter.count);
+            }
+            assertSame(CommandLineMetadata.forClass(Counter.class), CommandLineMetadata.forClass(Counter.class));
+        } finally {
+            CommandLineMetrics.removeListener(configurations);
+        }
+        assertEquals(configurations.configured.toString(), 1, configurations.configured.size());
+    }
+
+
+    @Test
+    public void subclassesHaveTheirOwnMetadata() throws Exception {
+        CommandLineMetadata counter = CommandLineMetadata.forClass(Counter.class);
+        CommandLineMetadata subCounter = CommandLineMetadata.forClass(SubCounter.class);
+        assertNotSame(counter, subCounter);
+        assertNotNull(subCounter.options().getOption("double"));
+        assertEquals(null, counter.options().getOption("double"));
+
+        SubCounter application = new SubCounter();
+        application.parseAndRun(new String[]{"--double"});
+        assertEquals(1, application.count);
+    }
+
+
+    @Test
+    public void failuresAreReportedEveryTime() throws Exception {
+        Configurations configurations = new Configurations();
+        CommandLineMetrics.addListener(configurations);
+        try {
+            for (int i = 0; i < 2; ++i) {
+                try {
+                    CommandLineMetadata.forClass(Broken.class);
+                    fail();
+                } catch (CommandLineException e) {
+                    // Expected
+                }
+            }
+        } finally {
+            CommandLineMetrics.removeListener(configurations);
+        }
+        assertEquals("[Broken failed, Broken failed]", configurations.configured.toString());
+    }
+
+
+    @Test
+    public void unusedOptionsAreNeverSetUp() throws Exception {
+
+        // Setting up either of the broken option methods would fail, so
+        // the run shows that neither was, nor was the usage text
+        Lazy application = new Lazy();
+        application.parseAndRun(new String[]{"--add", "2", "file"});
+        assertEquals(2, application.count);
+        application.printCommandLineUsageText("lazy", null, null);
+
+        CommandLineInterpreter<Lazy> interpreter = CommandLineInterpreter.forClass(Lazy.class);
+        assertEquals("[file]", interpreter.parse("--add", "3", "file").getArguments().toString());
+        for (String option : new String[]{"--pair", "--thread"}) {
+            try {
+                interpreter.parse(option, "value");
+                fail(option);
+            } catch (CommandLineException e) {
+                // Expected
+            }
+        }
+        try {
+            interpreter.validate();
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void optionsAreCalledInTheirOrder() throws Exception {
+        Ordered application = new Ordered();
+        application.parseAndRun(new String[]{"--b", "--a", "--z"});
+        assertEquals("[z, a, b]", application.calls.toString());
+    }
+}
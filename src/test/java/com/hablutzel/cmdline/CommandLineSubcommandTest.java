@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandLineSubcommandTest {
+
+    // The calls made to the applications below
+    static final StringBuilder log = new StringBuilder();
+
+    // The subcommand classes that have been initialized
+    static final List<String> initialized = Collections.synchronizedList(new ArrayList<String>());
+
+
+    @CommandLineSubcommand(name = "add", className = "com.hablutzel.cmdline.CommandLineSubcommandTest$Add", usage = "Add files")
+    @CommandLineSubcommand(name = "remote", className = "com.hablutzel.cmdline.CommandLineSubcommandTest$Remote")
+    public static class Tool extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "verbose", usage = "Verbose")
+        public void verbose() {
+            log.append("verbose;");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            log.append("tool ").append(Arrays.toString(arguments)).append(';');
+        }
+    }
+
+
+    public static class Add extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "force", usage = "Add ignored files")
+        public void force() {
+            log.append("force;");
+        }
+
+        @CommandLineMain
+        public void run(String[] files) {
+            log.append("add ").append(Arrays.toString(files)).append(';');
+        }
+    }
+
+
+    @CommandLineSubcommand(name = "list", className = "com.hablutzel.cmdline.CommandLineSubcommandTest$RemoteList")
+    public static class Remote extends CommandLineApplication {
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            log.append("remote ").append(Arrays.toString(arguments)).append(';');
+        }
+    }
+
+
+    public static class RemoteList extends CommandLineApplication {
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            log.append("remote list ").append(Arrays.toString(arguments)).append(';');
+        }
+    }
+
+
+    /**
+     * An application that can't be configured, so that running it
+     * shows whether it was configured
+     */
+    @CommandLineSubcommand(name = "first", className = "com.hablutzel.cmdline.CommandLineSubcommandTest$First")
+    @CommandLineSubcommand(name = "second", className = "com.hablutzel.cmdline.CommandLineSubcommandTest$Second")
+    public static class Lazy extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "pair", usage = "Takes two values")
+        public void pair(String first, String second) {
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    public static class First extends CommandLineApplication {
+        static {
+            initialized.add("first");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            log.append("first;");
+        }
+    }
+
+
+    public static class Second extends CommandLineApplication {
+        static {
+            initialized.add("second");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            log.append("second;");
+        }
+    }
+
+
+    @CommandLineSubcommand(name = "missing", className = "com.example.Missing")
+    @CommandLineSubcommand(name = "string", className = "java.lang.String")
+    public static class Mistaken extends CommandLineApplication {
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    @CommandLineSubcommand(name = "twice", className = "com.hablutzel.cmdline.CommandLineSubcommandTest$Add")
+    @CommandLineSubcommand(name = "twice", className = "com.hablutzel.cmdline.CommandLineSubcommandTest$Remote")
+    public static class Duplicated extends CommandLineApplication {
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    private static String run(CommandLineApplication application, String... args) throws CommandLineException {
+        log.setLength(0);
+        application.parseAndRun(args);
+        return log.toString();
+    }
+
+
+    @Test
+    public void theSubcommandGetsTheRestOfTheCommandLine() throws Exception {
+        assertEquals("force;add [a, b];", run(new Tool(), "add", "--force", "a", "b"));
+        assertEquals("add [];", run(new Tool(), "add"));
+        assertEquals("remote list [origin];", run(new Tool(), "remote", "list", "origin"));
+        assertEquals("remote [show];", run(new Tool(), "remote", "show"));
+    }
+
+
+    @Test
+    public void otherCommandLinesAreRunByTheApplication() throws Exception {
+        assertEquals("tool [];", run(new Tool()));
+        assertEquals("tool [commit];", run(new Tool(), "commit"));
+
+        // A subcommand is only recognized as the first argument
+        assertEquals("verbose;tool [add];", run(new Tool(), "--verbose", "add"));
+    }
+
+
+    @Test
+    public void onlyTheChosenClassIsLoaded() throws Exception {
+
+        // Lazy can't be configured, so this also shows it wasn't
+        assertEquals("first;", run(new Lazy(), "first"));
+        assertEquals(Collections.singletonList("first"), initialized);
+        try {
+            run(new Lazy(), "third");
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+        assertEquals(Collections.singletonList("first"), initialized);
+    }
+
+
+    @Test
+    public void unusableSubcommandClassesAreReported() throws Exception {
+        try {
+            run(new Mistaken(), "missing");
+            fail();
+        } catch (CommandLineException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot find the class com.example.Missing"));
+        }
+        try {
+            run(new Mistaken(), "string");
+            fail();
+        } catch (CommandLineException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("is not a CommandLineApplication"));
+        }
+        try {
+            run(new Duplicated(), "twice");
+            fail();
+        } catch (CommandLineException e) {
+            assertEquals("Subcommand twice is declared more than once", e.getMessage());
+        }
+    }
+
+
+    @Test
+    public void theUsageTextListsTheSubcommands() throws Exception {
+        Tool tool = new Tool();
+        run(tool, "--verbose");
+        PrintStream original = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            tool.printCommandLineUsageText("tool", "", "");
+        } finally {
+            System.setOut(original);
+        }
+        String usage = output.toString("UTF-8");
+        String newline = System.lineSeparator();
+        assertTrue(usage, usage.contains("Commands:" + newline + "  add      Add files" + newline + "  remote" + newline));
+    }
+}
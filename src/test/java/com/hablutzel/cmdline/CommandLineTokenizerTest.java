@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.apache.commons.cli.Option;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the native parser gives the same results as the
+ * commons-cli DefaultParser, for the cases that have differed in the
+ * past and for many random command lines
+ */
+public class CommandLineTokenizerTest {
+
+    public static class Options extends CommandLineApplication {
+
+        @CommandLineOption(shortForm = "a", usage = "Flag a")
+        public void a() {
+        }
+
+        @CommandLineOption(shortForm = "b", longForm = "bee", usage = "Value b")
+        public void b(String value) {
+        }
+
+        @CommandLineOption(shortForm = "c", usage = "Values c", maximumArgumentCount = 3)
+        public void c(String[] values) {
+        }
+
+        @CommandLineOption(shortForm = "D", usage = "Properties", maximumArgumentCount = 2, argumentSeparator = '=')
+        public void properties(String[] values) {
+        }
+
+        @CommandLineOption(shortForm = "Dx", usage = "A longer short option", optionalArgument = true)
+        public void dx(String value) {
+        }
+
+        @CommandLineOption(longForm = "xml", usage = "Flag xml")
+        public void xml() {
+        }
+
+        @CommandLineOption(longForm = "xmlns", usage = "Value xmlns")
+        public void xmlns(String value) {
+        }
+
+        @CommandLineOption(longForm = "verbose", usage = "Optional verbose", optionalArgument = true)
+        public void verbose(String value) {
+        }
+
+        @CommandLineOption(longForm = "version", usage = "Flag version")
+        public void version() {
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+        }
+    }
+
+
+    private static final String[] PIECES = {
+            "-", "--", "a", "b", "c", "D", "Dx", "x", "xm", "xml", "xmlns", "bee", "be", "ver", "verb", "version",
+            "=", "v", "1,2", "k=v", "-5", "q", ",", " "
+    };
+
+
+    @Test
+    public void unknownShortOptionWithValue() throws Exception {
+        compare("-x=V");
+        compare("-q=V");
+        compare("-x");
+    }
+
+
+    @Test
+    public void javaPropertyAndLongerShortOption() throws Exception {
+        compare("-Dxvalue");
+        compare("-Dxy");
+        compare("-Dkey=value");
+        compare("-Dx=value");
+        compare("-Dx", "value");
+    }
+
+
+    @Test
+    public void randomCommandLines() throws Exception {
+        Random random = new Random(20161016);
+        for (int i = 0; i < 20000; ++i) {
+            String[] args = new String[random.nextInt(5)];
+            for (int j = 0; j < args.length; ++j) {
+                StringBuilder token = new StringBuilder();
+                for (int k = 1 + random.nextInt(3); k > 0; --k) {
+                    token.append(PIECES[random.nextInt(PIECES.length)]);
+                }
+                args[j] = token.toString();
+            }
+            compare(args);
+        }
+    }
+
+
+    private static void compare(String... args) throws Exception {
+        CommandLineMetadata metadata = CommandLineMetadata.forClass(Options.class);
+        String expected;
+        try {
+            expected = describe(metadata, () -> CommandLineInterpreter.forClass(Options.class).parse(args));
+        } catch (RuntimeException e) {
+
+            // The DefaultParser fails on some tokens, such as -=V; the
+            // native parser doesn't copy its failures
+            return;
+        }
+        String actual = describe(metadata, () -> new CommandLineTokenizer(metadata).parse(args));
+        assertEquals(Arrays.toString(args), expected, actual);
+    }
+
+
+    private interface Parser {
+        ParsedCommandLine parse() throws CommandLineException;
+    }
+
+
+    /**
+     * Describe the options, values and arguments found, or the
+     * kind of error
+     */
+    private static String describe(CommandLineMetadata metadata, Parser parser) {
+        ParsedCommandLine commandLine;
+        try {
+            commandLine = parser.parse();
+        } catch (CommandLineException e) {
+            return "error " + (e.getCause() == null ? e.getMessage() : e.getCause().getClass().getSimpleName());
+        }
+        List<String> found = new ArrayList<>();
+        for (Option option : metadata.optionList()) {
+            String key = option.getOpt() == null ? option.getLongOpt() : option.getOpt();
+            if (commandLine.hasOption(key)) {
+                found.add(key + Arrays.toString(commandLine.getOptionValues(key)));
+            }
+        }
+        return found + " " + commandLine.getArguments();
+    }
+}
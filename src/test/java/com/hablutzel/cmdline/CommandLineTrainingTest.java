@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CommandLineTrainingTest {
+
+    // The methods of the applications below that have been called
+    static final List<String> calls = new ArrayList<>();
+
+
+    @CommandLineSubcommand(name = "count", className = "com.hablutzel.cmdline.CommandLineTrainingTest$Count")
+    public static class Tool extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "verbose", usage = "Verbose")
+        public void verbose() {
+            calls.add("verbose");
+        }
+
+        @CommandLineMain
+        public void run(String[] arguments) {
+            calls.add("tool");
+        }
+    }
+
+
+    public static class Count extends CommandLineApplication {
+
+        @CommandLineOption(longForm = "add", usage = "Add to the count")
+        public void add(int value) {
+            calls.add("add");
+        }
+
+        @CommandLineMain
+        public void run(int[] values) {
+            calls.add("count");
+        }
+    }
+
+
+    @Test
+    public void trainingCallsNoApplicationMethods() throws Exception {
+        calls.clear();
+        new Tool().parseAndRun(new String[]{"--cmdline-train", "--verbose", "x"});
+        new Tool().parseAndRun(new String[]{"--cmdline-train", "count", "--add", "3", "4"});
+        assertEquals(new ArrayList<String>(), calls);
+    }
+
+
+    @Test
+    public void subcommandArgumentsAreParsedForTheSubcommand() throws Exception {
+        try {
+            new Tool().parseAndRun(new String[]{"--cmdline-train", "count", "--verbose"});
+            fail();
+        } catch (CommandLineException e) {
+            // Expected
+        }
+    }
+}
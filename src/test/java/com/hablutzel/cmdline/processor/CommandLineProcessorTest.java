@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) Bob Hablutzel. All rights reserved.
+ *
+ * This code is released under a simplified BSD license.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.hablutzel.cmdline.processor;
+
+import com.hablutzel.cmdline.CommandLineApplication;
+import com.hablutzel.cmdline.CommandLineMetrics;
+import com.hablutzel.cmdline.CommandLineMetricsListener;
+import org.apache.commons.beanutils.Converter;
+import org.apache.commons.cli.Options;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandLineProcessorTest {
+
+    /**
+     * An application with each of the common method types, which logs
+     * each call so that the two dispatch paths can be compared. It
+     * registers its own converter for Strings, which both paths must use.
+     */
+    private static final String SAMPLE = String.join("\n",
+            "package sample;",
+            "import com.hablutzel.cmdline.*;",
+            "import java.io.File;",
+            "import java.util.List;",
+            "public class Sample extends CommandLineApplication {",
+            "    static {",
+            "        CommandLineConverters.forClass(Sample.class).register(String.class, new org.apache.commons.beanutils.Converter() {",
+            "            @Override",
+            "            public <T> T convert(Class<T> type, Object value) { return type.cast(value.toString().toUpperCase()); }",
+            "        });",
+            "    }",
+            "    public final StringBuilder log = new StringBuilder();",
+            "    @CommandLineOption(shortForm = \"v\", longForm = \"verbose\", usage = \"Verbose\")",
+            "    public void verbose() { log.append(\"verbose;\"); }",
+            "    @CommandLineOption(longForm = \"stop\", usage = \"Stop before main\")",
+            "    public boolean stop() { log.append(\"stop;\"); return false; }",
+            "    @CommandLineOption(longForm = \"count\", usage = \"A count\")",
+            "    public void count(int count) { log.append(\"count \").append(count).append(';'); }",
+            "    @CommandLineOption(longForm = \"name\", usage = \"A name\")",
+            "    public void name(String name) { log.append(\"name \").append(name).append(';'); }",
+            "    @CommandLineOption(longForm = \"limit\", usage = \"A limit\")",
+            "    public void limit(Long limit) { log.append(\"limit \").append(limit).append(';'); }",
+            "    @CommandLineOption(longForm = \"sizes\", usage = \"Sizes\", maximumArgumentCount = 3)",
+            "    public void sizes(Integer[] sizes) { log.append(\"sizes \").append(java.util.Arrays.toString(sizes)).append(';'); }",
+            "    @CommandLineOption(longForm = \"weights\", usage = \"Weights\", maximumArgumentCount = 3)",
+            "    public void weights(double[] weights) { log.append(\"weights \").append(java.util.Arrays.toString(weights)).append(';'); }",
+            "    @CommandLineOption(longForm = \"files\", usage = \"Files\", maximumArgumentCount = 2, argumentType = File.class)",
+            "    public void files(List<File> files) { log.append(\"files \").append(files).append(';'); }",
+            "    @CommandLineOption(longForm = \"depth\", usage = \"A depth, converted when asked for\")",
+            "    public void depth(java.util.function.Supplier<Integer> depth) { log.append(\"depth \").append(depth.get()).append(';'); }",
+            "    @CommandLineMain",
+            "    public void run(String[] arguments) { log.append(\"main \").append(java.util.Arrays.toString(arguments)).append(';'); }",
+            "}",
+            "");
+
+
+    @Test
+    public void generatedDispatcherCompilesWithoutWarnings() throws Exception {
+        Path directory = Files.createTempDirectory("cmdline-processor");
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(directory, true, "-Xlint:all", "-Werror");
+        assertTrue(diagnostics.toString(), diagnostics.stream().noneMatch(d -> d.getKind() != Diagnostic.Kind.NOTE));
+        assertTrue(Files.exists(directory.resolve("sample/Sample_CommandLineDispatcher.class")));
+    }
+
+
+    @Test
+    public void generatedDispatcherMatchesReflectiveDispatch() throws Exception {
+        Path generated = Files.createTempDirectory("cmdline-processor");
+        Path reflective = Files.createTempDirectory("cmdline-processor");
+        compile(generated, true);
+        compile(reflective, false);
+        assertTrue(Files.exists(generated.resolve("sample/Sample_CommandLineDispatcher.class")));
+
+        String[][] commandLines = {
+                {},
+                {"-v", "a", "b"},
+                {"--count", "3", "--limit=40", "x"},
+                {"--sizes=1,2,3", "--weights=0.5,1.5", "--files=a.txt,b.txt"},
+                {"--verbose", "--stop", "ignored"},
+                {"--", "--count", "-v"},
+                {"--name", "bob", "x"},
+                {"--depth", "7"},
+        };
+        for (String[] commandLine : commandLines) {
+            assertEquals(Arrays.toString(commandLine), run(reflective, commandLine), run(generated, commandLine));
+        }
+        assertEquals("name BOB;main [X];", run(generated, new String[]{"--name", "bob", "x"}));
+    }
+
+
+    @Test
+    public void generatedDispatcherReportsThePhases() throws Exception {
+        Path generated = Files.createTempDirectory("cmdline-processor");
+        Path reflective = Files.createTempDirectory("cmdline-processor");
+        compile(generated, true);
+        compile(reflective, false);
+
+        final StringBuilder phases = new StringBuilder();
+        CommandLineMetricsListener listener = new CommandLineMetricsListener() {
+            @Override
+            public void parsed(Class<?> applicationClass, int argumentCount, long durationNanos, Throwable failure) {
+                phases.append("parsed ").append(argumentCount).append(failure == null ? ";" : " failed;");
+            }
+
+            @Override
+            public void optionInvoked(Class<?> applicationClass, String option, int valueCount, long durationNanos, Throwable failure) {
+                phases.append(option).append(' ').append(valueCount).append(';');
+            }
+
+            @Override
+            public void mainInvoked(Class<?> applicationClass, int argumentCount, long durationNanos, Throwable failure) {
+                phases.append("main ").append(argumentCount).append(';');
+            }
+        };
+
+        String[][] commandLines = {
+                {"-v", "a", "b"},
+                {"--count", "3", "--sizes=1,2", "x"},
+                {"--verbose", "--stop", "ignored"},
+        };
+        CommandLineMetrics.addListener(listener);
+        try {
+            for (String[] commandLine : commandLines) {
+                phases.setLength(0);
+                run(reflective, commandLine);
+                String expected = phases.toString();
+                phases.setLength(0);
+                run(generated, commandLine);
+                assertEquals(Arrays.toString(commandLine), expected, phases.toString());
+            }
+            assertEquals("parsed 3;stop 0;verbose 0;", phases.toString());
+        } finally {
+            CommandLineMetrics.removeListener(listener);
+        }
+    }
+
+
+    private static String run(Path directory, String[] args) throws Exception {
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()},
+                CommandLineProcessorTest.class.getClassLoader())) {
+            Class<?> type = loader.loadClass("sample.Sample");
+            CommandLineApplication application = (CommandLineApplication) type.getDeclaredConstructor().newInstance();
+            application.parseAndRun(args);
+            return type.getField("log").get(application).toString();
+        }
+    }
+
+
+    /**
+     * Compile the sample into a directory, with or without the processor
+     */
+    private static List<Diagnostic<? extends JavaFileObject>> compile(Path directory, boolean process,
+                                                                      String... extraOptions) throws Exception {
+        Path source = directory.resolve("Sample.java");
+        Files.write(source, SAMPLE.getBytes(StandardCharsets.UTF_8));
+
+        // The library and its dependencies, wherever the test is run from
+        String classPath = String.join(File.pathSeparator,
+                location(CommandLineApplication.class), location(Options.class), location(Converter.class));
+        List<String> options = new ArrayList<>(Arrays.asList("-d", directory.toString(), "-s", directory.toString(),
+                "-cp", classPath));
+        if (process) {
+            options.addAll(Arrays.asList("-processorpath", classPath,
+                    "-processor", CommandLineProcessor.class.getName()));
+        } else {
+            options.add("-proc:none");
+        }
+        options.addAll(Arrays.asList(extraOptions));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            boolean compiled = compiler.getTask(null, files, diagnostics, options, null,
+                    files.getJavaFileObjects(source.toFile())).call();
+            assertTrue(diagnostics.getDiagnostics().toString(), compiled);
+        }
+        return diagnostics.getDiagnostics();
+    }
+
+
+    private static String location(Class<?> type) throws Exception {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+}